@@ -9,13 +9,16 @@ import android.widget.EditText;
 import com.longway.core.R;
 import com.longway.core.client.ConnectListener;
 import com.longway.core.client.MessageHandler;
-import com.longway.core.client.MessageInterceptor;
 import com.longway.core.client.MessageReceiptHandler;
 import com.longway.core.client.NetworkMonitor;
 import com.longway.core.client.PingListener;
+import com.longway.core.client.PipelineContext;
+import com.longway.core.client.PipelineStage;
 import com.longway.core.client.ReconnectedListener;
 import com.longway.core.client.SocketChannelClient;
 
+import java.nio.ByteBuffer;
+
 
 /*********************************
  * Created by longway on 16/6/23 下午3:32.
@@ -62,11 +65,16 @@ public class SocketChannelActivity extends Activity {
                 Log.d(TAG, reason);
             }
         });
-        mClient.registerMessageInterceptor(new MessageInterceptor() {
+        mClient.pipeline().addLast(new PipelineStage() {
+            @Override
+            public ByteBuffer onOutbound(PipelineContext context, ByteBuffer message) {
+                Log.d(TAG, "send " + message.remaining() + " bytes");
+                return message;
+            }
+
             @Override
-            public byte[] onInterceptor(byte[] msg) {
-                Log.d(TAG, new String(msg));
-                return msg;
+            public ByteBuffer onInbound(PipelineContext context, ByteBuffer message) {
+                return message;
             }
         });
         mClient.registerNetMonitor(new NetworkMonitor() {
@@ -0,0 +1,105 @@
+package com.longway.core.benchmark;
+
+import com.longway.core.codec.LengthFieldFrameCodec;
+import com.longway.core.server.SessionManager;
+import com.longway.core.server.SocketChannelServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * time for one {@link SocketChannelServer#broadcast(byte[])} to reach every loopback session.
+ * 10k sessions need 20k descriptors in this process, raise {@code ulimit -n} first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final int PORT = Integer.getInteger("benchmark.port", 19876);
+    private static final long TIMEOUT = 60 * 1000;
+
+    @Param({"100", "1000", "10000"})
+    public int sessions;
+
+    @Param({"256"})
+    public int payloadSize;
+
+    private SocketChannelServer mServer;
+    private LoopbackReceiver mReceiver;
+    private byte[] mPayload;
+    private long mExpected;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        LengthFieldFrameCodec frameCodec = new LengthFieldFrameCodec();
+        mPayload = new byte[payloadSize];
+        mServer = SocketChannelServer.start(PORT, frameCodec);
+        mReceiver = new LoopbackReceiver(frameCodec, payloadSize);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+        for (int i = 0; i < sessions; i++) {
+            mReceiver.add(connect(address));
+        }
+        awaitSessions(sessions);
+        mExpected = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        mReceiver.close();
+        awaitSessions(0);
+        mServer.pause();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        mServer.broadcast(mPayload);
+        mExpected += sessions;
+        mReceiver.awaitReceived(mExpected);
+    }
+
+    /**
+     * the acceptor binds asynchronously, retry until it listens
+     */
+    private static SocketChannel connect(InetSocketAddress address) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static void awaitSessions(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (SessionManager.getInstance().size() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("expected " + count + " sessions but have "
+                        + SessionManager.getInstance().size());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.longway.core.benchmark;
+
+import com.longway.core.codec.DelimiterFrameCodec;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameDecoder;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.FrameHandler;
+import com.longway.core.codec.LengthFieldFrameCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * decode throughput of both codecs. every invocation decodes {@link #FRAMES} frames, either
+ * from one contiguous read or from reads cut at a typical MSS so frames straddle reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+    private static final int FRAMES = 64;
+    private static final int MSS = 1460;
+
+    @Param({"length", "delimiter"})
+    public String codec;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private FrameDecoder mDecoder;
+    private ByteBuffer mInput;
+    private FrameHandler mHandler;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        FrameCodec frameCodec = "length".equals(codec) ? new LengthFieldFrameCodec() : new DelimiterFrameCodec();
+        mDecoder = frameCodec.newDecoder();
+        byte[] payload = new byte[payloadSize];
+        // never contains the delimiter
+        Arrays.fill(payload, (byte) 'a');
+        final int frameLength = frameCodec.headerLength() + payloadSize + frameCodec.trailerLength();
+        ByteBuffer input = ByteBuffer.allocateDirect(frameLength * FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            frameCodec.writeHeader(input, payloadSize, FrameFlags.NONE);
+            input.put(payload);
+            frameCodec.writeTrailer(input);
+        }
+        input.flip();
+        mInput = input;
+        mHandler = new FrameHandler() {
+            @Override
+            public void onFrame(ByteBuffer frame, int flags) {
+                blackhole.consume(frame.get(frame.position()));
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void contiguous() throws IOException {
+        mDecoder.decode(mInput.duplicate(), mHandler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void fragmented() throws IOException {
+        ByteBuffer input = mInput.duplicate();
+        final int end = input.limit();
+        for (int position = 0; position < end; position += MSS) {
+            input.limit(Math.min(position + MSS, end)).position(position);
+            mDecoder.decode(input, mHandler);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.longway.core.benchmark;
+
+import com.longway.core.client.EventLoopGroup;
+import com.longway.core.client.MessageHandler;
+import com.longway.core.client.SocketChannelClient;
+import com.longway.core.codec.LengthFieldFrameCodec;
+import com.longway.core.server.SessionManager;
+import com.longway.core.server.ServerMetrics;
+import com.longway.core.server.SocketChannelServer;
+import com.longway.core.util.Histogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * loopback load generator. starts a {@link SocketChannelServer} and drives {@code clients}
+ * {@link SocketChannelClient} connections at {@code rate} messages per second each.
+ * <p>
+ * the server broadcasts every frame it reads, so each client sees its own message come back
+ * and the time since it was due to be sent is its round trip. one pacing thread sends on a
+ * fixed schedule and timestamps the scheduled send time, not the actual one, so a stalled
+ * write path shows up as latency instead of as a lower send rate.
+ * <p>
+ * every message fans out to all clients, the server writes {@code clients * clients * rate}
+ * frames per second. by default each client runs its own I/O, keep-alive and reconnect threads,
+ * {@code --loops 0} gives each client a single event loop thread instead and {@code --loops n}
+ * shares a group of {@code n} event loops among all clients.
+ * <pre>
+ * ./gradlew :benchmark:loadTest -Pargs='--clients 100 --rate 50 --size 256 --duration 30'
+ * </pre>
+ */
+public class LoadTest {
+    private static final long CONNECT_TIMEOUT = 60 * 1000;
+    // client index and scheduled send time
+    private static final int STAMP_LENGTH = 12;
+
+    private int mClients = 100;
+    private int mRate = 10;
+    private int mSize = 256;
+    private int mDuration = 30;
+    private int mWarmup = 5;
+    private int mPort = 19877;
+    private int mWorkers = SocketChannelServer.DEFAULT_WORKER_COUNT;
+    private int mLoops = -1;
+
+    private EventLoopGroup mEventLoopGroup;
+
+    private volatile Histogram mHistogram = new Histogram();
+    /**
+     * the server while it was driven, wakeups per second cover warm-up and run
+     */
+    private ServerMetrics.Snapshot mServerMetrics;
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mReceived = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        loadTest.parse(args);
+        loadTest.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String name = args[i];
+            final int value = Integer.parseInt(args[i + 1]);
+            if ("--clients".equals(name)) {
+                mClients = value;
+            } else if ("--rate".equals(name)) {
+                mRate = value;
+            } else if ("--size".equals(name)) {
+                mSize = value;
+            } else if ("--duration".equals(name)) {
+                mDuration = value;
+            } else if ("--warmup".equals(name)) {
+                mWarmup = value;
+            } else if ("--port".equals(name)) {
+                mPort = value;
+            } else if ("--workers".equals(name)) {
+                mWorkers = value;
+            } else if ("--loops".equals(name)) {
+                mLoops = value;
+            } else {
+                throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        if (mClients <= 0 || mRate <= 0 || mDuration <= 0 || mWarmup < 0) {
+            throw new IllegalArgumentException("clients, rate and duration must be large than 0");
+        }
+        if (mSize < STAMP_LENGTH) {
+            throw new IllegalArgumentException("size must be at least " + STAMP_LENGTH);
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        System.out.printf("clients=%d rate=%d/s size=%d duration=%ds warmup=%ds workers=%d loops=%d%n",
+                mClients, mRate, mSize, mDuration, mWarmup, mWorkers, mLoops);
+        LengthFieldFrameCodec frameCodec = new LengthFieldFrameCodec();
+        SocketChannelServer server = SocketChannelServer.start(mPort, frameCodec, mWorkers);
+        SocketChannelClient[] clients = new SocketChannelClient[mClients];
+        try {
+            if (mLoops > 0) {
+                mEventLoopGroup = new EventLoopGroup(mLoops);
+            }
+            awaitListening();
+            for (int i = 0; i < mClients; i++) {
+                clients[i] = connect(frameCodec, i);
+            }
+            awaitConnected(clients);
+            server.metrics().snapshot();
+            drive(clients);
+            mServerMetrics = server.metrics().snapshot();
+        } finally {
+            for (SocketChannelClient client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+            if (mEventLoopGroup != null) {
+                mEventLoopGroup.shutdown();
+            }
+            server.pause();
+        }
+        report();
+    }
+
+    private SocketChannelClient connect(LengthFieldFrameCodec frameCodec, final int index) {
+        SocketChannelClient client = SocketChannelClient.newClient("127.0.0.1", mPort)
+                .setFrameCodec(frameCodec);
+        if (mEventLoopGroup != null) {
+            client.useEventLoop(mEventLoopGroup);
+        } else if (mLoops == 0) {
+            client.useEventLoop();
+        }
+        client.start();
+        client.registerMessageHandler(new MessageHandler() {
+            @Override
+            public void onReceiveMessage(byte[] message) {
+                if (message.length != mSize) {
+                    // keep-alive ping
+                    return;
+                }
+                mReceived.incrementAndGet();
+                ByteBuffer stamp = ByteBuffer.wrap(message);
+                if (stamp.getInt(0) == index) {
+                    mHistogram.record(System.nanoTime() - stamp.getLong(4));
+                }
+            }
+        });
+        return client;
+    }
+
+    /**
+     * the acceptor binds asynchronously, clients started before would go through reconnects
+     */
+    private void awaitListening() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                SocketChannel.open(new InetSocketAddress("127.0.0.1", mPort)).close();
+                break;
+            } catch (IOException e) {
+                checkDeadline(deadline);
+                Thread.sleep(10);
+            }
+        }
+        while (SessionManager.getInstance().size() != 0) {
+            checkDeadline(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitConnected(SocketChannelClient[] clients) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        for (SocketChannelClient client : clients) {
+            while (!client.isConnected()) {
+                checkDeadline(deadline);
+                Thread.sleep(10);
+            }
+        }
+        while (SessionManager.getInstance().size() < clients.length) {
+            checkDeadline(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void checkDeadline(long deadline) {
+        if (System.currentTimeMillis() > deadline) {
+            throw new IllegalStateException("clients did not connect in time");
+        }
+    }
+
+    private void drive(SocketChannelClient[] clients) {
+        final long interval = TimeUnit.SECONDS.toNanos(1) / ((long) mRate * mClients);
+        final long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.SECONDS.toNanos(mWarmup);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(mDuration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        long lastSent = 0;
+        long lastReceived = 0;
+        boolean measuring = mWarmup == 0;
+        long scheduled = start;
+        int next = 0;
+        while (scheduled < end) {
+            long now = System.nanoTime();
+            if (now < scheduled) {
+                if (scheduled - now > TimeUnit.MICROSECONDS.toNanos(100)) {
+                    LockSupport.parkNanos(scheduled - now - TimeUnit.MICROSECONDS.toNanos(50));
+                }
+                continue;
+            }
+            if (!measuring && scheduled >= measureStart) {
+                // replies of warm-up messages still in flight land in the old histogram
+                mHistogram = new Histogram();
+                mSent.set(0);
+                mRejected.set(0);
+                mReceived.set(0);
+                lastSent = 0;
+                lastReceived = 0;
+                measuring = true;
+            }
+            byte[] message = new byte[mSize];
+            ByteBuffer.wrap(message).putInt(next).putLong(scheduled);
+            if (clients[next].sendMsg(message)) {
+                mSent.incrementAndGet();
+            } else {
+                mRejected.incrementAndGet();
+            }
+            next = next + 1 == clients.length ? 0 : next + 1;
+            scheduled += interval;
+            if (now >= nextReport) {
+                final long sent = mSent.get();
+                final long received = mReceived.get();
+                System.out.printf("%s sent=%d/s received=%d/s p99=%.1fus%n", measuring ? "run" : "warmup",
+                        sent - lastSent, received - lastReceived,
+                        mHistogram.getValueAtPercentile(99) / 1000.0);
+                lastSent = sent;
+                lastReceived = received;
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+    }
+
+    private void report() {
+        final Histogram histogram = mHistogram;
+        System.out.printf("sent=%d rejected=%d received=%d%n", mSent.get(), mRejected.get(), mReceived.get());
+        System.out.printf("throughput: sent=%.0f/s received=%.0f/s%n",
+                (double) mSent.get() / mDuration, (double) mReceived.get() / mDuration);
+        System.out.printf("round trip (us): count=%d mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f%n",
+                histogram.getTotalCount(), histogram.getMean() / 1000.0,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMax() / 1000.0);
+        final ServerMetrics.Snapshot server = mServerMetrics;
+        if (server != null) {
+            System.out.printf("server: in=%d frames out=%d frames wakeups=%.0f/s queued=%d bytes write (us) p50=%.1f p99=%.1f%n",
+                    server.getMessagesIn(), server.getMessagesOut(), server.getWakeupsPerSecond(),
+                    server.getQueuedBytes(),
+                    server.getWriteLatency().getValueAtPercentile(50) / 1000.0,
+                    server.getWriteLatency().getValueAtPercentile(99) / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.longway.core.benchmark;
+
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameDecoder;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.FrameHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * reads any number of loopback channels on one selector thread and counts the unflagged frames
+ * whose payload has the expected length, so heartbeats never complete a measurement.
+ */
+class LoopbackReceiver implements Runnable, FrameHandler {
+    /**
+     * a spinning waiter starves the receiver and the I/O thread of the client on a machine
+     * with fewer cores than busy threads
+     */
+    private static final boolean YIELD = Runtime.getRuntime().availableProcessors() < 3;
+    private final FrameCodec mFrameCodec;
+    private final int mPayloadSize;
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final ConcurrentLinkedQueue<SocketChannel> mPending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong mReceived = new AtomicLong();
+    private volatile boolean mRunning = true;
+
+    LoopbackReceiver(FrameCodec frameCodec, int payloadSize) throws IOException {
+        this.mFrameCodec = frameCodec;
+        this.mPayloadSize = payloadSize;
+        this.mSelector = Selector.open();
+        mThread = new Thread(this);
+        mThread.setName("LoopbackReceiver");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    void add(SocketChannel channel) {
+        mPending.offer(channel);
+        mSelector.wakeup();
+    }
+
+    long received() {
+        return mReceived.get();
+    }
+
+    /**
+     * spins until at least {@code target} frames arrived, yielding if there are too few cores
+     * for the receiver and the I/O thread to run next to it
+     */
+    void awaitReceived(long target) {
+        while (mReceived.get() < target) {
+            if (!mRunning) {
+                throw new IllegalStateException("receiver stopped");
+            }
+            if (YIELD) {
+                Thread.yield();
+            }
+        }
+    }
+
+    void close() throws IOException {
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : mSelector.keys()) {
+            key.channel().close();
+        }
+        mSelector.close();
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame, int flags) {
+        if (flags == FrameFlags.NONE && frame.remaining() == mPayloadSize) {
+            mReceived.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                SocketChannel channel;
+                while ((channel = mPending.poll()) != null) {
+                    channel.configureBlocking(false);
+                    channel.register(mSelector, SelectionKey.OP_READ, mFrameCodec.newDecoder());
+                }
+                Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid() || !key.isReadable()) {
+                        continue;
+                    }
+                    FrameDecoder decoder = (FrameDecoder) key.attachment();
+                    if (decoder.readFrom((SocketChannel) key.channel(), this) < 0) {
+                        decoder.reset();
+                        key.cancel();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            mRunning = false;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.longway.core.benchmark;
+
+import com.longway.core.client.SocketChannelClient;
+import com.longway.core.codec.LengthFieldFrameCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * time from {@link SocketChannelClient#sendMsg(byte[])} until the frame has been read on the
+ * other end of a loopback connection, i.e. queueing, the selector wakeup of the I/O thread,
+ * encoding and the socket write. with one message in flight every send pays a whole wakeup,
+ * {@link LoadTest} shows how that spreads over many clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteLatencyBenchmark {
+    private static final long CONNECT_TIMEOUT = 10 * 1000;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    /**
+     * the own I/O thread of the client or the shared {@link com.longway.core.client.EventLoopGroup}
+     */
+    @Param({"thread", "eventLoop"})
+    public String ioThread;
+
+    private ServerSocketChannel mServerSocketChannel;
+    private LoopbackReceiver mReceiver;
+    private SocketChannelClient mClient;
+    private byte[] mPayload;
+    private long mSent;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        LengthFieldFrameCodec frameCodec = new LengthFieldFrameCodec();
+        mPayload = new byte[payloadSize];
+        mReceiver = new LoopbackReceiver(frameCodec, payloadSize);
+        mServerSocketChannel = ServerSocketChannel.open();
+        mServerSocketChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        mClient = SocketChannelClient.newClient("127.0.0.1", mServerSocketChannel.socket().getLocalPort())
+                .setFrameCodec(frameCodec);
+        if ("eventLoop".equals(ioThread)) {
+            mClient.useEventLoop();
+        }
+        mClient.start();
+        mReceiver.add(mServerSocketChannel.accept());
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (!mClient.isConnected()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("client did not connect");
+            }
+            Thread.sleep(10);
+        }
+        mSent = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mClient.close();
+        mReceiver.close();
+        mServerSocketChannel.close();
+    }
+
+    @Benchmark
+    public void enqueueToSocket() {
+        while (!mClient.sendMsg(mPayload)) {
+            // outbound buffer above the limit, only possible if the receiver stalls
+            Thread.yield();
+        }
+        mReceiver.awaitReceived(++mSent);
+    }
+}
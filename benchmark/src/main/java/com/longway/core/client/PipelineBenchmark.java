@@ -0,0 +1,75 @@
+package com.longway.core.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of running an outbound message through the stages of a {@link Pipeline}, against
+ * the deprecated {@link MessageInterceptor} chain run as stages. the stages pass the message
+ * through untouched, so only the pipeline itself is measured. lives in the client package to
+ * reach the package-private parts of the pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"0", "1", "4"})
+    public int stages;
+
+    private Pipeline mPipeline;
+    private Pipeline mInterceptors;
+    private PipelineContext mContext;
+    private ByteBuffer mPayload;
+
+    @Setup
+    public void setup() {
+        mPipeline = new Pipeline();
+        mInterceptors = new Pipeline();
+        for (int i = 0; i < stages; i++) {
+            mPipeline.addLast(new PipelineStage() {
+                @Override
+                public ByteBuffer onOutbound(PipelineContext context, ByteBuffer message) {
+                    return message;
+                }
+
+                @Override
+                public ByteBuffer onInbound(PipelineContext context, ByteBuffer message) {
+                    return message;
+                }
+            });
+            mInterceptors.addLast(new InterceptorStage(new MessageInterceptor() {
+                @Override
+                public byte[] onInterceptor(byte[] msg) {
+                    return msg;
+                }
+            }));
+        }
+        mContext = new PipelineContext();
+        mPayload = ByteBuffer.allocate(256);
+    }
+
+    @Benchmark
+    public ByteBuffer pipeline() {
+        return mPipeline.outbound(mContext, mPayload);
+    }
+
+    @Benchmark
+    public ByteBuffer interceptors() {
+        return mInterceptors.outbound(mContext, mPayload);
+    }
+}
@@ -0,0 +1,180 @@
+package com.longway.core.buffer;
+
+import com.longway.core.util.Logger;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * direct buffers in power of two size classes, shared by the read and write paths so the
+ * socket calls neither allocate nor copy through a temporary direct buffer. requests
+ * larger than the biggest class get an unpooled heap buffer.
+ */
+public class ByteBufferPool {
+    private static final String TAG = ByteBufferPool.class.getSimpleName();
+    private static final int MIN_SHIFT = 8;
+    private static final int DEFAULT_MAX_SHIFT = 16;
+    /**
+     * every size class caches at most this many bytes of free buffers
+     */
+    private static final int CACHE_BYTES_PER_CLASS = 256 * 1024;
+    private static final int MIN_CACHED_PER_CLASS = 4;
+    private static volatile ByteBufferPool sDefault;
+    private final int mMaxShift;
+    private final Stack[] mStacks;
+    private volatile boolean mLeakDetection;
+    private final ReferenceQueue<PooledByteBuffer> mLeakQueue = new ReferenceQueue<>();
+    private final Set<LeakTracker> mTrackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+
+    public static ByteBufferPool getDefault() {
+        if (sDefault == null) {
+            synchronized (ByteBufferPool.class) {
+                if (sDefault == null) {
+                    sDefault = new ByteBufferPool(DEFAULT_MAX_SHIFT);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param maxShift the biggest size class is {@code 1 << maxShift} bytes
+     */
+    public ByteBufferPool(int maxShift) {
+        if (maxShift < MIN_SHIFT || maxShift > 30) {
+            throw new IllegalArgumentException("maxShift must be between " + MIN_SHIFT + " and 30");
+        }
+        this.mMaxShift = maxShift;
+        this.mStacks = new Stack[maxShift - MIN_SHIFT + 1];
+        for (int i = 0; i < mStacks.length; i++) {
+            mStacks[i] = new Stack(Math.max(MIN_CACHED_PER_CLASS, CACHE_BYTES_PER_CLASS >> (MIN_SHIFT + i)));
+        }
+    }
+
+    /**
+     * records where every buffer was acquired and logs the ones collected without
+     * {@link PooledByteBuffer#release()}, costs an allocation per acquire so only for debugging
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.mLeakDetection = leakDetection;
+    }
+
+    public int maxPooledCapacity() {
+        return 1 << mMaxShift;
+    }
+
+    /**
+     * @return a cleared buffer with at least {@code capacity} bytes and a reference count of 1
+     */
+    public PooledByteBuffer acquire(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be large than equals 0");
+        }
+        PooledByteBuffer pooled;
+        final int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            pooled = new PooledByteBuffer(this, ByteBuffer.allocate(capacity), -1);
+        } else {
+            pooled = mStacks[sizeClass].pop();
+            if (pooled == null) {
+                pooled = new PooledByteBuffer(this, ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT)), sizeClass);
+            }
+        }
+        pooled.init();
+        if (mLeakDetection) {
+            track(pooled);
+        }
+        return pooled;
+    }
+
+    void recycle(PooledByteBuffer pooled) {
+        LeakTracker tracker = pooled.mTracker;
+        if (tracker != null) {
+            pooled.mTracker = null;
+            mTrackers.remove(tracker);
+            tracker.clear();
+        }
+        final int sizeClass = pooled.sizeClass();
+        if (sizeClass >= 0) {
+            pooled.buffer().clear();
+            mStacks[sizeClass].push(pooled);
+        }
+    }
+
+    private int sizeClass(int capacity) {
+        if (capacity > 1 << mMaxShift) {
+            return -1;
+        }
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    private void track(PooledByteBuffer pooled) {
+        reportLeaks();
+        LeakTracker tracker = new LeakTracker(pooled, mLeakQueue);
+        pooled.mTracker = tracker;
+        mTrackers.add(tracker);
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledByteBuffer> reference;
+        while ((reference = mLeakQueue.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) reference;
+            if (mTrackers.remove(tracker)) {
+                Logger.w(TAG, "buffer of size class " + tracker.mSizeClass
+                        + " was collected without release, acquired at:", tracker.mAcquired);
+                // the memory itself is still good, give it back to the pool
+                if (tracker.mSizeClass >= 0) {
+                    tracker.mBuffer.clear();
+                    mStacks[tracker.mSizeClass].push(new PooledByteBuffer(this, tracker.mBuffer, tracker.mSizeClass));
+                }
+            }
+        }
+    }
+
+    static final class LeakTracker extends PhantomReference<PooledByteBuffer> {
+        private final ByteBuffer mBuffer;
+        private final int mSizeClass;
+        private final Throwable mAcquired = new Throwable();
+
+        LeakTracker(PooledByteBuffer referent, ReferenceQueue<PooledByteBuffer> queue) {
+            super(referent, queue);
+            this.mBuffer = referent.buffer();
+            this.mSizeClass = referent.sizeClass();
+        }
+    }
+
+    /**
+     * free buffers of one size class, the lock is only held for a push or a pop
+     */
+    private static final class Stack {
+        private final PooledByteBuffer[] mElements;
+        private int mSize;
+
+        Stack(int maxCached) {
+            this.mElements = new PooledByteBuffer[maxCached];
+        }
+
+        synchronized PooledByteBuffer pop() {
+            if (mSize == 0) {
+                return null;
+            }
+            PooledByteBuffer pooled = mElements[--mSize];
+            mElements[mSize] = null;
+            return pooled;
+        }
+
+        synchronized void push(PooledByteBuffer pooled) {
+            if (mSize < mElements.length) {
+                mElements[mSize++] = pooled;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.longway.core.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a reference counted buffer handed out by {@link ByteBufferPool}. the holder of the last
+ * reference must call {@link #release()}, after that neither this object nor
+ * {@link #buffer()} may be touched again.
+ */
+public final class PooledByteBuffer {
+    private final ByteBufferPool mPool;
+    private final ByteBuffer mBuffer;
+    private final int mSizeClass;
+    private final AtomicInteger mRefCnt = new AtomicInteger();
+    private volatile ByteBuffer[] mViews = new ByteBuffer[0];
+    ByteBufferPool.LeakTracker mTracker;
+
+    PooledByteBuffer(ByteBufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.mPool = pool;
+        this.mBuffer = buffer;
+        this.mSizeClass = sizeClass;
+    }
+
+    /**
+     * @return the underlying buffer, cleared when acquired
+     */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * a read-only view of the buffer with its own position and limit, created once per slot
+     * and kept as long as the buffer lives in the pool. each slot must only be used by one
+     * thread, so many threads can write the same content without copying or allocating.
+     */
+    public ByteBuffer view(int slot) {
+        ByteBuffer[] views = mViews;
+        if (slot < views.length && views[slot] != null) {
+            return views[slot];
+        }
+        return createView(slot);
+    }
+
+    private synchronized ByteBuffer createView(int slot) {
+        ByteBuffer[] views = mViews;
+        if (slot < views.length && views[slot] != null) {
+            return views[slot];
+        }
+        ByteBuffer[] grown = new ByteBuffer[Math.max(slot + 1, views.length)];
+        System.arraycopy(views, 0, grown, 0, views.length);
+        ByteBuffer view = mBuffer.asReadOnlyBuffer();
+        grown[slot] = view;
+        mViews = grown;
+        return view;
+    }
+
+    int sizeClass() {
+        return mSizeClass;
+    }
+
+    public int refCnt() {
+        return mRefCnt.get();
+    }
+
+    void init() {
+        mRefCnt.set(1);
+    }
+
+    public PooledByteBuffer retain() {
+        while (true) {
+            int refCnt = mRefCnt.get();
+            if (refCnt <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            if (mRefCnt.compareAndSet(refCnt, refCnt + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true when this was the last reference and the buffer went back to the pool
+     */
+    public boolean release() {
+        while (true) {
+            int refCnt = mRefCnt.get();
+            if (refCnt <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            if (mRefCnt.compareAndSet(refCnt, refCnt - 1)) {
+                if (refCnt == 1) {
+                    mPool.recycle(this);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.longway.core.client;
+
+import java.util.Random;
+
+/**
+ * delays between reconnect attempts, growing exponentially up to a cap and randomized so that
+ * clients dropped together by a server restart do not come back together.
+ * <ul>
+ * <li>{@link #FULL_JITTER}: uniform in [0, min(cap, base * 2^attempt)]</li>
+ * <li>{@link #DECORRELATED_JITTER}: uniform in [base, previous delay * 3], capped</li>
+ * </ul>
+ * the attempts only start over once a connection stayed up for the reset time, a server that
+ * accepts and drops right away keeps the clients backing off.
+ */
+public final class Backoff {
+    public static final int FULL_JITTER = 0;
+    public static final int DECORRELATED_JITTER = 1;
+    /**
+     * 2^30 times the base is far beyond any sensible cap
+     */
+    private static final int MAX_SHIFT = 30;
+    private final int mJitter;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final long mResetAfter;
+    // seeded per instance, every client draws its own sequence
+    private final Random mRandom = new Random();
+    private int mAttempt;
+    private long mPreviousDelay;
+    /**
+     * {@link System#currentTimeMillis()} of the last connect, 0 while disconnected
+     */
+    private long mConnectedTime;
+
+    public Backoff() {
+        this(FULL_JITTER, Config.RECONNECT_BASE_DELAY, Config.RECONNECT_MAX_DELAY, Config.RECONNECT_RESET_AFTER);
+    }
+
+    /**
+     * @param jitter     {@link #FULL_JITTER} or {@link #DECORRELATED_JITTER}
+     * @param baseDelay  milliseconds the delays grow from
+     * @param maxDelay   milliseconds no delay exceeds
+     * @param resetAfter milliseconds a connection must stay up to start the attempts over
+     */
+    public Backoff(int jitter, long baseDelay, long maxDelay, long resetAfter) {
+        if (jitter != FULL_JITTER && jitter != DECORRELATED_JITTER) {
+            throw new IllegalArgumentException("unknown jitter " + jitter);
+        }
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("0 < baseDelay <= maxDelay");
+        }
+        if (resetAfter < 0) {
+            throw new IllegalArgumentException("resetAfter must be large than equals 0");
+        }
+        this.mJitter = jitter;
+        this.mBaseDelay = baseDelay;
+        this.mMaxDelay = maxDelay;
+        this.mResetAfter = resetAfter;
+        this.mPreviousDelay = baseDelay;
+    }
+
+    /**
+     * @return milliseconds to wait before the next attempt
+     */
+    public synchronized long nextDelay() {
+        if (mConnectedTime != 0) {
+            if (System.currentTimeMillis() - mConnectedTime >= mResetAfter) {
+                reset();
+            }
+            mConnectedTime = 0;
+        }
+        final long delay;
+        if (mJitter == FULL_JITTER) {
+            final long ceiling = Math.min(mMaxDelay, mBaseDelay << Math.min(mAttempt, MAX_SHIFT));
+            delay = (long) (mRandom.nextDouble() * (ceiling + 1));
+        } else {
+            final long upper = Math.min(mMaxDelay, mPreviousDelay * 3);
+            delay = Math.min(mMaxDelay, mBaseDelay + (long) (mRandom.nextDouble() * (upper - mBaseDelay + 1)));
+            mPreviousDelay = delay;
+        }
+        mAttempt++;
+        return delay;
+    }
+
+    /**
+     * a connection is up, the attempts start over if it lasts for the reset time
+     */
+    public synchronized void onConnected() {
+        mConnectedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * starts the attempts over at once, for instance when the network came back
+     */
+    public synchronized void reset() {
+        mAttempt = 0;
+        mPreviousDelay = mBaseDelay;
+    }
+}
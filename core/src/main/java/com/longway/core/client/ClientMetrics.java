@@ -0,0 +1,195 @@
+package com.longway.core.client;
+
+import com.longway.core.util.Histogram;
+import com.longway.core.util.StripedCounter;
+
+/**
+ * what one {@link SocketChannelClient} has done since it was created. recording is a striped
+ * counter add or a histogram increment on the thread doing the work, nothing is computed
+ * until {@link #snapshot()} is called.
+ */
+public final class ClientMetrics {
+    private final SocketChannelClient mClient;
+    private final StripedCounter mBytesIn = new StripedCounter();
+    private final StripedCounter mBytesOut = new StripedCounter();
+    private final StripedCounter mMessagesIn = new StripedCounter();
+    private final StripedCounter mMessagesOut = new StripedCounter();
+    private final StripedCounter mWakeups = new StripedCounter();
+    private final StripedCounter mConnects = new StripedCounter();
+    private final StripedCounter mConnectFailures = new StripedCounter();
+    /**
+     * nanoseconds from queueing a message until the socket took it
+     */
+    private final Histogram mWriteLatency = new Histogram();
+    /**
+     * guarded by this, the rates of a snapshot cover the time since the previous one
+     */
+    private long mLastSnapshotTime = System.nanoTime();
+    private long mLastWakeups;
+
+    ClientMetrics(SocketChannelClient client) {
+        this.mClient = client;
+    }
+
+    void onRead(int bytes) {
+        mBytesIn.add(bytes);
+    }
+
+    void onFrameRead() {
+        mMessagesIn.increment();
+    }
+
+    void onWritten(int frames, int bytes) {
+        mMessagesOut.add(frames);
+        mBytesOut.add(bytes);
+    }
+
+    void onWakeup() {
+        mWakeups.increment();
+    }
+
+    void onConnected() {
+        mConnects.increment();
+    }
+
+    void onConnectFailed() {
+        mConnectFailures.increment();
+    }
+
+    void recordWriteLatency(long nanos) {
+        mWriteLatency.record(nanos);
+    }
+
+    public synchronized Snapshot snapshot() {
+        final long now = System.nanoTime();
+        final long wakeups = mWakeups.sum();
+        final long elapsed = now - mLastSnapshotTime;
+        final double wakeupsPerSecond = elapsed > 0 ? (wakeups - mLastWakeups) * 1e9 / elapsed : 0;
+        mLastSnapshotTime = now;
+        mLastWakeups = wakeups;
+        final WriteWorker writeWorker = mClient.getWriteWorker();
+        final OutboundBuffer outboundBuffer = mClient.getOutboundBuffer();
+        final Histogram writeLatency = new Histogram();
+        writeLatency.add(mWriteLatency);
+        return new Snapshot(mBytesIn.sum(), mBytesOut.sum(), mMessagesIn.sum(), mMessagesOut.sum(),
+                wakeups, wakeupsPerSecond, mConnects.sum(), mConnectFailures.sum(),
+                writeWorker != null ? writeWorker.getPendingMessageCount() : 0,
+                outboundBuffer != null ? outboundBuffer.getPendingBytes() : 0, writeLatency);
+    }
+
+    /**
+     * the counters at one point in time, the gauges as they were read
+     */
+    public static final class Snapshot {
+        private final long mBytesIn;
+        private final long mBytesOut;
+        private final long mMessagesIn;
+        private final long mMessagesOut;
+        private final long mWakeups;
+        private final double mWakeupsPerSecond;
+        private final long mConnects;
+        private final long mConnectFailures;
+        private final int mPendingMessages;
+        private final long mOutboundBytes;
+        private final Histogram mWriteLatency;
+
+        Snapshot(long bytesIn, long bytesOut, long messagesIn, long messagesOut, long wakeups,
+                 double wakeupsPerSecond, long connects, long connectFailures, int pendingMessages,
+                 long outboundBytes, Histogram writeLatency) {
+            this.mBytesIn = bytesIn;
+            this.mBytesOut = bytesOut;
+            this.mMessagesIn = messagesIn;
+            this.mMessagesOut = messagesOut;
+            this.mWakeups = wakeups;
+            this.mWakeupsPerSecond = wakeupsPerSecond;
+            this.mConnects = connects;
+            this.mConnectFailures = connectFailures;
+            this.mPendingMessages = pendingMessages;
+            this.mOutboundBytes = outboundBytes;
+            this.mWriteLatency = writeLatency;
+        }
+
+        /**
+         * bytes read from the socket, frame headers included
+         */
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        /**
+         * bytes handed to the socket, frame headers included
+         */
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * frames decoded, heartbeats and acks included
+         */
+        public long getMessagesIn() {
+            return mMessagesIn;
+        }
+
+        /**
+         * frames written, heartbeats and retransmits included
+         */
+        public long getMessagesOut() {
+            return mMessagesOut;
+        }
+
+        /**
+         * times the I/O thread woke up for this client. with a shared {@link EventLoopGroup}
+         * only the selected keys and flushes of this client count
+         */
+        public long getWakeups() {
+            return mWakeups;
+        }
+
+        /**
+         * wakeups per second since the previous snapshot
+         */
+        public double getWakeupsPerSecond() {
+            return mWakeupsPerSecond;
+        }
+
+        /**
+         * connections established, the first one included
+         */
+        public long getConnects() {
+            return mConnects;
+        }
+
+        public long getReconnects() {
+            return Math.max(0, mConnects - 1);
+        }
+
+        /**
+         * connect attempts that failed and connections that broke
+         */
+        public long getConnectFailures() {
+            return mConnectFailures;
+        }
+
+        /**
+         * messages waiting in the pending queue for the next connection
+         */
+        public int getPendingMessages() {
+            return mPendingMessages;
+        }
+
+        /**
+         * bytes accepted but not written yet, see {@link SocketChannelClient#isWritable()}
+         */
+        public long getOutboundBytes() {
+            return mOutboundBytes;
+        }
+
+        /**
+         * nanoseconds from {@code sendMsg} until the socket took the message, a copy owned
+         * by this snapshot. messages replayed after a reconnect are not recorded.
+         */
+        public Histogram getWriteLatency() {
+            return mWriteLatency;
+        }
+    }
+}
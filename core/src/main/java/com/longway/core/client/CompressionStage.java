@@ -0,0 +1,61 @@
+package com.longway.core.client;
+
+import com.longway.core.codec.CompressedFrame;
+import com.longway.core.codec.Compression;
+import com.longway.core.codec.Compressor;
+import com.longway.core.codec.FrameException;
+import com.longway.core.util.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * deflates outbound messages from the threshold of its {@link Compression} on and inflates
+ * inbound compressed frames, see {@link CompressedFrame}. which frames are compressed is told
+ * by {@link PipelineContext#isCompressed()}, never by the payload. holds the compressor of one
+ * connection, so an instance belongs to a single client.
+ */
+public final class CompressionStage implements PipelineStage {
+    private static final String TAG = CompressionStage.class.getSimpleName();
+    private final Compressor mCompressor;
+
+    public CompressionStage(Compression compression) {
+        if (compression == null) {
+            throw new NullPointerException("compression==null.");
+        }
+        this.mCompressor = compression.newCompressor();
+    }
+
+    @Override
+    public ByteBuffer onOutbound(PipelineContext context, ByteBuffer message) {
+        // valid until the next message, the frame is encoded before that
+        ByteBuffer compressed = mCompressor.compress(message);
+        if (compressed == null) {
+            return message;
+        }
+        context.setCompressed(true);
+        return compressed;
+    }
+
+    @Override
+    public ByteBuffer onInbound(PipelineContext context, ByteBuffer message) {
+        if (!context.isCompressed()) {
+            return message;
+        }
+        try {
+            message = mCompressor.decompress(message);
+            context.setCompressed(false);
+            return message;
+        } catch (FrameException e) {
+            Logger.e(TAG, "drop frame:" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * frees the native memory of the compressor, called on the I/O thread once the stage is
+     * out of the pipeline
+     */
+    void end() {
+        mCompressor.end();
+    }
+}
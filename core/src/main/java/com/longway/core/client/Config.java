@@ -13,4 +13,69 @@ public class Config {
      * 最大重连次数
      */
     public static final int MAX_RECONNECT_COUNT = 5;
+    /**
+     * most messages coalesced into one gathering write
+     */
+    public static final int MAX_BATCH_MESSAGES = 64;
+    /**
+     * most bytes coalesced into one gathering write
+     */
+    public static final int MAX_BATCH_BYTES = 64 * 1024;
+    /**
+     * writable again once the unwritten bytes fall to this
+     */
+    public static final int WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    /**
+     * not writable once the unwritten bytes reach this
+     */
+    public static final int WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    /**
+     * most unwritten bytes, sendMsg returns false beyond
+     */
+    public static final int WRITE_BUFFER_LIMIT = 4 * 1024 * 1024;
+    /**
+     * milliseconds to connect, shared by all resolved addresses
+     */
+    public static final int CONNECT_TIMEOUT = 10 * 1000;
+    /**
+     * milliseconds before the next address is tried next to the pending one, 250 as
+     * RFC 8305 recommends
+     */
+    public static final int CONNECTION_ATTEMPT_DELAY = 250;
+    /**
+     * milliseconds without receiving or sending before a ping
+     */
+    public static final int HEARTBEAT_INTERVAL = 10 * 1000;
+    /**
+     * milliseconds to wait for a pong, a missed one is chased by another ping at once
+     */
+    public static final int PONG_TIMEOUT = 5 * 1000;
+    /**
+     * pongs missed in a row before the connection is declared dead and reconnected
+     */
+    public static final int MAX_MISSED_PONGS = 3;
+    /**
+     * milliseconds of the first reconnect backoff
+     */
+    public static final int RECONNECT_BASE_DELAY = 1000;
+    /**
+     * most milliseconds of a reconnect backoff
+     */
+    public static final int RECONNECT_MAX_DELAY = 60 * 1000;
+    /**
+     * milliseconds a connection must last before the backoff starts over
+     */
+    public static final int RECONNECT_RESET_AFTER = 30 * 1000;
+    /**
+     * most bytes kept in memory while disconnected, the rest goes to the journal or is rejected
+     */
+    public static final int PENDING_QUEUE_MAX_BYTES = 1024 * 1024;
+    /**
+     * bytes of the pending journal file
+     */
+    public static final int PENDING_JOURNAL_SIZE = 16 * 1024 * 1024;
+    /**
+     * default most unacked messages of reliable delivery
+     */
+    public static final int RELIABLE_WINDOW = 256;
 }
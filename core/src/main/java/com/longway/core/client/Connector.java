@@ -0,0 +1,244 @@
+package com.longway.core.client;
+
+import com.longway.core.util.Logger;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * connects through OP_CONNECT on the selector the connection is later served by. every
+ * resolved address of the host is tried in the style of happy eyeballs (RFC 8305): address
+ * families alternate, a new attempt starts whenever the previous one failed or has been
+ * pending for the attempt delay, and the first attempt to complete wins while the others are
+ * closed. the whole race is bounded by the connect timeout.
+ * <p>
+ * {@link #connect(String, int)} resolves the host and runs the race on the calling thread. an
+ * event loop resolves elsewhere, lookups block, and drives the race through
+ * {@link #start(String, int, InetAddress[])}, {@link #onConnectable(SelectionKey)} and
+ * {@link #onTimer()}. each of them returns the winning key once there is one and closes every
+ * attempt before throwing.
+ */
+class Connector {
+    private static final String TAG = Connector.class.getSimpleName();
+    private final Selector mSelector;
+    private final Object mAttachment;
+    private final long mConnectTimeout;
+    private final long mAttemptDelay;
+    private final List<SelectionKey> mPending = new ArrayList<>();
+    private List<InetAddress> mAddresses;
+    private String mHost;
+    private int mPort;
+    private int mNext;
+    private long mDeadline;
+    private long mNextAttempt;
+    private IOException mLastFailure;
+
+    /**
+     * @param attachment     attached to every attempt and to the winning key
+     * @param connectTimeout milliseconds for the whole race
+     * @param attemptDelay   milliseconds before the next address is tried in parallel
+     */
+    Connector(Selector selector, Object attachment, long connectTimeout, long attemptDelay) {
+        this.mSelector = selector;
+        this.mAttachment = attachment;
+        this.mConnectTimeout = connectTimeout;
+        this.mAttemptDelay = attemptDelay;
+    }
+
+    /**
+     * runs the whole race on the calling thread
+     *
+     * @return the key of the winning channel, registered for OP_READ
+     */
+    SelectionKey connect(String host, int port) throws IOException {
+        SelectionKey winner = start(host, port, InetAddress.getAllByName(host));
+        while (winner == null) {
+            long wait = nextTimer() - System.nanoTime();
+            // select(0) would block forever
+            mSelector.select(Math.max(1, wait / 1000000L));
+            // ReconnectedThread interrupts to cut its back-off short, not to cancel this
+            Thread.interrupted();
+            Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+            while (winner == null && iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                winner = onConnectable(key);
+            }
+            if (winner == null) {
+                winner = onTimer();
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * starts the first attempt, the connect timeout runs from here
+     *
+     * @param resolved the addresses of {@code host}
+     */
+    SelectionKey start(String host, int port, InetAddress[] resolved) throws IOException {
+        this.mHost = host;
+        this.mPort = port;
+        final long now = System.nanoTime();
+        mDeadline = now + mConnectTimeout * 1000000L;
+        mNextAttempt = now;
+        try {
+            mAddresses = sortAddresses(resolved);
+            return advance(now);
+        } catch (IOException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    SelectionKey onConnectable(SelectionKey key) throws IOException {
+        if (!key.isValid() || !key.isConnectable() || !mPending.contains(key)) {
+            return null;
+        }
+        try {
+            try {
+                if (((SocketChannel) key.channel()).finishConnect()) {
+                    return win(key);
+                }
+                return null;
+            } catch (IOException e) {
+                Logger.w(TAG, "connect to " + mHost + ":" + mPort + " failed:" + e.getMessage());
+                mLastFailure = e;
+                mPending.remove(key);
+                close(key);
+                // a failed attempt lets the next address start right away
+                mNextAttempt = System.nanoTime();
+            }
+            return advance(System.nanoTime());
+        } catch (IOException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * called once {@link #nextTimer()} passed
+     */
+    SelectionKey onTimer() throws IOException {
+        try {
+            return advance(System.nanoTime());
+        } catch (IOException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the next attempt or of the timeout
+     */
+    long nextTimer() {
+        return mNext < mAddresses.size() ? Math.min(mNextAttempt, mDeadline) : mDeadline;
+    }
+
+    /**
+     * closes every attempt still running
+     */
+    void cancel() {
+        for (SelectionKey key : mPending) {
+            close(key);
+        }
+        mPending.clear();
+    }
+
+    private SelectionKey advance(long now) throws IOException {
+        while (mNext < mAddresses.size() && (mPending.isEmpty() || now >= mNextAttempt)) {
+            InetSocketAddress address = new InetSocketAddress(mAddresses.get(mNext++), mPort);
+            try {
+                SelectionKey key = startAttempt(address);
+                mPending.add(key);
+                if (key.interestOps() == SelectionKey.OP_READ) {
+                    // loopback and some local addresses connect at once
+                    return win(key);
+                }
+                mNextAttempt = now + mAttemptDelay * 1000000L;
+            } catch (IOException e) {
+                Logger.w(TAG, "connect to " + address + " failed:" + e.getMessage());
+                mLastFailure = e;
+                mNextAttempt = now;
+            }
+        }
+        if (mPending.isEmpty()) {
+            throw mLastFailure != null ? mLastFailure : new IOException("no address for " + mHost);
+        }
+        if (now >= mDeadline) {
+            throw new SocketTimeoutException("connect to " + mHost + ":" + mPort
+                    + " timed out after " + mConnectTimeout + "ms");
+        }
+        return null;
+    }
+
+    private SelectionKey win(SelectionKey key) {
+        mPending.remove(key);
+        cancel();
+        key.interestOps(SelectionKey.OP_READ);
+        return key;
+    }
+
+    private SelectionKey startAttempt(InetSocketAddress address) throws IOException {
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            Socket socket = socketChannel.socket();
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10_1000);
+            socketChannel.configureBlocking(false);
+            if (socketChannel.connect(address)) {
+                return socketChannel.register(mSelector, SelectionKey.OP_READ, mAttachment);
+            }
+            return socketChannel.register(mSelector, SelectionKey.OP_CONNECT, mAttachment);
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * interleaves IPv6 and IPv4, starting with the family the resolver returned first
+     */
+    static List<InetAddress> sortAddresses(InetAddress[] resolved) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        final boolean firstIsV6 = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+        for (InetAddress address : resolved) {
+            if ((address instanceof Inet6Address) == firstIsV6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        List<InetAddress> sorted = new ArrayList<>(resolved.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                sorted.add(first.get(i));
+            }
+            if (i < second.size()) {
+                sorted.add(second.get(i));
+            }
+        }
+        return sorted;
+    }
+}
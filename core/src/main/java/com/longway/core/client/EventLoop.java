@@ -0,0 +1,213 @@
+package com.longway.core.client;
+
+import com.longway.core.util.Logger;
+import com.longway.core.util.MpscLinkedQueue;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * one thread and one selector serving socket events, queued tasks and timers of any number of
+ * connections. each turn selects until the earliest timer is due, dispatches selected keys to
+ * their {@link SelectHandler}, fires due timers and runs queued tasks. nothing sleeps or polls,
+ * an idle loop stays blocked in select.
+ */
+public final class EventLoop implements Runnable {
+    private static final String TAG = EventLoop.class.getSimpleName();
+    /**
+     * tasks run per turn, the rest waits so socket events are not starved
+     */
+    private static final int MAX_TASKS_PER_TURN = 1024;
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final MpscLinkedQueue<Runnable> mTasks = new MpscLinkedQueue<>();
+    // loop thread only
+    private final PriorityQueue<Timeout> mTimers = new PriorityQueue<>();
+    private long mTimerSequence;
+    /**
+     * set while a wakeup is pending, further producers skip the syscall
+     */
+    private final AtomicBoolean mWakeup = new AtomicBoolean(false);
+    private volatile boolean mRunning = true;
+
+    public EventLoop(String name) throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this);
+        mThread.setName(name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * runs {@code task} on the loop thread, in submission order
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task==null");
+        }
+        mTasks.offer(task);
+        if (!inEventLoop() && mWakeup.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * runs {@code task} on the loop thread after {@code delay} milliseconds, only called on the
+     * loop thread
+     */
+    Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)),
+                mTimerSequence++);
+        mTimers.offer(timeout);
+        return timeout;
+    }
+
+    Selector selector() {
+        return mSelector;
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, SelectHandler handler) throws IOException {
+        return channel.register(mSelector, ops, handler);
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                final int n;
+                if (!mTasks.isEmpty()) {
+                    n = mSelector.selectNow();
+                } else {
+                    long delay = nextTimerDelay();
+                    // select(0) blocks without a timeout
+                    n = delay < 0 ? mSelector.select() : mSelector.select(Math.max(1, delay));
+                }
+                mWakeup.set(false);
+                Thread.interrupted();
+                if (n > 0) {
+                    processSelectedKeys();
+                }
+                runTimers();
+                runTasks();
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "selector failed:" + e.getMessage());
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds until the earliest timer, -1 without timers
+     */
+    private long nextTimerDelay() {
+        Timeout timeout;
+        while ((timeout = mTimers.peek()) != null && timeout.mCancelled) {
+            mTimers.poll();
+        }
+        if (timeout == null) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, timeout.mDeadline - System.nanoTime()));
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            try {
+                ((SelectHandler) key.attachment()).onSelected(key);
+            } catch (RuntimeException e) {
+                Logger.w(TAG, "handler failed", e);
+            }
+        }
+    }
+
+    private void runTimers() {
+        final long now = System.nanoTime();
+        Timeout timeout;
+        while ((timeout = mTimers.peek()) != null && (timeout.mCancelled || timeout.mDeadline <= now)) {
+            mTimers.poll();
+            if (!timeout.mCancelled) {
+                timeout.mCancelled = true;
+                run(timeout.mTask);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        for (int i = 0; i < MAX_TASKS_PER_TURN && (task = mTasks.poll()) != null; i++) {
+            run(task);
+        }
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Logger.w(TAG, "task failed", e);
+        }
+    }
+
+    /**
+     * a pending timer, cancelled timers are dropped lazily when they reach the head
+     */
+    static final class Timeout implements Comparable<Timeout> {
+        private final Runnable mTask;
+        private final long mDeadline;
+        private final long mSequence;
+        private boolean mCancelled;
+
+        private Timeout(Runnable task, long deadline, long sequence) {
+            this.mTask = task;
+            this.mDeadline = deadline;
+            this.mSequence = sequence;
+        }
+
+        /**
+         * only called on the loop thread
+         */
+        void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timeout another) {
+            if (mDeadline != another.mDeadline) {
+                return mDeadline - another.mDeadline < 0 ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.longway.core.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the connection of one {@link SocketChannelClient} served by an {@link EventLoop}: connect
+ * attempts, reads, writes, keep-alive and reconnect back-off all run on the loop thread, as
+ * selected keys or timers, only the host lookup runs elsewhere. every field is confined to
+ * that thread.
+ */
+final class EventLoopConnection implements SelectHandler {
+    private static final int SECOND = 1000;
+    /**
+     * runs the blocking host lookups of every event loop connection, so a slow resolver only
+     * holds up the clients waiting for it and never a loop shared by others
+     */
+    private static final ThreadPoolExecutor RESOLVER = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EventLoopResolver-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        RESOLVER.allowCoreThreadTimeOut(true);
+    }
+    private final SocketChannelClient mClient;
+    private final EventLoop mEventLoop;
+    private final boolean mOwnsEventLoop;
+    private Connector mConnector;
+    private SelectionKey mKey;
+    private EventLoop.Timeout mConnectTimer;
+    private EventLoop.Timeout mKeepAliveTimer;
+    private EventLoop.Timeout mReconnectTimer;
+    /**
+     * {@link System#currentTimeMillis()} of the next reconnect attempt
+     */
+    private long mRetryDeadline;
+    private boolean mClosed;
+    /**
+     * true while {@link #RESOLVER} looks the host up
+     */
+    private boolean mResolving;
+
+    private final Runnable mConnectTask = new Runnable() {
+        @Override
+        public void run() {
+            connect();
+        }
+    };
+
+    private final Runnable mConnectTimerTask = new Runnable() {
+        @Override
+        public void run() {
+            mConnectTimer = null;
+            onConnectTimer();
+        }
+    };
+
+    private final Runnable mKeepAliveTask = new Runnable() {
+        @Override
+        public void run() {
+            mKeepAliveTimer = null;
+            if (mKey != null) {
+                mKeepAliveTimer = mEventLoop.schedule(this, mClient.getKeepAlive().keepAlive());
+            }
+        }
+    };
+
+    /**
+     * counts down once a second like {@link ReconnectedThread} does, then connects
+     */
+    private final Runnable mReconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            mReconnectTimer = null;
+            final long remaining = mRetryDeadline - System.currentTimeMillis();
+            if (remaining > 0) {
+                mClient.getReconnectedThread().notifyReconnectedListener(ReconnectedThread.secondsLeft(remaining));
+                mReconnectTimer = mEventLoop.schedule(this, Math.min(SECOND, remaining));
+                return;
+            }
+            connect();
+        }
+    };
+
+    private final Runnable mReconnectNowTask = new Runnable() {
+        @Override
+        public void run() {
+            mClient.getReconnectedThread().resetRetry();
+            cancelReconnect();
+            connect();
+        }
+    };
+
+    private final Runnable mCloseTask = new Runnable() {
+        @Override
+        public void run() {
+            mClosed = true;
+            cancelReconnect();
+            if (mConnectTimer != null) {
+                mConnectTimer.cancel();
+                mConnectTimer = null;
+            }
+            if (mConnector != null) {
+                mConnector.cancel();
+                mConnector = null;
+            }
+            closeChannel();
+            mClient.endCompression();
+            if (mOwnsEventLoop) {
+                mEventLoop.shutdown();
+            }
+        }
+    };
+
+    /**
+     * @param ownsEventLoop the loop is shut down together with the connection
+     */
+    EventLoopConnection(SocketChannelClient client, EventLoop eventLoop, boolean ownsEventLoop) {
+        this.mClient = client;
+        this.mEventLoop = eventLoop;
+        this.mOwnsEventLoop = ownsEventLoop;
+    }
+
+    void start() {
+        mEventLoop.execute(mConnectTask);
+    }
+
+    /**
+     * the network came back, skip whatever back-off is left
+     */
+    void reconnect() {
+        mEventLoop.execute(mReconnectNowTask);
+    }
+
+    void close() {
+        mEventLoop.execute(mCloseTask);
+    }
+
+    /**
+     * drops the connection as if it had failed with {@code e}
+     */
+    void fail(final IOException e) {
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mKey != null) {
+                    onFailed(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        if (key != mKey) {
+            onConnectable(key);
+            return;
+        }
+        mClient.metrics().onWakeup();
+        try {
+            if (key.isReadable()) {
+                mClient.handleRead(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                mClient.handleWrite(key);
+            }
+        } catch (IOException e) {
+            onFailed(e);
+        }
+    }
+
+    /**
+     * looks the host up on {@link #RESOLVER}, the race starts once the addresses are back on
+     * the loop
+     */
+    private void connect() {
+        if (mClosed || mKey != null || mConnector != null || mResolving) {
+            return;
+        }
+        mResolving = true;
+        final String host = mClient.getHost();
+        RESOLVER.execute(new Runnable() {
+            @Override
+            public void run() {
+                InetAddress[] resolved = null;
+                IOException failure = null;
+                try {
+                    resolved = InetAddress.getAllByName(host);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                final InetAddress[] addresses = resolved;
+                final IOException resolveFailure = failure;
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResolved(host, addresses, resolveFailure);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onResolved(String host, InetAddress[] addresses, IOException failure) {
+        mResolving = false;
+        if (mClosed || mKey != null || mConnector != null) {
+            return;
+        }
+        if (failure != null) {
+            onFailed(failure);
+            return;
+        }
+        mConnector = new Connector(mEventLoop.selector(), this, mClient.getConnectTimeout(),
+                mClient.getConnectionAttemptDelay());
+        try {
+            onConnectProgress(mConnector.start(host, mClient.getPort(), addresses));
+        } catch (IOException e) {
+            mConnector = null;
+            onFailed(e);
+        }
+    }
+
+    private void onConnectable(SelectionKey key) {
+        if (mConnector == null) {
+            return;
+        }
+        try {
+            onConnectProgress(mConnector.onConnectable(key));
+        } catch (IOException e) {
+            mConnector = null;
+            onFailed(e);
+        }
+    }
+
+    private void onConnectTimer() {
+        if (mConnector == null) {
+            return;
+        }
+        try {
+            onConnectProgress(mConnector.onTimer());
+        } catch (IOException e) {
+            mConnector = null;
+            onFailed(e);
+        }
+    }
+
+    /**
+     * @param winner null while the race goes on
+     */
+    private void onConnectProgress(SelectionKey winner) {
+        if (mConnectTimer != null) {
+            mConnectTimer.cancel();
+            mConnectTimer = null;
+        }
+        if (winner == null) {
+            long delay = mConnector.nextTimer() - System.nanoTime();
+            // rounded up, a timer firing early would find nothing to do
+            mConnectTimer = mEventLoop.schedule(mConnectTimerTask, (delay + 999999) / 1000000);
+            return;
+        }
+        mConnector = null;
+        mKey = winner;
+        mClient.onConnected(winner);
+        mKeepAliveTimer = mEventLoop.schedule(mKeepAliveTask, mClient.getKeepAlive().keepAlive());
+    }
+
+    private void onFailed(IOException e) {
+        closeChannel();
+        if (mClient.onConnectFailed(e) && !mClosed) {
+            cancelReconnect();
+            final long delay = mClient.getReconnectedThread().getRetryDelay();
+            mRetryDeadline = System.currentTimeMillis() + delay;
+            mReconnectTimer = mEventLoop.schedule(mReconnectTask, Math.min(SECOND, delay));
+        }
+    }
+
+    private void closeChannel() {
+        if (mKeepAliveTimer != null) {
+            mKeepAliveTimer.cancel();
+            mKeepAliveTimer = null;
+        }
+        if (mKey != null) {
+            mKey.cancel();
+            SocketChannelClient.closeQuietly(mKey.channel());
+            mKey = null;
+            mClient.onDisconnected(mClient.getWriteWorker());
+        }
+    }
+
+    private void cancelReconnect() {
+        if (mReconnectTimer != null) {
+            mReconnectTimer.cancel();
+            mReconnectTimer = null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.longway.core.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a fixed pool of {@link EventLoop}s shared by many clients, each loop multiplexes the
+ * connections handed to it so the thread count no longer grows with the number of clients.
+ * loops are handed out round robin and live until {@link #shutdown()}, closing a client does
+ * not stop the loop it ran on.
+ */
+public final class EventLoopGroup {
+    private final EventLoop[] mEventLoops;
+    private final AtomicInteger mNext = new AtomicInteger();
+
+    public EventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EventLoopGroup(int nThreads) throws IOException {
+        if (nThreads <= 0) {
+            throw new IllegalArgumentException("nThreads must be large than 0");
+        }
+        mEventLoops = new EventLoop[nThreads];
+        try {
+            for (int i = 0; i < nThreads; i++) {
+                mEventLoops[i] = new EventLoop(EventLoopGroup.class.getSimpleName() + "-" + i);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the loop for the next connection
+     */
+    public EventLoop next() {
+        // masked so the index stays positive after the counter wraps
+        return mEventLoops[(mNext.getAndIncrement() & Integer.MAX_VALUE) % mEventLoops.length];
+    }
+
+    public int size() {
+        return mEventLoops.length;
+    }
+
+    /**
+     * stops every loop and closes the connections still registered with them
+     */
+    public void shutdown() {
+        for (EventLoop eventLoop : mEventLoops) {
+            if (eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+}
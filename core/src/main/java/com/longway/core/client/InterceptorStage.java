@@ -0,0 +1,42 @@
+package com.longway.core.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * runs a {@link MessageInterceptor} as a stage of outbound messages, copying every message
+ * into an array and back as that interface requires
+ */
+@SuppressWarnings("deprecation")
+final class InterceptorStage implements PipelineStage {
+    private final MessageInterceptor mInterceptor;
+
+    InterceptorStage(MessageInterceptor interceptor) {
+        this.mInterceptor = interceptor;
+    }
+
+    @Override
+    public ByteBuffer onOutbound(PipelineContext context, ByteBuffer message) {
+        byte[] msg = new byte[message.remaining()];
+        message.duplicate().get(msg);
+        byte[] bytes = mInterceptor.onInterceptor(msg);
+        if (bytes == null || bytes.length == 0) {
+            bytes = msg;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public ByteBuffer onInbound(PipelineContext context, ByteBuffer message) {
+        return message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof InterceptorStage && ((InterceptorStage) o).mInterceptor.equals(mInterceptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return mInterceptor.hashCode();
+    }
+}
@@ -1,53 +1,110 @@
 package com.longway.core.client;
 
-import java.util.LinkedList;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.HeartbeatFrame;
+import com.longway.core.util.ListenerRegistry;
+import com.longway.core.util.Logger;
+
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * pings once nothing was received or sent for the heartbeat interval and matches the pongs
+ * to the pings. every pong is a round trip sample, smoothed like the TCP retransmission timer
+ * of RFC 6298. a ping without a pong within the pong timeout counts as missed and is followed
+ * by another ping at once, after {@code maxMissedPongs} misses in a row the connection is
+ * declared dead and reconnected. with a {@link com.longway.core.codec.FrameCodec} that has no
+ * flags only the legacy ping of {@link #setPing(String)} is sent.
+ * <p>
+ * pings are sent from the keep-alive thread or timer, pongs arrive on the I/O thread, the
+ * heartbeat state is guarded by this object.
+ */
 public class KeepAliveThread implements Runnable {
     private static final String TAG = KeepAliveThread.class.getSimpleName();
-    private static final String PING = " ";
-    private static final int ACTIVE_INTERNAL = 10 * 1000;
     private SocketChannelClient mSocketChannelClient;
     private Thread mKeepAliveThread;
-    private String mPing = PING;
+    /**
+     * a legacy one way ping, null for ping/pong
+     */
+    private volatile String mPing;
     private AtomicBoolean mRunning = new AtomicBoolean(true);
-    private LinkedList<PingListener> mPingListener = new LinkedList<>();
+    private final ListenerRegistry<PingListener> mPingListener = new ListenerRegistry<>();
+    private volatile int mInterval = Config.HEARTBEAT_INTERVAL;
+    private volatile int mPongTimeout = Config.PONG_TIMEOUT;
+    private volatile int mMaxMissedPongs = Config.MAX_MISSED_PONGS;
+    private int mSequence;
+    /**
+     * {@link System#nanoTime()} of the ping waiting for its pong, 0 when none is
+     */
+    private long mPingTime;
+    private int mMissedPongs;
+    // nanoseconds, 0 until the first pong
+    private long mRtt;
+    private long mSmoothedRtt;
+    private long mRttVariation;
 
+    /**
+     * sends {@code ping} as a plain message instead, for servers that do not answer heartbeat
+     * frames. no pong is expected and a dead link is only noticed once a write fails.
+     */
     public void setPing(String ping) {
         this.mPing = ping;
     }
 
+    /**
+     * @param interval       milliseconds without receiving or sending before a ping
+     * @param pongTimeout    milliseconds to wait for the pong
+     * @param maxMissedPongs pongs missed in a row before the connection is declared dead
+     */
+    public void setHeartbeat(int interval, int pongTimeout, int maxMissedPongs) {
+        if (interval <= 0 || pongTimeout <= 0 || maxMissedPongs <= 0) {
+            throw new IllegalArgumentException("interval, pongTimeout and maxMissedPongs must be large than 0");
+        }
+        this.mInterval = interval;
+        this.mPongTimeout = pongTimeout;
+        this.mMaxMissedPongs = maxMissedPongs;
+    }
+
+    /**
+     * @return microseconds of the last round trip, 0 before the first pong
+     */
+    public synchronized long getRtt() {
+        return TimeUnit.NANOSECONDS.toMicros(mRtt);
+    }
+
+    /**
+     * @return microseconds of the smoothed round trip (SRTT of RFC 6298)
+     */
+    public synchronized long getSmoothedRtt() {
+        return TimeUnit.NANOSECONDS.toMicros(mSmoothedRtt);
+    }
+
+    /**
+     * @return microseconds of the mean deviation of the round trip (RTTVAR of RFC 6298)
+     */
+    public synchronized long getJitter() {
+        return TimeUnit.NANOSECONDS.toMicros(mRttVariation);
+    }
+
     public void registerPingListener(PingListener pingListener) {
         if (pingListener == null) {
             throw new NullPointerException("pingListener==null.");
         }
-        synchronized (mPingListener) {
-            if (!mPingListener.contains(pingListener)) {
-                mPingListener.add(pingListener);
-            }
-        }
+        mPingListener.register(pingListener);
     }
 
     public void unregisterPingListener(PingListener pingListener) {
         if (pingListener == null) {
             throw new NullPointerException("pingListener==null.");
         }
-        synchronized (mPingListener) {
-            if (mPingListener.contains(pingListener)) {
-                mPingListener.remove(pingListener);
-            }
-        }
+        mPingListener.unregister(pingListener);
     }
 
     private void notifyPingListener(String ping) {
-        synchronized (mPingListener) {
-            Object[] pingListeners = this.mPingListener.toArray();
-            if (pingListeners != null) {
-                final int len = pingListeners.length;
-                for (int i = 0; i < len; i++) {
-                    ((PingListener) pingListeners[i]).ping(ping);
-                }
-            }
+        final Object[] pingListeners = this.mPingListener.snapshot();
+        final int len = pingListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((PingListener) pingListeners[i]).ping(ping);
         }
     }
 
@@ -74,25 +131,123 @@ public class KeepAliveThread implements Runnable {
         return true;
     }
 
+    /**
+     * a new connection starts without a ping in flight and without round trip samples
+     */
+    synchronized void reset() {
+        mPingTime = 0;
+        mMissedPongs = 0;
+        mRtt = 0;
+        mSmoothedRtt = 0;
+        mRttVariation = 0;
+    }
+
+    /**
+     * pings when idle for the interval and counts the pongs missed
+     *
+     * @return milliseconds until the next check
+     */
+    long keepAlive() {
+        final String legacyPing = mPing;
+        if (legacyPing != null) {
+            return keepAlive(legacyPing);
+        }
+        if (!mSocketChannelClient.getFrameCodec().supportsFlags()) {
+            // heartbeat frames could not be told apart from messages
+            return mInterval;
+        }
+        final long now = System.nanoTime();
+        final int missedPongs;
+        synchronized (this) {
+            if (mPingTime != 0) {
+                final long waited = TimeUnit.NANOSECONDS.toMillis(now - mPingTime);
+                if (waited < mPongTimeout) {
+                    return mPongTimeout - waited;
+                }
+                mPingTime = 0;
+                missedPongs = ++mMissedPongs;
+            } else {
+                missedPongs = 0;
+            }
+        }
+        if (missedPongs >= mMaxMissedPongs) {
+            Logger.w(TAG, missedPongs + " pongs missed, connection is dead");
+            synchronized (this) {
+                mMissedPongs = 0;
+            }
+            mSocketChannelClient.onHeartbeatTimeout(missedPongs);
+            return mInterval;
+        }
+        if (missedPongs == 0) {
+            // a missed pong is chased by the next ping right away
+            final long idle = System.currentTimeMillis() - Math.min(mSocketChannelClient.getLastActiveSendTime(),
+                    mSocketChannelClient.getLastActiveReceiveTime());
+            if (idle < mInterval) {
+                return mInterval - idle;
+            }
+        }
+        if (!mSocketChannelClient.isConnected()) {
+            return mInterval;
+        }
+        final int sequence;
+        synchronized (this) {
+            sequence = ++mSequence;
+            mPingTime = now;
+        }
+        mSocketChannelClient.getWriteWorker().sendControl(HeartbeatFrame.ping(sequence, now), FrameFlags.HEARTBEAT);
+        notifyPingListener("ping " + sequence);
+        return mPongTimeout;
+    }
+
+    /**
+     * pings when nothing was sent for the interval, without waiting for a pong
+     */
+    private long keepAlive(String ping) {
+        long delay = System.currentTimeMillis() - mSocketChannelClient.getLastActiveSendTime();
+        if (delay < mInterval) {
+            return mInterval - delay;
+        }
+        if (mSocketChannelClient.isConnected()) {
+            mSocketChannelClient.sendMsg(ping); // send ping
+            notifyPingListener(ping);
+        }
+        return mInterval;
+    }
+
+    /**
+     * called on the I/O thread for every pong, {@code timestamp} is the
+     * {@link System#nanoTime()} the ping was sent at
+     */
+    synchronized void onPong(int sequence, long timestamp) {
+        final long rtt = System.nanoTime() - timestamp;
+        if (sequence == mSequence) {
+            mPingTime = 0;
+        }
+        // a late pong still proves the link is alive
+        mMissedPongs = 0;
+        if (rtt < 0) {
+            return;
+        }
+        mRtt = rtt;
+        if (mSmoothedRtt == 0) {
+            mSmoothedRtt = rtt;
+            mRttVariation = rtt / 2;
+        } else {
+            mRttVariation += (Math.abs(mSmoothedRtt - rtt) - mRttVariation) / 4;
+            mSmoothedRtt += (rtt - mSmoothedRtt) / 8;
+        }
+    }
+
     @Override
     public void run() {
         while (mRunning.get() && mSocketChannelClient.isConnected()) {
-            long delay = System.currentTimeMillis() - mSocketChannelClient.getLastActiveSendTime();
-            if (delay < ACTIVE_INTERNAL) {
-                try {
-                    Thread.sleep(ACTIVE_INTERNAL - delay);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                continue;
-            }
-            if (!mSocketChannelClient.isConnected()) {
+            long next = keepAlive();
+            try {
+                Thread.sleep(next);
+            } catch (InterruptedException e) {
+                // pause() interrupts the sleep, the heartbeat ends with the connection
                 return;
             }
-            if (mSocketChannelClient.isConnected()) {
-                mSocketChannelClient.sendMsg(mPing); // send ping
-                notifyPingListener(mPing);
-            }
         }
     }
 }
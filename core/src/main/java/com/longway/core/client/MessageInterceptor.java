@@ -1,6 +1,10 @@
 package com.longway.core.client;
 
 
+/**
+ * @deprecated copies every message twice, use a {@link PipelineStage} instead
+ */
+@Deprecated
 public interface MessageInterceptor {
     byte[] onInterceptor(byte[] msg);
 }
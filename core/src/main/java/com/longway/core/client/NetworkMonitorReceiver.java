@@ -7,7 +7,7 @@ import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.util.Log;
 
-import java.util.LinkedList;
+import com.longway.core.util.ListenerRegistry;
 
 public class NetworkMonitorReceiver extends BroadcastReceiver {
     private static final String TAG = NetworkMonitorReceiver.class.getSimpleName();
@@ -44,18 +44,14 @@ public class NetworkMonitorReceiver extends BroadcastReceiver {
 
 
     private void notifyNetworkMonitor(boolean success, int type, String reason) {
-        synchronized (mObservable) {
-            Object[] networkMonitors = mObservable.toArray();
-            if (networkMonitors != null) {
-                final int len = networkMonitors.length;
-                for (int i = 0; i < len; i++) {
-                    NetworkMonitor networkMonitor = (NetworkMonitor) networkMonitors[i];
-                    if (success) {
-                        networkMonitor.onConnect(type);
-                    } else {
-                        networkMonitor.onDisconnected(reason);
-                    }
-                }
+        final Object[] networkMonitors = mObservable.snapshot();
+        final int len = networkMonitors.length;
+        for (int i = 0; i < len; i++) {
+            NetworkMonitor networkMonitor = (NetworkMonitor) networkMonitors[i];
+            if (success) {
+                networkMonitor.onConnect(type);
+            } else {
+                networkMonitor.onDisconnected(reason);
             }
         }
     }
@@ -66,27 +62,19 @@ public class NetworkMonitorReceiver extends BroadcastReceiver {
      * 运行时根本不存在泛型的概念了，建议提问者去了解一下，泛型插除机制，以及泛型的编译时特性。这里
      * 还是添加上，满足提问者的强迫症。
      */
-    private static final LinkedList<NetworkMonitor> mObservable = new LinkedList<>();
+    private static final ListenerRegistry<NetworkMonitor> mObservable = new ListenerRegistry<>();
 
     public static void registerNetworkMonitor(NetworkMonitor networkMonitor) {
         if (networkMonitor == null) {
             throw new NullPointerException("networkMonitor==null.");
         }
-        synchronized (mObservable) {
-            if (!mObservable.contains(networkMonitor)) {
-                mObservable.add(networkMonitor);
-            }
-        }
+        mObservable.register(networkMonitor);
     }
 
     public static void unregisterNetworkMonitor(NetworkMonitor networkMonitor) {
         if (networkMonitor == null) {
             throw new NullPointerException("networkMonitor==null.");
         }
-        synchronized (mObservable) {
-            if (mObservable.contains(networkMonitor)) {
-                mObservable.remove(networkMonitor);
-            }
-        }
+        mObservable.unregister(networkMonitor);
     }
 }
@@ -0,0 +1,194 @@
+package com.longway.core.client;
+
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.util.ListenerRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * accounts every byte accepted by {@link WriteWorker} until the socket took it, and keeps
+ * the unwritten tail of a partial write until the selector reports the channel writable.
+ */
+public class OutboundBuffer {
+    private final int mLowWaterMark;
+    private final int mHighWaterMark;
+    private final int mLimit;
+    private final AtomicLong mPendingBytes = new AtomicLong();
+    private final AtomicBoolean mWritable = new AtomicBoolean(true);
+    /**
+     * guarded by this, also serializes socket writes between the write thread and the selector thread
+     */
+    private final LinkedList<PooledByteBuffer> mUnflushed = new LinkedList<>();
+    private final ByteBufferPool mPool = ByteBufferPool.getDefault();
+    private ByteBuffer[] mFlushing = new ByteBuffer[4];
+    private final ListenerRegistry<WritabilityListener> mWritabilityListeners = new ListenerRegistry<>();
+
+    /**
+     * @param limit messages are rejected once this many bytes are waiting
+     */
+    public OutboundBuffer(int lowWaterMark, int highWaterMark, int limit) {
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark must be between 0 and highWaterMark");
+        }
+        if (highWaterMark > limit) {
+            throw new IllegalArgumentException("highWaterMark must be less than equals limit");
+        }
+        this.mLowWaterMark = lowWaterMark;
+        this.mHighWaterMark = highWaterMark;
+        this.mLimit = limit;
+    }
+
+    public void registerWritabilityListener(WritabilityListener writabilityListener) {
+        if (writabilityListener == null) {
+            throw new NullPointerException("writabilityListener==null.");
+        }
+        mWritabilityListeners.register(writabilityListener);
+    }
+
+    public void unregisterWritabilityListener(WritabilityListener writabilityListener) {
+        if (writabilityListener == null) {
+            throw new NullPointerException("writabilityListener==null.");
+        }
+        mWritabilityListeners.unregister(writabilityListener);
+    }
+
+    private void notifyWritabilityListener(boolean writable) {
+        final Object[] writabilityListeners = this.mWritabilityListeners.snapshot();
+        final int len = writabilityListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((WritabilityListener) writabilityListeners[i]).onWritabilityChanged(writable);
+        }
+    }
+
+    public boolean isWritable() {
+        return mWritable.get();
+    }
+
+    public long getPendingBytes() {
+        return mPendingBytes.get();
+    }
+
+    /**
+     * called by producers before a message is queued
+     *
+     * @return false when the limit would be exceeded, the message must not be queued
+     */
+    public boolean reserve(int bytes) {
+        long pending = mPendingBytes.addAndGet(bytes);
+        if (pending > mLimit) {
+            mPendingBytes.addAndGet(-bytes);
+            return false;
+        }
+        if (pending >= mHighWaterMark && mWritable.compareAndSet(true, false)) {
+            notifyWritabilityListener(false);
+        }
+        return true;
+    }
+
+    /**
+     * called once reserved bytes were written or dropped
+     */
+    public void release(long bytes) {
+        long pending = mPendingBytes.addAndGet(-bytes);
+        if (pending <= mLowWaterMark && mWritable.compareAndSet(false, true)) {
+            notifyWritabilityListener(true);
+        }
+    }
+
+    /**
+     * @return true while a partial write is waiting for OP_WRITE, new frames must not be
+     * written before it
+     */
+    public synchronized boolean hasUnflushed() {
+        return !mUnflushed.isEmpty();
+    }
+
+    /**
+     * writes {@code frames}, only called by the write thread while {@link #hasUnflushed()} is
+     * false. the unwritten rest is copied into one pooled buffer so the caller can release its
+     * buffers.
+     *
+     * @return true when part of the frames is left for OP_WRITE
+     */
+    public synchronized boolean write(GatheringByteChannel channel, ByteBuffer[] frames, int offset, int length)
+            throws IOException {
+        channel.write(frames, offset, length);
+        final int end = offset + length;
+        int first = offset;
+        while (first < end && !frames[first].hasRemaining()) {
+            first++;
+        }
+        if (first < end) {
+            int remaining = 0;
+            for (int i = first; i < end; i++) {
+                remaining += frames[i].remaining();
+            }
+            PooledByteBuffer pooled = mPool.acquire(remaining);
+            ByteBuffer tail = pooled.buffer();
+            for (int i = first; i < end; i++) {
+                tail.put(frames[i]);
+            }
+            tail.flip();
+            mUnflushed.add(pooled);
+            mPendingBytes.addAndGet(remaining);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * called by the selector thread on OP_WRITE
+     *
+     * @return true once every waiting tail has been written
+     */
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        long written;
+        boolean drained;
+        synchronized (this) {
+            final LinkedList<PooledByteBuffer> unflushed = mUnflushed;
+            final int size = unflushed.size();
+            if (size == 0) {
+                return true;
+            }
+            ByteBuffer[] flushing = mFlushing;
+            if (flushing.length < size) {
+                flushing = mFlushing = new ByteBuffer[Math.max(size, flushing.length << 1)];
+            }
+            int i = 0;
+            for (PooledByteBuffer pooled : unflushed) {
+                flushing[i++] = pooled.buffer();
+            }
+            written = channel.write(flushing, 0, size);
+            for (i = 0; i < size; i++) {
+                flushing[i] = null;
+            }
+            while (!unflushed.isEmpty() && !unflushed.getFirst().buffer().hasRemaining()) {
+                unflushed.removeFirst().release();
+            }
+            drained = unflushed.isEmpty();
+        }
+        release(written);
+        return drained;
+    }
+
+    /**
+     * drops the tail of a closed connection
+     */
+    public void clear() {
+        long dropped = 0;
+        synchronized (this) {
+            for (PooledByteBuffer pooled : mUnflushed) {
+                dropped += pooled.buffer().remaining();
+                pooled.release();
+            }
+            mUnflushed.clear();
+        }
+        release(dropped);
+    }
+}
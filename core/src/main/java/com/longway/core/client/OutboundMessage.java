@@ -0,0 +1,136 @@
+package com.longway.core.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * one queued message. it only references the caller's bytes, which stay untouched until
+ * the message completes.
+ */
+final class OutboundMessage {
+    private final byte[] mArray;
+    private final ByteBuffer mPayload;
+    private final int mStart;
+    private final int mLength;
+    private final SendListener mListener;
+    private boolean mControl;
+    /**
+     * {@link com.longway.core.codec.FrameFlags} of a control frame
+     */
+    private int mFlags;
+    private boolean mTransient;
+    /**
+     * {@link System#nanoTime()} of queueing for a direct write
+     */
+    private long mQueuedAt;
+
+    private OutboundMessage(byte[] array, ByteBuffer payload, SendListener listener) {
+        this.mArray = array;
+        this.mPayload = payload;
+        this.mStart = payload.position();
+        this.mLength = payload.remaining();
+        this.mListener = listener;
+    }
+
+    static OutboundMessage wrap(byte[] msg, SendListener listener) {
+        return new OutboundMessage(msg, ByteBuffer.wrap(msg), listener);
+    }
+
+    static OutboundMessage wrap(byte[] msg, int offset, int length, SendListener listener) {
+        return new OutboundMessage(offset == 0 && length == msg.length ? msg : null,
+                ByteBuffer.wrap(msg, offset, length), listener);
+    }
+
+    /**
+     * a control frame of the library itself, it bypasses the message interceptors
+     */
+    static OutboundMessage control(byte[] msg, int flags) {
+        OutboundMessage message = wrap(msg, null);
+        message.mControl = true;
+        message.mFlags = flags;
+        return message;
+    }
+
+    /**
+     * the position and limit of {@code msg} are not changed
+     */
+    static OutboundMessage wrap(ByteBuffer msg, SendListener listener) {
+        return new OutboundMessage(null, msg.duplicate(), listener);
+    }
+
+    /**
+     * a journal record, its bytes are only valid until the journal is recycled
+     */
+    static OutboundMessage record(ByteBuffer record, SendListener listener) {
+        OutboundMessage message = wrap(record, listener);
+        message.mTransient = true;
+        return message;
+    }
+
+    /**
+     * @return this message, or a copy on the heap when its bytes must not be kept
+     */
+    OutboundMessage retain() {
+        if (!mTransient) {
+            return this;
+        }
+        return wrap(toByteArray(), mListener);
+    }
+
+    void stamp(long queuedAt) {
+        this.mQueuedAt = queuedAt;
+    }
+
+    long queuedAt() {
+        return mQueuedAt;
+    }
+
+    SendListener listener() {
+        return mListener;
+    }
+
+    boolean isControl() {
+        return mControl;
+    }
+
+    int flags() {
+        return mFlags;
+    }
+
+    int length() {
+        return mLength;
+    }
+
+    /**
+     * the bytes to send, consumed by a single write
+     */
+    ByteBuffer payload() {
+        return mPayload;
+    }
+
+    /**
+     * makes the payload readable again for a retransmit
+     */
+    void rewind() {
+        mPayload.limit(mStart + mLength).position(mStart);
+    }
+
+    /**
+     * the message as an array, only copied when it was not sent as a whole array
+     */
+    byte[] toByteArray() {
+        if (mArray != null) {
+            return mArray;
+        }
+        byte[] bytes = new byte[mLength];
+        ByteBuffer payload = mPayload.duplicate();
+        payload.limit(mStart + mLength).position(mStart);
+        payload.get(bytes);
+        return bytes;
+    }
+
+    void complete(boolean success) {
+        if (mListener != null) {
+            mListener.onSendComplete(success);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.longway.core.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * messages accepted while disconnected, in the order they were sent. up to a byte limit they
+ * are kept in memory by reference, after that they are copied into the {@link SpillJournal}
+ * and stay there until replayed, so memory does not grow with the length of an outage. once
+ * the journal holds anything every new message goes there too, behind the ones before it.
+ * without a journal messages over the limit are rejected.
+ * <p>
+ * any thread offers, only the I/O thread polls.
+ */
+final class PendingQueue {
+    private final ArrayDeque<OutboundMessage> mMemory = new ArrayDeque<>();
+    private final int mMaxMemoryBytes;
+    private long mMemoryBytes;
+    private final SpillJournal mJournal;
+    /**
+     * listeners of the marked journal records, in record order
+     */
+    private final ArrayDeque<SendListener> mJournalListeners = new ArrayDeque<>();
+    /**
+     * lets producers check for emptiness without the lock
+     */
+    private volatile int mSize;
+
+    /**
+     * @param journal null keeps everything in memory
+     */
+    PendingQueue(int maxMemoryBytes, SpillJournal journal) {
+        this.mMaxMemoryBytes = maxMemoryBytes;
+        this.mJournal = journal;
+        // records left over by a previous process are replayed on the next connection
+        this.mSize = journal != null ? journal.size() : 0;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return false when neither memory nor the journal had room
+     */
+    synchronized boolean offer(OutboundMessage message) {
+        final boolean spilling = mJournal != null && !mJournal.isEmpty();
+        if (!spilling && mMemoryBytes + message.length() <= mMaxMemoryBytes) {
+            mMemory.offer(message);
+            mMemoryBytes += message.length();
+            mSize++;
+            return true;
+        }
+        if (mJournal == null) {
+            return false;
+        }
+        final SendListener listener = message.listener();
+        if (!mJournal.append(message.payload(), listener != null)) {
+            return false;
+        }
+        if (listener != null) {
+            mJournalListeners.offer(listener);
+        }
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @return the oldest message, a journal record is a direct view of the mapped file
+     */
+    synchronized OutboundMessage poll() {
+        OutboundMessage message = mMemory.poll();
+        if (message != null) {
+            mMemoryBytes -= message.length();
+            mSize--;
+            return message;
+        }
+        if (mJournal == null) {
+            return null;
+        }
+        ByteBuffer record = mJournal.poll();
+        if (record == null) {
+            return null;
+        }
+        mSize--;
+        return OutboundMessage.record(record, mJournal.isMarked() ? mJournalListeners.poll() : null);
+    }
+
+    /**
+     * the messages polled so far have been written
+     */
+    synchronized void commit() {
+        if (mJournal != null) {
+            mJournal.commit();
+        }
+    }
+
+    /**
+     * called before a batch is polled, when the records of the previous one are done with
+     */
+    synchronized void recycle() {
+        if (mJournal != null) {
+            mJournal.recycle();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.longway.core.client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * the stages every message of a {@link SocketChannelClient} passes, ordered from the
+ * application to the wire: outbound messages run through them first to last, inbound ones
+ * last to first. compression followed by encryption, for instance, deflates before it
+ * encrypts and decrypts before it inflates.
+ * <p>
+ * the stages are an immutable array swapped on every change, so a message runs through them
+ * without locking or allocating while stages come and go from any thread. control frames of
+ * the library do not pass the pipeline.
+ */
+public final class Pipeline {
+    private static final PipelineStage[] EMPTY = new PipelineStage[0];
+    private volatile PipelineStage[] mStages = EMPTY;
+
+    /**
+     * adds {@code stage} next to the application, a stage already added is not added again
+     */
+    public synchronized Pipeline addFirst(PipelineStage stage) {
+        return add(0, stage);
+    }
+
+    /**
+     * adds {@code stage} next to the wire, a stage already added is not added again
+     */
+    public synchronized Pipeline addLast(PipelineStage stage) {
+        return add(mStages.length, stage);
+    }
+
+    private Pipeline add(int index, PipelineStage stage) {
+        if (stage == null) {
+            throw new NullPointerException("stage==null.");
+        }
+        final PipelineStage[] stages = mStages;
+        if (indexOf(stages, stage) >= 0) {
+            return this;
+        }
+        PipelineStage[] added = new PipelineStage[stages.length + 1];
+        System.arraycopy(stages, 0, added, 0, index);
+        added[index] = stage;
+        System.arraycopy(stages, index, added, index + 1, stages.length - index);
+        mStages = added;
+        return this;
+    }
+
+    /**
+     * @return false when {@code stage} was not added
+     */
+    public synchronized boolean remove(PipelineStage stage) {
+        if (stage == null) {
+            throw new NullPointerException("stage==null.");
+        }
+        final PipelineStage[] stages = mStages;
+        final int index = indexOf(stages, stage);
+        if (index < 0) {
+            return false;
+        }
+        if (stages.length == 1) {
+            mStages = EMPTY;
+            return true;
+        }
+        PipelineStage[] removed = Arrays.copyOf(stages, stages.length - 1);
+        System.arraycopy(stages, index + 1, removed, index, stages.length - index - 1);
+        mStages = removed;
+        return true;
+    }
+
+    private static int indexOf(PipelineStage[] stages, PipelineStage stage) {
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i].equals(stage)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isEmpty() {
+        return mStages.length == 0;
+    }
+
+    /**
+     * @return what the last stage returned, null when a stage dropped the message
+     */
+    ByteBuffer outbound(PipelineContext context, ByteBuffer message) {
+        final PipelineStage[] stages = mStages;
+        for (int i = 0; i < stages.length && message != null; i++) {
+            message = stages[i].onOutbound(context, message);
+        }
+        return message;
+    }
+
+    /**
+     * @return what the first stage returned, null when a stage dropped the message
+     */
+    ByteBuffer inbound(PipelineContext context, ByteBuffer message) {
+        final PipelineStage[] stages = mStages;
+        for (int i = stages.length - 1; i >= 0 && message != null; i--) {
+            message = stages[i].onInbound(context, message);
+        }
+        return message;
+    }
+}
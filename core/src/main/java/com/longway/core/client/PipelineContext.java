@@ -0,0 +1,66 @@
+package com.longway.core.client;
+
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * hands pooled buffers to the stages of one direction of a {@link Pipeline}. they are given
+ * back once the message was written or delivered, so a stage neither allocates nor releases
+ * anything itself. only used by the I/O thread.
+ */
+public final class PipelineContext {
+    private final ByteBufferPool mPool = ByteBufferPool.getDefault();
+    private PooledByteBuffer[] mAcquired = new PooledByteBuffer[16];
+    private int mCount;
+    private boolean mCompressed;
+
+    PipelineContext() {
+    }
+
+    /**
+     * @return a cleared direct buffer of at least {@code capacity} bytes, valid until the
+     * message was written or delivered
+     */
+    public ByteBuffer allocate(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be large than 0");
+        }
+        if (mCount == mAcquired.length) {
+            mAcquired = Arrays.copyOf(mAcquired, mCount << 1);
+        }
+        PooledByteBuffer pooled = mPool.acquire(capacity);
+        mAcquired[mCount++] = pooled;
+        return pooled.buffer();
+    }
+
+    /**
+     * @return true when the message is compressed: outbound once a stage compressed it, the
+     * frame is then sent with {@link com.longway.core.codec.FrameFlags#COMPRESSED}, inbound
+     * when it arrived with that flag and was not decompressed yet
+     */
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /**
+     * called by the stage that compresses or decompresses the message
+     */
+    public void setCompressed(boolean compressed) {
+        this.mCompressed = compressed;
+    }
+
+    /**
+     * gives back everything allocated since the last call
+     */
+    void release() {
+        final PooledByteBuffer[] acquired = mAcquired;
+        for (int i = 0; i < mCount; i++) {
+            acquired[i].release();
+            acquired[i] = null;
+        }
+        mCount = 0;
+    }
+}
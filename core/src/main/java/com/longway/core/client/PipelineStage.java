@@ -0,0 +1,19 @@
+package com.longway.core.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * one stage of a {@link Pipeline}, called on the I/O thread for every message passing in
+ * either direction. a stage returns the message for the next one: the buffer it got, with
+ * its position, limit or bytes changed, a buffer from {@link PipelineContext#allocate(int)},
+ * or null to drop the message.
+ * <p>
+ * the buffer an outbound message starts with belongs to the caller of sendMsg and may be
+ * written again, only buffers from the context may be changed in place on the way out.
+ * inbound buffers are only valid during the call and may always be changed in place.
+ */
+public interface PipelineStage {
+    ByteBuffer onOutbound(PipelineContext context, ByteBuffer message);
+
+    ByteBuffer onInbound(PipelineContext context, ByteBuffer message);
+}
@@ -1,81 +1,200 @@
 package com.longway.core.client;
 
-import android.util.Log;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameDecoder;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.FrameHandler;
+import com.longway.core.codec.HeartbeatFrame;
+import com.longway.core.codec.LengthFieldFrameCodec;
+import com.longway.core.codec.ReliableFrame;
+import com.longway.core.util.ListenerRegistry;
+import com.longway.core.util.Logger;
+import com.longway.core.util.SerialExecutor;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-public class ReadWorker implements IReadHandler {
+public class ReadWorker implements IReadHandler, FrameHandler {
     private static final String TAG = ReadWorker.class.getSimpleName();
-    private static final int BUFFER_SIZE = 128;
-    private ByteBuffer mBuf = ByteBuffer.allocate(BUFFER_SIZE);
-    private ByteArrayOutputStream mOS = new ByteArrayOutputStream(BUFFER_SIZE);
-    private LinkedList<MessageHandler> messageHandlers = new LinkedList<>();
+    private final FrameDecoder mDecoder;
+    private volatile KeepAliveThread mKeepAlive;
+    private volatile WriteWorker mWriteWorker;
+    private volatile Pipeline mPipeline;
+    /**
+     * null notifies the handlers on the I/O thread
+     */
+    private volatile SerialExecutor mDispatcher;
+    private volatile ClientMetrics mMetrics;
+    /**
+     * buffers the stages allocate for the frame being delivered
+     */
+    private final PipelineContext mPipelineContext = new PipelineContext();
+    private final ListenerRegistry<MessageHandler> messageHandlers = new ListenerRegistry<>();
 
     public void registerMessageHandler(MessageHandler messageHandler) {
         if (messageHandler == null) {
             throw new NullPointerException("messageHandler==null.");
         }
-        synchronized (messageHandlers) {
-            if (!messageHandlers.contains(messageHandler)) {
-                messageHandlers.add(messageHandler);
-            }
-        }
+        messageHandlers.register(messageHandler);
     }
 
     public void unregisterMessageHandler(MessageHandler messageHandler) {
         if (messageHandler == null) {
             throw new NullPointerException("messageHandler==null.");
         }
-        synchronized (messageHandlers) {
-            if (messageHandlers.contains(messageHandler)) {
-                messageHandlers.remove(messageHandler);
-            }
-        }
+        messageHandlers.unregister(messageHandler);
     }
 
     private void notifyMessageHandler(byte[] message) {
-        synchronized (messageHandlers) {
-            Object[] messageHandlers = this.messageHandlers.toArray();
-            if (messageHandlers != null) {
-                final int len = messageHandlers.length;
-                for (int i = 0; i < len; i++) {
-                    ((MessageHandler) messageHandlers[i]).onReceiveMessage(message);
-                }
-            }
+        final Object[] messageHandlers = this.messageHandlers.snapshot();
+        final int len = messageHandlers.length;
+        for (int i = 0; i < len; i++) {
+            ((MessageHandler) messageHandlers[i]).onReceiveMessage(message);
         }
     }
 
     public ReadWorker() {
+        this(new LengthFieldFrameCodec());
+    }
+
+    public ReadWorker(FrameCodec frameCodec) {
+        if (frameCodec == null) {
+            throw new NullPointerException("frameCodec==null.");
+        }
+        this.mDecoder = frameCodec.newDecoder();
+    }
+
+    /**
+     * pongs go to {@code keepAlive} instead of the message handlers
+     */
+    void setKeepAlive(KeepAliveThread keepAlive) {
+        this.mKeepAlive = keepAlive;
+    }
 
+    /**
+     * acks of reliable delivery go to {@code writeWorker} instead of the message handlers
+     */
+    void setReliable(WriteWorker writeWorker) {
+        this.mWriteWorker = writeWorker;
+    }
+
+    /**
+     * messages run through the stages of {@code pipeline} before they reach the handlers
+     */
+    void setPipeline(Pipeline pipeline) {
+        this.mPipeline = pipeline;
+    }
+
+    /**
+     * bytes and frames read are counted by {@code metrics}
+     */
+    void setMetrics(ClientMetrics metrics) {
+        this.mMetrics = metrics;
+    }
+
+    /**
+     * handlers are notified on {@code executor} instead of the I/O thread, one message at a
+     * time and in the order they arrived, so a slow handler no longer holds up reading
+     *
+     * @param executor null notifies on the I/O thread again
+     */
+    void setExecutor(Executor executor) {
+        this.mDispatcher = executor != null ? new SerialExecutor(executor) : null;
+    }
+
+    /**
+     * drops a partial frame left over from the previous connection
+     */
+    public void reset() {
+        mDecoder.reset();
     }
 
     @Override
     public void handlerRead(SocketChannel socketChannel) throws IOException {
         if (socketChannel.isConnected()) {
-            ByteBuffer byteBuffer = this.mBuf;
-            ByteArrayOutputStream os = this.mOS;
-            int len;
-            try {
-                while ((len = socketChannel.read(byteBuffer)) > 0) {
-                    byteBuffer.flip();
-                    os.write(byteBuffer.array(), 0, len);
-                    if (!socketChannel.isConnected()) {
-                        return;
-                    }
-                }
-                os.flush();
-                Log.d(TAG, os.toString());
-                notifyMessageHandler(os.toByteArray());
-            } catch (IOException e) {
-                throw e;
-            } finally {
-                byteBuffer.clear();
-                os.reset();
+            final int read = mDecoder.readFrom(socketChannel, this);
+            if (read < 0) {
+                throw new EOFException("connection closed by server.");
+            }
+            final ClientMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onRead(read);
+            }
+        }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame, int flags) {
+        final ClientMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onFrameRead();
+        }
+        if ((flags & FrameFlags.HEARTBEAT) != 0) {
+            KeepAliveThread keepAlive = mKeepAlive;
+            if (keepAlive != null && HeartbeatFrame.type(frame) == HeartbeatFrame.PONG) {
+                keepAlive.onPong(HeartbeatFrame.sequence(frame), HeartbeatFrame.timestamp(frame));
+            }
+            return;
+        }
+        WriteWorker writeWorker = mWriteWorker;
+        if ((flags & FrameFlags.RELIABLE) != 0) {
+            if (writeWorker != null && ReliableFrame.type(frame) == ReliableFrame.ACK) {
+                writeWorker.onAck(ReliableFrame.sequence(frame));
+            }
+            return;
+        }
+        final boolean compressed = (flags & FrameFlags.COMPRESSED) != 0;
+        final Pipeline pipeline = mPipeline;
+        if (!compressed && (pipeline == null || pipeline.isEmpty())) {
+            deliver(frame);
+            return;
+        }
+        final PipelineContext context = mPipelineContext;
+        context.setCompressed(compressed);
+        try {
+            frame = pipeline != null ? pipeline.inbound(context, frame) : frame;
+            if (frame == null) {
+                return;
+            }
+            if (context.isCompressed()) {
+                Logger.e(TAG, "drop compressed frame, compression is off");
+                return;
             }
+            deliver(frame);
+        } finally {
+            mPipelineContext.release();
+        }
+    }
+
+    private void deliver(ByteBuffer frame) {
+        byte[] message = new byte[frame.remaining()];
+        frame.get(message);
+        final SerialExecutor dispatcher = mDispatcher;
+        if (dispatcher == null) {
+            notifyMessageHandler(message);
+            return;
+        }
+        try {
+            dispatcher.execute(new Dispatch(message));
+        } catch (RejectedExecutionException e) {
+            Logger.w(TAG, "handler executor rejected message", e);
+        }
+    }
+
+    private final class Dispatch implements Runnable {
+        private final byte[] mMessage;
+
+        Dispatch(byte[] message) {
+            this.mMessage = message;
+        }
+
+        @Override
+        public void run() {
+            notifyMessageHandler(mMessage);
         }
     }
 }
@@ -1,16 +1,21 @@
 package com.longway.core.client;
 
-import java.util.LinkedList;
-import java.util.Random;
+import com.longway.core.util.ListenerRegistry;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * waits out the {@link Backoff} delay before each reconnect attempt, telling the listeners the
+ * seconds left once a second. a wakeup, for instance from the network coming back, cuts the
+ * wait short.
+ */
 public class ReconnectedThread implements Runnable {
     private static final String TAG = ReconnectedThread.class.getSimpleName();
-    private static final int BASE_TIME = new Random(11).nextInt() + 5;
+    private static final int SECOND = 1000;
     private SocketChannelClient mClient;
     private Thread mReconnectedThread;
-    private int mCurrentRetry = 0;
-    private LinkedList<ReconnectedListener> mListener = new LinkedList<>();
+    private volatile Backoff mBackoff = new Backoff();
+    private final ListenerRegistry<ReconnectedListener> mListener = new ListenerRegistry<>();
     private AtomicBoolean mRunning = new AtomicBoolean(true);
     private AtomicBoolean mWakeUp = new AtomicBoolean(false);
 
@@ -18,22 +23,14 @@ public class ReconnectedThread implements Runnable {
         if (reconnectedListener == null) {
             throw new NullPointerException("reconnectedListener==null.");
         }
-        synchronized (mListener) {
-            if (!mListener.contains(reconnectedListener)) {
-                mListener.add(reconnectedListener);
-            }
-        }
+        mListener.register(reconnectedListener);
     }
 
     public void unregisterReconnectedListener(ReconnectedListener reconnectedListener) {
         if (reconnectedListener == null) {
             throw new NullPointerException("reconnectedListener==null.");
         }
-        synchronized (mListener) {
-            if (mListener.contains(reconnectedListener)) {
-                mListener.remove(reconnectedListener);
-            }
-        }
+        mListener.unregister(reconnectedListener);
     }
 
     public ReconnectedThread(SocketChannelClient socketChannelClient) {
@@ -44,8 +41,19 @@ public class ReconnectedThread implements Runnable {
         return new ReconnectedThread(socketChannelClient);
     }
 
+    public void setBackoff(Backoff backoff) {
+        if (backoff == null) {
+            throw new NullPointerException("backoff==null.");
+        }
+        this.mBackoff = backoff;
+    }
+
     public synchronized boolean startReconnected() {
-        mCurrentRetry = 0;
+        if (Thread.currentThread() == mReconnectedThread) {
+            // an attempt of this thread failed, run() backs off before the next one
+            return true;
+        }
+        mBackoff.reset();
         if (mReconnectedThread == null || !mReconnectedThread.isAlive()) {
             mRunning.set(true);
             mReconnectedThread = new Thread(this);
@@ -60,34 +68,47 @@ public class ReconnectedThread implements Runnable {
         return true;
     }
 
-    private int getRetryTime() {
-        mCurrentRetry++;
-        if (mCurrentRetry > 13) {
-            return BASE_TIME * 6 * 5;
-        }
-        if (mCurrentRetry > 7) {
-            return BASE_TIME * 6;
-        }
-        return BASE_TIME;
+    /**
+     * milliseconds to wait before the next attempt, used by the event loop mode as well
+     */
+    long getRetryDelay() {
+        return mBackoff.nextDelay();
     }
 
-    private void notifyReconnectedListener(int second) {
-        Object[] reconnectedListeners = mListener.toArray();
-        if (reconnectedListeners != null) {
-            final int len = reconnectedListeners.length;
-            for (int i = 0; i < len; i++) {
-                ((ReconnectedListener) reconnectedListeners[i]).retryAttemptAfter(second);
-            }
+    /**
+     * a connection is up, called by the thread serving it
+     */
+    void onConnected() {
+        mBackoff.onConnected();
+    }
+
+    /**
+     * the network came back, the next attempt starts without delay
+     */
+    void resetRetry() {
+        mBackoff.reset();
+    }
+
+    /**
+     * @return whole seconds left of {@code remaining} milliseconds, rounded up
+     */
+    static int secondsLeft(long remaining) {
+        return (int) ((Math.max(0, remaining) + SECOND - 1) / SECOND);
+    }
+
+    void notifyReconnectedListener(int second) {
+        final Object[] reconnectedListeners = mListener.snapshot();
+        final int len = reconnectedListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((ReconnectedListener) reconnectedListeners[i]).retryAttemptAfter(second);
         }
     }
 
-    private void notifyReconnectedListener(String reason) {
-        Object[] reconnectedListeners = mListener.toArray();
-        if (reconnectedListeners != null) {
-            final int len = reconnectedListeners.length;
-            for (int i = 0; i < len; i++) {
-                ((ReconnectedListener) reconnectedListeners[i]).retryAttemptFail(reason);
-            }
+    void notifyReconnectedListener(String reason) {
+        final Object[] reconnectedListeners = mListener.snapshot();
+        final int len = reconnectedListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((ReconnectedListener) reconnectedListeners[i]).retryAttemptFail(reason);
         }
     }
 
@@ -101,18 +122,21 @@ public class ReconnectedThread implements Runnable {
     @Override
     public void run() {
         while (mRunning.get() && !mClient.isConnected()) {
-            int time = getRetryTime();
-            while (!mWakeUp.get() && !mClient.isConnected() && time > 0) {
-                time--;
+            final long deadline = System.currentTimeMillis() + getRetryDelay();
+            long remaining;
+            while (!mWakeUp.get() && !mClient.isConnected()
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
                 try {
-                    Thread.sleep(1000);
-                    notifyReconnectedListener(time);
+                    Thread.sleep(Math.min(SECOND, remaining));
+                    notifyReconnectedListener(secondsLeft(deadline - System.currentTimeMillis()));
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                     mWakeUp.set(true);
                     break;
                 }
             }
+            // one wakeup skips one wait, the following attempts back off again
+            mWakeUp.set(false);
             try {
                 if (!mClient.isConnected()) {
                     mClient.startClient();
@@ -0,0 +1,123 @@
+package com.longway.core.client;
+
+import com.longway.core.codec.ReliableFrame;
+
+import java.util.Random;
+
+/**
+ * the sending side of the reliable stream of one client, see {@link ReliableFrame}. every
+ * message gets the next sequence and is kept until the server acks it, after a reconnect the
+ * stream is opened again and whatever was not acked is written once more, ahead of anything
+ * new. at most the window size of messages are unacked, beyond that sending waits for acks.
+ * <p>
+ * only touched by the I/O thread.
+ */
+final class ReliableWindow {
+    private final long mStreamId = new Random().nextLong();
+    private final int mWindow;
+    /**
+     * unacked messages by sequence, a power of two not below the window
+     */
+    private final OutboundMessage[] mUnacked;
+    private final int mMask;
+    /**
+     * oldest unacked sequence
+     */
+    private int mFirstSeq = 1;
+    private int mNextSeq = 1;
+    /**
+     * next sequence to retransmit, {@link #mNextSeq} when there is none
+     */
+    private int mResendSeq = 1;
+    private boolean mOpenPending;
+
+    ReliableWindow(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be large than 0");
+        }
+        int capacity = Integer.highestOneBit(window);
+        if (capacity < window) {
+            capacity <<= 1;
+        }
+        this.mWindow = window;
+        this.mUnacked = new OutboundMessage[capacity];
+        this.mMask = capacity - 1;
+    }
+
+    /**
+     * a new connection: the stream is opened before anything else and every unacked message
+     * is written again
+     */
+    void onConnected() {
+        mOpenPending = true;
+        mResendSeq = mFirstSeq;
+    }
+
+    /**
+     * @return the open frame when the stream was not opened on this connection yet
+     */
+    byte[] takeOpen() {
+        if (!mOpenPending) {
+            return null;
+        }
+        mOpenPending = false;
+        return ReliableFrame.open(mStreamId);
+    }
+
+    boolean hasRoom() {
+        return mNextSeq - mFirstSeq < mWindow;
+    }
+
+    boolean hasRetransmit() {
+        return mResendSeq != mNextSeq;
+    }
+
+    /**
+     * @return the sequence of the next {@link #nextRetransmit()}
+     */
+    int retransmitSeq() {
+        return mResendSeq;
+    }
+
+    OutboundMessage nextRetransmit() {
+        OutboundMessage message = mUnacked[mResendSeq++ & mMask];
+        message.rewind();
+        return message;
+    }
+
+    /**
+     * keeps {@code message} until it is acked, only while there is room and nothing is left
+     * to retransmit
+     *
+     * @return the sequence of {@code message}
+     */
+    int add(OutboundMessage message) {
+        final int seq = mNextSeq++;
+        mUnacked[seq & mMask] = message;
+        mResendSeq = mNextSeq;
+        return seq;
+    }
+
+    /**
+     * completes every message up to {@code seq}
+     *
+     * @return true when the window was full before
+     */
+    boolean onAck(int seq) {
+        if (seq - mFirstSeq < 0 || seq - mNextSeq >= 0) {
+            // already acked, or not sent by this stream
+            return false;
+        }
+        final boolean wasFull = !hasRoom();
+        while (seq - mFirstSeq >= 0) {
+            final int index = mFirstSeq++ & mMask;
+            OutboundMessage message = mUnacked[index];
+            mUnacked[index] = null;
+            message.complete(true);
+        }
+        if (mResendSeq - mFirstSeq < 0) {
+            mResendSeq = mFirstSeq;
+        }
+        return wasFull;
+    }
+}
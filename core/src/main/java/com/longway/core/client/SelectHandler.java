@@ -0,0 +1,13 @@
+package com.longway.core.client;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * attachment of every key registered with an {@link EventLoop}
+ */
+interface SelectHandler {
+    /**
+     * called on the event loop thread for each selected key
+     */
+    void onSelected(SelectionKey key);
+}
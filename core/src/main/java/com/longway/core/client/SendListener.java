@@ -0,0 +1,10 @@
+package com.longway.core.client;
+
+public interface SendListener {
+    /**
+     * called on the I/O thread once the message no longer needs the caller's bytes: true when
+     * the socket took it (or its unwritten tail was copied aside), false when the write failed.
+     * until then the array or buffer passed to sendMsg must not be modified.
+     */
+    void onSendComplete(boolean success);
+}
@@ -2,36 +2,101 @@ package com.longway.core.client;
 
 import android.app.Application;
 import android.content.Context;
-import android.text.TextUtils;
-import android.util.Log;
 
+import com.longway.core.codec.Compression;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.LengthFieldFrameCodec;
+import com.longway.core.util.ListenerRegistry;
+import com.longway.core.util.Logger;
+
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static android.support.v7.widget.AppCompatDrawableManager.get;
-
 public class SocketChannelClient implements Runnable, NetworkMonitor {
     private static final String TAG = SocketChannelClient.class.getSimpleName();
     private String mHost;
     private int mPort;
     private WriteWorker mWriteWorker;
     private IReadHandler mReadHandler;
+    private FrameCodec mFrameCodec = new LengthFieldFrameCodec();
+    private int mMaxBatchMessages = Config.MAX_BATCH_MESSAGES;
+    private int mMaxBatchBytes = Config.MAX_BATCH_BYTES;
+    private int mLowWaterMark = Config.WRITE_BUFFER_LOW_WATER_MARK;
+    private int mHighWaterMark = Config.WRITE_BUFFER_HIGH_WATER_MARK;
+    private int mWriteBufferLimit = Config.WRITE_BUFFER_LIMIT;
+    private OutboundBuffer mOutboundBuffer;
+    private Selector mSelector;
+    private SelectionKey mSelectionKey;
+    /**
+     * the thread running the selector loop, it never needs to wake itself up
+     */
+    private volatile Thread mIoThread;
+    private int mConnectTimeout = Config.CONNECT_TIMEOUT;
+    private int mConnectionAttemptDelay = Config.CONNECTION_ATTEMPT_DELAY;
     private KeepAliveThread mKeepAlive;
-    private SocketChannel mSocketChannelClient;
+    private int mHeartbeatInterval = Config.HEARTBEAT_INTERVAL;
+    private int mPongTimeout = Config.PONG_TIMEOUT;
+    private int mMaxMissedPongs = Config.MAX_MISSED_PONGS;
+    private volatile long mLastActiveReceiveTime = System.currentTimeMillis();
+    /**
+     * set by the keep-alive once the pongs stopped, the legacy loop fails with it
+     */
+    private volatile IOException mHeartbeatFailure;
+    private Backoff mBackoff;
+    private int mPendingMaxBytes = Config.PENDING_QUEUE_MAX_BYTES;
+    private File mPendingJournal;
+    private int mPendingJournalSize = Config.PENDING_JOURNAL_SIZE;
+    private int mReliableWindow;
+    private final Pipeline mPipeline = new Pipeline();
+    private CompressionStage mCompressionStage;
+    /**
+     * compression stages out of the pipeline, ended by the I/O thread which may still be in
+     * the middle of one of them
+     */
+    private final ConcurrentLinkedQueue<CompressionStage> mRetiredStages = new ConcurrentLinkedQueue<>();
+    /**
+     * guarded by this, before start no I/O thread has seen the pipeline
+     */
+    private boolean mStarted;
+    private Executor mHandlerExecutor;
+    private final ClientMetrics mMetrics = new ClientMetrics(this);
+    private volatile SocketChannel mSocketChannelClient;
+    private boolean mUseEventLoop;
+    private EventLoopGroup mEventLoopGroup;
+    private EventLoop mEventLoop;
+    private EventLoopConnection mConnection;
+    private final Runnable mEndRetiredStagesTask = new Runnable() {
+        @Override
+        public void run() {
+            endRetiredStages();
+        }
+    };
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            WriteWorker writeWorker = mWriteWorker;
+            if (writeWorker != null) {
+                mMetrics.onWakeup();
+                writeWorker.flushIfScheduled();
+            }
+        }
+    };
     private NetworkMonitorReceiver mNetworkMonitorReceiver;
     private Context mContext;
     private ReconnectedThread mReconnectedThread;
-    private LinkedList<ConnectListener> mConnectListeners = new LinkedList<>();
+    private final ListenerRegistry<ConnectListener> mConnectListeners = new ListenerRegistry<>();
     private AtomicBoolean mDestroy = new AtomicBoolean(false);
     private AtomicBoolean mConnecting = new AtomicBoolean(false);
     /**
@@ -50,15 +115,72 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         return this;
     }
 
+    /**
+     * set the wire format shared with the server, must be called before {@link #start()}
+     */
+    public SocketChannelClient setFrameCodec(FrameCodec frameCodec) {
+        if (frameCodec == null) {
+            throw new NullPointerException("frameCodec==null");
+        }
+        this.mFrameCodec = frameCodec;
+        return this;
+    }
+
+    /**
+     * limits of one coalesced write, must be called before {@link #start()}
+     */
+    public SocketChannelClient setWriteBatch(int maxBatchMessages, int maxBatchBytes) {
+        if (maxBatchMessages <= 0 || maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("maxBatchMessages and maxBatchBytes must be large than 0");
+        }
+        this.mMaxBatchMessages = maxBatchMessages;
+        this.mMaxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * bounds of the bytes accepted by sendMsg but not yet taken by the socket,
+     * must be called before {@link #start()}
+     *
+     * @param lowWaterMark  writable again at or below this
+     * @param highWaterMark not writable at or above this
+     * @param limit         sendMsg returns false above this
+     */
+    public SocketChannelClient setWriteBufferWaterMark(int lowWaterMark, int highWaterMark, int limit) {
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark || highWaterMark > limit) {
+            throw new IllegalArgumentException("0 <= lowWaterMark <= highWaterMark <= limit");
+        }
+        this.mLowWaterMark = lowWaterMark;
+        this.mHighWaterMark = highWaterMark;
+        this.mWriteBufferLimit = limit;
+        return this;
+    }
+
+    public SocketChannelClient registerWritabilityListener(WritabilityListener writabilityListener) {
+        enforceOutboundBuffer();
+        mOutboundBuffer.registerWritabilityListener(writabilityListener);
+        return this;
+    }
+
+    public SocketChannelClient unregisterWritabilityListener(WritabilityListener writabilityListener) {
+        enforceOutboundBuffer();
+        mOutboundBuffer.unregisterWritabilityListener(writabilityListener);
+        return this;
+    }
+
+    /**
+     * producers should stop sending while this is false and wait for
+     * {@link WritabilityListener#onWritabilityChanged(boolean)}
+     */
+    public boolean isWritable() {
+        return mOutboundBuffer == null || mOutboundBuffer.isWritable();
+    }
+
     public SocketChannelClient registerConnectListener(ConnectListener connectListener) {
         if (connectListener == null) {
             throw new NullPointerException("connectListener==null.");
         }
-        synchronized (mConnectListeners) {
-            if (!mConnectListeners.contains(connectListener)) {
-                mConnectListeners.add(connectListener);
-            }
-        }
+        mConnectListeners.register(connectListener);
         return this;
     }
 
@@ -66,36 +188,24 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         if (connectListener == null) {
             throw new NullPointerException("connectListener==null.");
         }
-        synchronized (mConnectListeners) {
-            if (mConnectListeners.contains(connectListener)) {
-                mConnectListeners.remove(connectListener);
-            }
-        }
+        mConnectListeners.unregister(connectListener);
         return this;
     }
 
     private void notifyConnectListenerSuccess(String detail) {
-        synchronized (mConnectListeners) {
-            Object[] connectListeners = this.mConnectListeners.toArray();
-            if (connectListeners != null) {
-                final int len = connectListeners.length;
-                for (int i = 0; i < len; i++) {
-                    ((ConnectListener) connectListeners[i]).connectToServerSuccess(detail);
-                }
-            }
+        final Object[] connectListeners = this.mConnectListeners.snapshot();
+        final int len = connectListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((ConnectListener) connectListeners[i]).connectToServerSuccess(detail);
         }
     }
 
 
     private void notifyConnectListenerFail(String reason) {
-        synchronized (mConnectListeners) {
-            Object[] connectListeners = this.mConnectListeners.toArray();
-            if (connectListeners != null) {
-                final int len = connectListeners.length;
-                for (int i = 0; i < len; i++) {
-                    ((ConnectListener) connectListeners[i]).connectToServerFail(reason);
-                }
-            }
+        final Object[] connectListeners = this.mConnectListeners.snapshot();
+        final int len = connectListeners.length;
+        for (int i = 0; i < len; i++) {
+            ((ConnectListener) connectListeners[i]).connectToServerFail(reason);
         }
     }
 
@@ -136,13 +246,24 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         return this;
     }
 
+    /**
+     * @deprecated add a {@link PipelineStage} to {@link #pipeline()} instead
+     */
+    @Deprecated
     public SocketChannelClient registerMessageInterceptor(MessageInterceptor messageInterceptor) {
-        mWriteWorker.registerMessageInterceptor(messageInterceptor);
+        if (messageInterceptor == null) {
+            throw new NullPointerException("messageInterceptor==null.");
+        }
+        mPipeline.addLast(new InterceptorStage(messageInterceptor));
         return this;
     }
 
+    @Deprecated
     public SocketChannelClient unregisterMessageInterceptor(MessageInterceptor messageInterceptor) {
-        mWriteWorker.unregisterMessageInterceptor(messageInterceptor);
+        if (messageInterceptor == null) {
+            throw new NullPointerException("messageInterceptor==null.");
+        }
+        mPipeline.remove(new InterceptorStage(messageInterceptor));
         return this;
     }
 
@@ -178,48 +299,319 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
      * @param port    端口
      */
     public SocketChannelClient(Context context, String host, int port) {
+        this(host, port);
         if (context == null) {
             throw new NullPointerException("context==null");
         }
-        if (TextUtils.isEmpty(host)) {
-            throw new NullPointerException("host==null");
-        }
-        if (port < 0 || port > 65535) {
-            throw new IllegalArgumentException("port must be between 0 and 65535");
-        }
         if (!(context instanceof Application)) {
             mContext = context.getApplicationContext();
         }
         if (mContext == null) {
             mContext = context;
         }
+    }
+
+    /**
+     * a client that does not watch the network state, it runs on a plain jvm without android
+     *
+     * @param host host name or address of the server
+     * @param port port of the server
+     */
+    public SocketChannelClient(String host, int port) {
+        if (host == null || host.length() == 0) {
+            throw new NullPointerException("host==null");
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be between 0 and 65535");
+        }
         this.mHost = host;
         this.mPort = port;
     }
 
+    /**
+     * @param connectTimeout         milliseconds, shared by the attempts to all addresses
+     * @param connectionAttemptDelay milliseconds before the next address is tried next to the
+     *                               pending one
+     */
+    public SocketChannelClient setConnectTimeout(int connectTimeout, int connectionAttemptDelay) {
+        if (connectTimeout <= 0) {
+            throw new IllegalArgumentException("connectTimeout must be large than 0");
+        }
+        if (connectionAttemptDelay < 0) {
+            throw new IllegalArgumentException("connectionAttemptDelay must be large than equals 0");
+        }
+        this.mConnectTimeout = connectTimeout;
+        this.mConnectionAttemptDelay = connectionAttemptDelay;
+        return this;
+    }
+
+    /**
+     * pings after {@code interval} milliseconds without receiving or sending, a pong not back
+     * within {@code pongTimeout} milliseconds is missed and {@code maxMissedPongs} misses in a
+     * row reconnect. only sent with a {@link FrameCodec} that supports flags
+     */
+    public SocketChannelClient setHeartbeat(int interval, int pongTimeout, int maxMissedPongs) {
+        if (interval <= 0 || pongTimeout <= 0 || maxMissedPongs <= 0) {
+            throw new IllegalArgumentException("interval, pongTimeout and maxMissedPongs must be large than 0");
+        }
+        this.mHeartbeatInterval = interval;
+        this.mPongTimeout = pongTimeout;
+        this.mMaxMissedPongs = maxMissedPongs;
+        if (mKeepAlive != null) {
+            mKeepAlive.setHeartbeat(interval, pongTimeout, maxMissedPongs);
+        }
+        return this;
+    }
+
+    /**
+     * where messages sent while disconnected wait: up to {@code maxMemoryBytes} in memory, the
+     * rest appended to the memory mapped {@code journal}, all of them sent in order once
+     * connected. without a journal sendMsg returns false beyond the memory limit. messages left
+     * in the journal are sent after a restart too, with {@code maxMemoryBytes} 0 every pending
+     * message is journaled and survives the process being killed. must be called before
+     * {@link #start()}
+     *
+     * @param journalSize bytes of the journal file, sendMsg returns false once it is full
+     */
+    public SocketChannelClient setPendingQueue(int maxMemoryBytes, File journal, int journalSize) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("maxMemoryBytes must be large than equals 0");
+        }
+        if (journal != null && journalSize <= 0) {
+            throw new IllegalArgumentException("journalSize must be large than 0");
+        }
+        this.mPendingMaxBytes = maxMemoryBytes;
+        this.mPendingJournal = journal;
+        this.mPendingJournalSize = journalSize;
+        return this;
+    }
+
+    /**
+     * sequences every message and completes its {@link SendListener} once the server acked it,
+     * what was not acked is sent again after a reconnect and the server delivers every message
+     * once and in order. at most {@code window} messages are unacked, more wait for acks.
+     * 0 turns it off (the default), {@link Config#RELIABLE_WINDOW} is a sensible window. needs
+     * a {@link FrameCodec} that supports flags, must be called before {@link #start()}
+     */
+    public SocketChannelClient setReliableDelivery(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must be large than equals 0");
+        }
+        this.mReliableWindow = window;
+        return this;
+    }
+
+    /**
+     * compresses messages from the threshold on and flags their frames, compressed frames are
+     * inflated before they reach a {@link MessageHandler}. the server must know the same
+     * dictionaries. added as a {@link PipelineStage} at the end of {@link #pipeline()}, stages
+     * added later (encryption for one) see the compressed bytes. null removes it, needs a
+     * {@link FrameCodec} that supports flags
+     */
+    public synchronized SocketChannelClient setCompression(Compression compression) {
+        if (compression != null && !mFrameCodec.supportsFlags()) {
+            throw new IllegalStateException("compression needs a frame codec with flags");
+        }
+        if (mCompressionStage != null) {
+            mPipeline.remove(mCompressionStage);
+            retire(mCompressionStage);
+            mCompressionStage = null;
+        }
+        if (compression != null) {
+            mCompressionStage = new CompressionStage(compression);
+            mPipeline.addLast(mCompressionStage);
+        }
+        return this;
+    }
+
+    /**
+     * hands a stage taken out of the pipeline to the I/O thread to be ended, called with the
+     * lock held
+     */
+    private void retire(CompressionStage stage) {
+        if (!mStarted) {
+            stage.end();
+            return;
+        }
+        mRetiredStages.offer(stage);
+        if (mEventLoop != null) {
+            mEventLoop.execute(mEndRetiredStagesTask);
+            return;
+        }
+        // the legacy loop ends them on its next turn, or on the next connection
+        Selector selector = mSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * called by the I/O thread, the stages are out of the pipeline so none of them runs again
+     */
+    void endRetiredStages() {
+        CompressionStage stage;
+        while ((stage = mRetiredStages.poll()) != null) {
+            stage.end();
+        }
+    }
+
+    /**
+     * called by the I/O thread once the client is closed and the pipeline is not run any more
+     */
+    void endCompression() {
+        final CompressionStage stage;
+        synchronized (this) {
+            stage = mCompressionStage;
+        }
+        endRetiredStages();
+        if (stage != null) {
+            stage.end();
+        }
+    }
+
+    /**
+     * notifies the {@link MessageHandler}s on {@code executor}, one message at a time and in the
+     * order they arrived, so a slow handler no longer holds up reading. null notifies on the
+     * I/O thread (the default), must be called before {@link #start()}
+     */
+    public SocketChannelClient setHandlerExecutor(Executor executor) {
+        this.mHandlerExecutor = executor;
+        return this;
+    }
+
+    /**
+     * bytes and messages in and out, pending and outbound depth, I/O wakeups, write latency and
+     * reconnects, read through {@link ClientMetrics#snapshot()} from any thread at any time
+     */
+    public ClientMetrics metrics() {
+        return mMetrics;
+    }
+
+    /**
+     * the stages messages pass in both directions, added or removed from any thread at any time
+     */
+    public Pipeline pipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * delays between reconnect attempts, by default {@link Backoff#FULL_JITTER} growing from
+     * {@link Config#RECONNECT_BASE_DELAY} to {@link Config#RECONNECT_MAX_DELAY}
+     */
+    public SocketChannelClient setReconnectBackoff(Backoff backoff) {
+        if (backoff == null) {
+            throw new NullPointerException("backoff==null");
+        }
+        this.mBackoff = backoff;
+        if (mReconnectedThread != null) {
+            mReconnectedThread.setBackoff(backoff);
+        }
+        return this;
+    }
+
+    /**
+     * @return microseconds of the last heartbeat round trip, 0 before the first pong
+     */
+    public long getRtt() {
+        return mKeepAlive != null ? mKeepAlive.getRtt() : 0;
+    }
+
+    /**
+     * @return microseconds of the smoothed round trip
+     */
+    public long getSmoothedRtt() {
+        return mKeepAlive != null ? mKeepAlive.getSmoothedRtt() : 0;
+    }
+
+    /**
+     * @return microseconds of the round trip jitter, its mean deviation
+     */
+    public long getRttJitter() {
+        return mKeepAlive != null ? mKeepAlive.getJitter() : 0;
+    }
+
+    /**
+     * connects, reads, writes and runs the heartbeat and reconnect timers on one selector
+     * thread, no read, keep-alive or reconnect thread is started. must be called before
+     * {@link #start()}
+     */
+    public SocketChannelClient useEventLoop() {
+        this.mUseEventLoop = true;
+        return this;
+    }
+
+    /**
+     * serves the connection on one event loop of {@code group}, shared with other clients, so
+     * the threads no longer grow with the clients. close only closes this connection, the loops
+     * are closed by the group. must be called before {@link #start()}
+     */
+    public SocketChannelClient useEventLoop(EventLoopGroup group) {
+        if (group == null) {
+            throw new NullPointerException("group==null");
+        }
+        this.mUseEventLoop = true;
+        this.mEventLoopGroup = group;
+        return this;
+    }
+
     public static SocketChannelClient newClient(Context context, String host, int port) {
         return new SocketChannelClient(context, host, port);
     }
 
+    public static SocketChannelClient newClient(String host, int port) {
+        return new SocketChannelClient(host, port);
+    }
+
     /**
      *
      * @return
      */
-    public SocketChannelClient start() {
+    public synchronized SocketChannelClient start() {
         // 1.0.1 版本添加 只有调用者需要真正启动连接的时候才初始化合作对象
         // 这样避免了在一些场景下，比如有的app需要在应用启动的时候，根据一些
         // 配置数据，初始化client, 但是在真正需要的时候再去启动client。
         init();
-        new Thread(this).start();
+        mStarted = true;
+        if (mEventLoopGroup != null) {
+            mEventLoop = mEventLoopGroup.next();
+            mConnection = new EventLoopConnection(this, mEventLoop, false);
+            mConnection.start();
+        } else if (mUseEventLoop) {
+            try {
+                mEventLoop = new EventLoop(TAG + "-EventLoop");
+            } catch (IOException e) {
+                throw new IllegalStateException("can not open selector", e);
+            }
+            mConnection = new EventLoopConnection(this, mEventLoop, true);
+            mConnection.start();
+        } else {
+            new Thread(this).start();
+        }
         return this;
     }
 
     private void init() {
+        if (mReliableWindow > 0 && !mFrameCodec.supportsFlags()) {
+            throw new IllegalStateException("reliable delivery needs a frame codec with flags");
+        }
+        if (mCompressionStage != null && !mFrameCodec.supportsFlags()) {
+            throw new IllegalStateException("compression needs a frame codec with flags");
+        }
         registerNetworkMonitor();
+        enforceOutboundBuffer();
         enforceWriteWorker();
         enforceReadHandler();
         enforceKeepAlive();
         enforceReconnectedThread();
+        if (mReadHandler instanceof ReadWorker) {
+            ((ReadWorker) mReadHandler).setKeepAlive(mKeepAlive);
+            if (mReliableWindow > 0) {
+                ((ReadWorker) mReadHandler).setReliable(mWriteWorker);
+            }
+            ((ReadWorker) mReadHandler).setPipeline(mPipeline);
+            ((ReadWorker) mReadHandler).setExecutor(mHandlerExecutor);
+            ((ReadWorker) mReadHandler).setMetrics(mMetrics);
+        }
     }
 
     public boolean isConnected() {
@@ -238,13 +630,61 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         return mWriteWorker.sendMsg(msg, offset, length);
     }
 
+    /**
+     * zero-copy send of a slice, {@code listener} tells when the slice may be reused
+     */
+    public boolean sendMsg(byte[] msg, int offset, int length, SendListener listener) {
+        return mWriteWorker.sendMsg(msg, offset, length, listener);
+    }
+
     public boolean sendMsg(ByteBuffer msg) {
         return mWriteWorker.sendMsg(msg);
     }
 
-    void writeMessageToServer(byte[] msg) throws IOException {
+    /**
+     * zero-copy send of the remaining bytes of a heap or direct buffer, {@code listener}
+     * tells when the buffer may be reused
+     */
+    public boolean sendMsg(ByteBuffer msg, SendListener listener) {
+        return mWriteWorker.sendMsg(msg, listener);
+    }
+
+    FrameCodec getFrameCodec() {
+        return mFrameCodec;
+    }
+
+    OutboundBuffer getOutboundBuffer() {
+        return mOutboundBuffer;
+    }
+
+    /**
+     * writes a batch of encoded frames with one gathering write, only called on the I/O thread
+     *
+     * @return true when the socket did not take everything and the rest waits for OP_WRITE
+     */
+    boolean writeMessageToServer(ByteBuffer[] frames, int offset, int length) throws IOException {
         if (isConnected()) {
-            mSocketChannelClient.write(ByteBuffer.wrap(msg));
+            if (mOutboundBuffer.write(mSocketChannelClient, frames, offset, length)) {
+                mSelectionKey.interestOps(mSelectionKey.interestOps() | SelectionKey.OP_WRITE);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * gets the I/O thread to run a scheduled flush, the legacy loop is woken out of select
+     * unless it asks itself
+     */
+    void wakeup() {
+        EventLoop eventLoop = mEventLoop;
+        if (eventLoop != null) {
+            eventLoop.execute(mFlushTask);
+            return;
+        }
+        Selector selector = mSelector;
+        if (selector != null && Thread.currentThread() != mIoThread) {
+            selector.wakeup();
         }
     }
 
@@ -252,10 +692,14 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         return mWriteWorker.getLastActiveSendTime();
     }
 
+    public long getLastActiveReceiveTime() {
+        return mLastActiveReceiveTime;
+    }
+
     private void enforceReadHandler() {
         synchronized (ReadWorker.class) {
             if (mReadHandler == null) {
-                mReadHandler = new ReadWorker();
+                mReadHandler = new ReadWorker(mFrameCodec);
             }
         }
     }
@@ -263,7 +707,32 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
     private void enforceWriteWorker() {
         synchronized (WriteWorker.class) {
             if (mWriteWorker == null) {
-                mWriteWorker = new WriteWorker(WriteWorker.class.getSimpleName(), this);
+                mWriteWorker = new WriteWorker(WriteWorker.class.getSimpleName(), this,
+                        mMaxBatchMessages, mMaxBatchBytes);
+                mWriteWorker.setPendingQueue(new PendingQueue(mPendingMaxBytes, openPendingJournal()));
+                if (mReliableWindow > 0) {
+                    mWriteWorker.setReliableWindow(new ReliableWindow(mReliableWindow));
+                }
+            }
+        }
+    }
+
+    private SpillJournal openPendingJournal() {
+        if (mPendingJournal == null) {
+            return null;
+        }
+        try {
+            return new SpillJournal(mPendingJournal, mPendingJournalSize);
+        } catch (IOException e) {
+            Logger.e(TAG, "can not open " + mPendingJournal + ", pending messages stay in memory:" + e.getMessage());
+            return null;
+        }
+    }
+
+    private void enforceOutboundBuffer() {
+        synchronized (OutboundBuffer.class) {
+            if (mOutboundBuffer == null) {
+                mOutboundBuffer = new OutboundBuffer(mLowWaterMark, mHighWaterMark, mWriteBufferLimit);
             }
         }
     }
@@ -272,11 +741,15 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         synchronized (KeepAliveThread.class) {
             if (mKeepAlive == null) {
                 mKeepAlive = new KeepAliveThread(this);
+                mKeepAlive.setHeartbeat(mHeartbeatInterval, mPongTimeout, mMaxMissedPongs);
             }
         }
     }
 
     private void registerNetworkMonitor() {
+        if (mContext == null) {
+            return;
+        }
         synchronized (NetworkMonitorReceiver.class) {
             if (mNetworkMonitorReceiver == null) {
                 NetworkMonitorReceiver.registerNetworkMonitor(this);
@@ -295,79 +768,201 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
             if (isConnected()) {
                 return;
             }
+            Selector selector = null;
             try {
-                SocketChannel socketChannel = SocketChannel.open();
-                Socket socket = socketChannel.socket();
-                socket.setKeepAlive(true);
-                socket.setTcpNoDelay(true);
-                socket.setSoTimeout(10_1000);
-                socketChannel.configureBlocking(false);
-                socketChannel.connect(new InetSocketAddress(mHost, mPort));
-                int count = 0;
-                while (!socketChannel.finishConnect()) {
-                    if (count >= 5) {
-                        mConnecting.set(false);
-                        return;
-                    }
-                    count++;
-                    Log.e(TAG, "connecting....");
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                notifyConnectListenerSuccess("connect to " + mHost + ":" + mPort + " success.");
-                mConnectServerFailCount.set(0); // clear flag
-                mSocketChannelClient = socketChannel;
-                mWriteWorker.sendPendingMessage();
-                Selector selector = Selector.open();
-                socketChannel.register(selector, SelectionKey.OP_READ);
+                selector = Selector.open();
+                // the connection is served by the selector that established it
+                SelectionKey connectedKey = new Connector(selector, null, mConnectTimeout, mConnectionAttemptDelay)
+                        .connect(mHost, mPort);
+                onConnected(connectedKey);
+                // close() drops the field while this loop may still be running
+                final WriteWorker writeWorker = mWriteWorker;
                 mKeepAlive.start();
-                while (!mDestroy.get() && isConnected()) {
-                    int n = selector.select();
-                    Log.d(TAG, "operations:" + n);
-                    if (n == 0) {
-                        continue;
-                    }
-                    Set<SelectionKey> keys = selector.selectedKeys();
-                    Iterator<SelectionKey> iterator = keys.iterator();
-                    while (iterator.hasNext()) {
-                        SelectionKey selectionKey = iterator.next();
-                        if (selectionKey.isReadable()) {
-                            Log.d(TAG, "key isReadable");
-                            mReadHandler.handlerRead((SocketChannel) selectionKey.channel());
-                        } else if (selectionKey.isWritable()) {
-                            Log.d(TAG, "key isWritable");
-                        } else if (selectionKey.isConnectable()) {
-                            Log.d(TAG, "isConnectable");
-                            //selectionKey.interestOps(SelectionKey.OP_READ);
+                try {
+                    while (!mDestroy.get() && isConnected()) {
+                        // queued messages must not wait for the next socket event
+                        int n = writeWorker.isFlushScheduled() ? selector.selectNow() : selector.select();
+                        Logger.d(TAG, "operations:" + n);
+                        mMetrics.onWakeup();
+                        // this loop may run on ReconnectedThread, whose interrupts would otherwise
+                        // make every following select return at once
+                        Thread.interrupted();
+                        final IOException heartbeatFailure = mHeartbeatFailure;
+                        if (heartbeatFailure != null) {
+                            throw heartbeatFailure;
+                        }
+                        if (n > 0) {
+                            Set<SelectionKey> keys = selector.selectedKeys();
+                            Iterator<SelectionKey> iterator = keys.iterator();
+                            while (iterator.hasNext()) {
+                                SelectionKey selectionKey = iterator.next();
+                                if (selectionKey.isReadable()) {
+                                    Logger.d(TAG, "key isReadable");
+                                    handleRead(selectionKey);
+                                }
+                                if (selectionKey.isValid() && selectionKey.isWritable()) {
+                                    Logger.d(TAG, "key isWritable");
+                                    handleWrite(selectionKey);
+                                } else if (selectionKey.isValid() && selectionKey.isConnectable()) {
+                                    Logger.d(TAG, "isConnectable");
+                                    //selectionKey.interestOps(SelectionKey.OP_READ);
+                                }
+                                iterator.remove();
+                            }
                         }
-                        iterator.remove();
+                        writeWorker.flushIfScheduled();
+                        endRetiredStages();
                     }
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "socket exception:" + e.getMessage());
-                if (!mDestroy.get()) {
-                    mConnecting.set(false);
-                    mSocketChannelClient = null;
-                    notifyConnectListenerFail(e.getLocalizedMessage());
-                    // 1.0.1 版本添加 修复无限重连问题
-                    final int count = mConnectServerFailCount.incrementAndGet();
-                    if (count <= Config.MAX_RECONNECT_COUNT) {
-                        startReconnect();
+                } finally {
+                    onDisconnected(writeWorker);
+                    if (mDestroy.get()) {
+                        endCompression();
                     } else {
-                        Log.w(TAG, "reconnectCount>5", e);
-                        mConnectServerFailCount.set(0); // next reconnect
+                        endRetiredStages();
                     }
-                } else {
-                    mConnectServerFailCount.set(0); // clear flag
                 }
+            } catch (IOException e) {
+                if (onConnectFailed(e)) {
+                    startReconnect();
+                }
+            } finally {
+                // deregisters whatever channel is left, a new connection gets a new selector
+                closeQuietly(selector);
             }
 
         }
     }
 
+    /**
+     * takes over a connected key, on the thread that serves it from now on
+     */
+    void onConnected(SelectionKey connectedKey) {
+        notifyConnectListenerSuccess("connect to " + mHost + ":" + mPort + " success.");
+        mMetrics.onConnected();
+        mConnectServerFailCount.set(0); // clear flag
+        if (mReadHandler instanceof ReadWorker) {
+            ((ReadWorker) mReadHandler).reset();
+        }
+        mOutboundBuffer.clear();
+        mHeartbeatFailure = null;
+        mLastActiveReceiveTime = System.currentTimeMillis();
+        mKeepAlive.reset();
+        mReconnectedThread.onConnected();
+        mSelectionKey = connectedKey;
+        mIoThread = Thread.currentThread();
+        mSelector = connectedKey.selector();
+        mSocketChannelClient = (SocketChannel) connectedKey.channel();
+        mWriteWorker.onConnected();
+        mWriteWorker.sendPendingMessage();
+    }
+
+    /**
+     * the serving thread let go of the connection, unwritten messages wait for the next one
+     */
+    void onDisconnected(WriteWorker writeWorker) {
+        mIoThread = null;
+        if (writeWorker != null) {
+            writeWorker.onDisconnected();
+        }
+    }
+
+    /**
+     * @return true when another attempt should be scheduled
+     */
+    boolean onConnectFailed(IOException e) {
+        Logger.e(TAG, "socket exception:" + e.getMessage());
+        mMetrics.onConnectFailed();
+        if (!mDestroy.get()) {
+            closeQuietly(mSocketChannelClient);
+            mConnecting.set(false);
+            mSocketChannelClient = null;
+            notifyConnectListenerFail(e.getLocalizedMessage());
+            // 1.0.1 版本添加 修复无限重连问题
+            final int count = mConnectServerFailCount.incrementAndGet();
+            if (count <= Config.MAX_RECONNECT_COUNT) {
+                return true;
+            }
+            Logger.w(TAG, "reconnectCount>5", e);
+            mConnectServerFailCount.set(0); // next reconnect
+        } else {
+            mConnectServerFailCount.set(0); // clear flag
+        }
+        return false;
+    }
+
+    String getHost() {
+        return mHost;
+    }
+
+    int getPort() {
+        return mPort;
+    }
+
+    int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    int getConnectionAttemptDelay() {
+        return mConnectionAttemptDelay;
+    }
+
+    IReadHandler getReadHandler() {
+        return mReadHandler;
+    }
+
+    WriteWorker getWriteWorker() {
+        return mWriteWorker;
+    }
+
+    KeepAliveThread getKeepAlive() {
+        return mKeepAlive;
+    }
+
+    ReconnectedThread getReconnectedThread() {
+        return mReconnectedThread;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void handleRead(SelectionKey selectionKey) throws IOException {
+        mLastActiveReceiveTime = System.currentTimeMillis();
+        mReadHandler.handlerRead((SocketChannel) selectionKey.channel());
+    }
+
+    /**
+     * the pongs stopped, the connection is closed and reconnected like after a failed read
+     */
+    void onHeartbeatTimeout(int missedPongs) {
+        SocketTimeoutException e = new SocketTimeoutException(missedPongs + " pongs missed");
+        if (mConnection != null) {
+            mConnection.fail(e);
+            return;
+        }
+        mHeartbeatFailure = e;
+        Selector selector = mSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * resumes a partial write, once drained OP_WRITE is disarmed and queued messages follow
+     */
+    void handleWrite(SelectionKey selectionKey) throws IOException {
+        if (mOutboundBuffer.flush((SocketChannel) selectionKey.channel())) {
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+            mWriteWorker.scheduleFlush();
+        }
+    }
+
     @Override
     protected void finalize() throws Throwable {
         try {
@@ -378,11 +973,31 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
     }
 
     public synchronized void close() {
+        if (!mStarted) {
+            // no I/O thread has ever run the stages
+            if (mCompressionStage != null) {
+                mCompressionStage.end();
+            }
+            return;
+        }
+        if (mConnection != null) {
+            // everything else belongs to the event loop, it closes the channel itself
+            if (mDestroy.compareAndSet(false, true)) {
+                if (mNetworkMonitorReceiver != null) {
+                    NetworkMonitorReceiver.unregisterNetworkMonitor(this);
+                    NetworkMonitorReceiver.unRegisterNetworkMonitorReceiver(mContext, mNetworkMonitorReceiver);
+                }
+                mConnection.close();
+            }
+            return;
+        }
         try {
             if (mSocketChannelClient != null && mSocketChannelClient.isConnected()) {
                 mDestroy.set(true);
-                NetworkMonitorReceiver.unregisterNetworkMonitor(this);
-                NetworkMonitorReceiver.unRegisterNetworkMonitorReceiver(mContext, mNetworkMonitorReceiver);
+                if (mNetworkMonitorReceiver != null) {
+                    NetworkMonitorReceiver.unregisterNetworkMonitor(this);
+                    NetworkMonitorReceiver.unRegisterNetworkMonitorReceiver(mContext, mNetworkMonitorReceiver);
+                }
                 if (mWriteWorker != null) {
                     mWriteWorker.pause();
                     mWriteWorker = null;
@@ -397,6 +1012,11 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
                 }
                 mSocketChannelClient.close();
                 mSocketChannelClient = null;
+                // the loop ends the compression stages on its way out
+                Selector selector = mSelector;
+                if (selector != null) {
+                    selector.wakeup();
+                }
 
             }
         } catch (IOException e) {
@@ -406,6 +1026,10 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
     }
 
     private void startReconnect() {
+        if (mConnection != null) {
+            mConnection.reconnect();
+            return;
+        }
         if (!isConnected()) {
             mReconnectedThread.startReconnected();
         }
@@ -415,6 +1039,9 @@ public class SocketChannelClient implements Runnable, NetworkMonitor {
         synchronized (ReconnectedThread.class) {
             if (mReconnectedThread == null) {
                 mReconnectedThread = ReconnectedThread.buildReconnectedThread(this);
+                if (mBackoff != null) {
+                    mReconnectedThread.setBackoff(mBackoff);
+                }
             }
         }
     }
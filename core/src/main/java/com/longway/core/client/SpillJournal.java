@@ -0,0 +1,170 @@
+package com.longway.core.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * append-only journal of messages in a memory-mapped file of fixed size, the overflow of
+ * {@link PendingQueue}. appends and reads are plain memory accesses, the pages are written
+ * back by the kernel and survive the death of the process.
+ * <pre>
+ * header:  magic (4) | committed read offset (4)
+ * record:  mark bit + length (4) | payload
+ * </pre>
+ * a record becomes visible by its length, written after the payload and after a zero length
+ * terminating the journal behind it, so a torn append is never read back. once every record
+ * has been read the journal starts over at the beginning. not thread safe, guarded by
+ * {@link PendingQueue}.
+ */
+final class SpillJournal {
+    private static final int MAGIC = 0x534A4E31;
+    private static final int HEADER_LENGTH = 8;
+    private static final int READ_OFFSET = 4;
+    private static final int RECORD_HEADER = 4;
+    private static final int MARK = 0x80000000;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private int mRead;
+    private int mWrite;
+    private int mCount;
+    private boolean mMarked;
+
+    /**
+     * opens {@code file}, records left over by a previous process are read first
+     *
+     * @param capacity bytes of the file, appends fail once it is full
+     */
+    SpillJournal(File file, int capacity) throws IOException {
+        if (capacity <= HEADER_LENGTH + RECORD_HEADER) {
+            throw new IllegalArgumentException("capacity too small");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != capacity) {
+                // a journal of another size is rebuilt from scratch
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(capacity);
+            }
+            // the mapping stays valid after the file is closed
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            randomAccessFile.close();
+        }
+        mCapacity = capacity;
+        recover();
+    }
+
+    private void recover() {
+        final int read = mBuffer.getInt(READ_OFFSET);
+        if (mBuffer.getInt(0) != MAGIC || read < HEADER_LENGTH || read > mCapacity) {
+            mBuffer.putInt(0, MAGIC);
+            clear();
+            return;
+        }
+        int position = read;
+        int count = 0;
+        while (position + RECORD_HEADER <= mCapacity) {
+            final int header = mBuffer.getInt(position);
+            final int length = header & ~MARK;
+            if (header == 0 || length > mCapacity - position - RECORD_HEADER) {
+                break;
+            }
+            // the listeners of the marks died with the previous process
+            mBuffer.putInt(position, length);
+            position += RECORD_HEADER + length;
+            count++;
+        }
+        mRead = read;
+        mWrite = position;
+        mCount = count;
+    }
+
+    boolean isEmpty() {
+        return mRead == mWrite;
+    }
+
+    /**
+     * @return records not read yet
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * copies the remaining bytes of {@code payload}
+     *
+     * @param marked read back by {@link #isMarked()}
+     * @return false when the journal is full
+     */
+    boolean append(ByteBuffer payload, boolean marked) {
+        final int length = payload.remaining();
+        final int end = mWrite + RECORD_HEADER + length;
+        if (length == 0 || end > mCapacity || end < 0) {
+            return false;
+        }
+        ByteBuffer target = mBuffer.duplicate();
+        target.position(mWrite + RECORD_HEADER);
+        target.put(payload.duplicate());
+        if (end + RECORD_HEADER <= mCapacity) {
+            mBuffer.putInt(end, 0);
+        }
+        mBuffer.putInt(mWrite, marked ? length | MARK : length);
+        mWrite = end;
+        mCount++;
+        return true;
+    }
+
+    /**
+     * @return the next record, a view of the mapped file valid until {@link #recycle()}, or
+     * null when all records have been read
+     */
+    ByteBuffer poll() {
+        if (mRead == mWrite) {
+            return null;
+        }
+        final int header = mBuffer.getInt(mRead);
+        final int length = header & ~MARK;
+        mMarked = (header & MARK) != 0;
+        ByteBuffer record = mBuffer.duplicate();
+        record.limit(mRead + RECORD_HEADER + length).position(mRead + RECORD_HEADER);
+        mRead += RECORD_HEADER + length;
+        mCount--;
+        return record.slice();
+    }
+
+    /**
+     * @return whether the record last returned by {@link #poll()} was appended marked
+     */
+    boolean isMarked() {
+        return mMarked;
+    }
+
+    /**
+     * records read so far are not read again after a restart
+     */
+    void commit() {
+        mBuffer.putInt(READ_OFFSET, mRead);
+    }
+
+    /**
+     * starts over at the beginning once everything has been read, only when no record
+     * returned by {@link #poll()} is in use any more
+     */
+    void recycle() {
+        if (mRead == mWrite && mWrite != HEADER_LENGTH) {
+            clear();
+        }
+    }
+
+    private void clear() {
+        mBuffer.putInt(HEADER_LENGTH, 0);
+        mBuffer.putInt(READ_OFFSET, HEADER_LENGTH);
+        mRead = HEADER_LENGTH;
+        mWrite = HEADER_LENGTH;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,9 @@
+package com.longway.core.client;
+
+public interface WritabilityListener {
+    /**
+     * @param writable false once the bytes waiting to be written reach the high water mark,
+     *                 true again when they drop to the low water mark
+     */
+    void onWritabilityChanged(boolean writable);
+}
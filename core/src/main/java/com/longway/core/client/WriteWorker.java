@@ -1,131 +1,218 @@
 package com.longway.core.client;
 
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.util.Log;
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.ReliableFrame;
+import com.longway.core.util.ListenerRegistry;
+import com.longway.core.util.MpscLinkedQueue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class WriteWorker extends HandlerThread {
+/**
+ * collects messages from any thread and writes them on the I/O thread of
+ * {@link SocketChannelClient}. a message is queued by reference, encoded once into pooled
+ * direct memory when its batch is written and never copied on the way.
+ * <p>
+ * with reliable delivery every message is completed once the server acked it instead of
+ * once it was written, and what a broken connection lost is written again on the next one.
+ */
+public class WriteWorker {
     private static final String TAG = WriteWorker.class.getSimpleName();
-    private static final int MESSAGE_TYPE_STRING = 0x01;
-    private static final int MESSAGE_TYPE_BYTE = 0x02;
-    private static final String RAW_MSG = "raw_msg";
+    /**
+     * direct payloads from this size on are written in place instead of being copied
+     */
+    private static final int ZERO_COPY_THRESHOLD = 1024;
     private SocketChannelClient mSocketChannelClient;
-    private Handler mSender;
-    private Looper mLooper;
-    private long mLastActiveSendTime = System.currentTimeMillis();
-    private LinkedList<MessageInterceptor> messageInterceptors = new LinkedList<>();
-    private LinkedList<MessageReceiptHandler> messageReceiptHandlers = new LinkedList<>();
-    private LinkedBlockingQueue<byte[]> mPendingMessage = new LinkedBlockingQueue<>();
+    private volatile boolean mRunning = true;
+    private volatile long mLastActiveSendTime = System.currentTimeMillis();
+    private final ListenerRegistry<MessageReceiptHandler> messageReceiptHandlers = new ListenerRegistry<>();
+    /**
+     * messages sent while disconnected, replayed ahead of everything newer
+     */
+    private volatile PendingQueue mPendingMessage = new PendingQueue(Config.PENDING_QUEUE_MAX_BYTES, null);
+    /**
+     * true from a disconnect until the pending messages were replayed, messages go to the
+     * pending queue meanwhile. only changed under the lock of the pending queue.
+     */
+    private volatile boolean mOffline = true;
+    /**
+     * producers between reading {@link #mOffline} as false and queueing their message
+     */
+    private final AtomicInteger mProducers = new AtomicInteger();
+    /**
+     * true from a disconnect until the unwritten messages were moved to the pending queue,
+     * the last producer to leave does it when some were still queueing. only changed under
+     * the lock of the pending queue.
+     */
+    private volatile boolean mDrainPending;
+    /**
+     * messages waiting for the next flush, drained in batches by the I/O thread. the queued
+     * reference is also what a failure receipt reports, no copy is kept for it.
+     */
+    private final MpscLinkedQueue<OutboundMessage> mOutbound = new MpscLinkedQueue<>();
+    private AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final int mMaxBatchMessages;
+    private final int mMaxBatchBytes;
+    /**
+     * only touched by the I/O thread, reused by every flush
+     */
+    private final OutboundMessage[] mBatch;
+    private final PooledByteBuffer[] mPooled;
+    private final ByteBuffer[] mFrames;
+    private final ByteBufferPool mPool = ByteBufferPool.getDefault();
+    /**
+     * sequences of the batch, 0 for a message not sent reliably
+     */
+    private final int[] mSeqs;
+    /**
+     * when the messages of the batch were queued, 0 for those replayed or retransmitted
+     */
+    private final long[] mQueuedAt;
+    private final ClientMetrics mMetrics;
+    private ReliableWindow mReliableWindow;
+    private final Pipeline mPipeline;
+    /**
+     * buffers the stages allocate for the batch being written
+     */
+    private final PipelineContext mPipelineContext = new PipelineContext();
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
 
+    /**
+     * must be called before anything is sent
+     */
+    void setPendingQueue(PendingQueue pendingQueue) {
+        this.mPendingMessage = pendingQueue;
+    }
+
+    /**
+     * must be called before anything is sent, null sends without acks
+     */
+    void setReliableWindow(ReliableWindow reliableWindow) {
+        this.mReliableWindow = reliableWindow;
+    }
+
+    /**
+     * called by the I/O thread for an ack of the server
+     */
+    void onAck(int seq) {
+        final ReliableWindow reliableWindow = mReliableWindow;
+        if (reliableWindow != null && reliableWindow.onAck(seq)) {
+            // sending was waiting for room
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * called by the I/O thread on a new connection, ahead of {@link #sendPendingMessage()}
+     */
+    void onConnected() {
+        if (mReliableWindow != null) {
+            mReliableWindow.onConnected();
+        }
+        // even without pending messages a flush is what ends the offline mode
+        scheduleFlush();
+    }
 
     public boolean addPendingMessage(byte[] message) {
-        return mPendingMessage.offer(message);
+        return mPendingMessage.offer(OutboundMessage.wrap(message, null));
     }
 
+    /**
+     * replays the pending messages in order, a batch per flush so that only one batch of them
+     * is in memory at a time
+     */
     public void sendPendingMessage() {
-        byte[] message;
-        while ((message = mPendingMessage.poll()) != null) {
-            sendMsg(message);
+        if (!mPendingMessage.isEmpty()) {
+            scheduleFlush();
         }
     }
 
+    /**
+     * @deprecated add a {@link PipelineStage} to {@link SocketChannelClient#pipeline()} instead
+     */
+    @Deprecated
     public void registerMessageInterceptor(MessageInterceptor messageInterceptor) {
         if (messageInterceptor == null) {
             throw new NullPointerException("messageInterceptor==null.");
         }
-        synchronized (messageInterceptors) {
-            if (!messageInterceptors.contains(messageInterceptor)) {
-                messageInterceptors.add(messageInterceptor);
-            }
-        }
+        mPipeline.addLast(new InterceptorStage(messageInterceptor));
     }
 
+    @Deprecated
     public void unregisterMessageInterceptor(MessageInterceptor messageInterceptor) {
         if (messageInterceptor == null) {
             throw new NullPointerException("messageInterceptor==null.");
         }
-        synchronized (messageInterceptors) {
-            if (messageInterceptors.contains(messageInterceptor)) {
-                messageInterceptors.remove(messageInterceptor);
-            }
-        }
-    }
-
-    private byte[] notifyInterceptor(byte[] msg) {
-        byte[] bytes = msg;
-        synchronized (messageInterceptors) {
-            Object[] messageInterceptors = this.messageInterceptors.toArray();
-            if (messageInterceptors != null) {
-                final int len = messageInterceptors.length;
-                for (int i = 0; i < len; i++) {
-                    bytes = ((MessageInterceptor) messageInterceptors[i]).onInterceptor(bytes);
-                }
-            }
-        }
-        if (bytes == null || bytes.length == 0) {
-            bytes = msg;
-        }
-        return bytes;
+        mPipeline.remove(new InterceptorStage(messageInterceptor));
     }
 
     public void registerMessageReceiptHandler(MessageReceiptHandler messageReceiptHandler) {
         if (messageReceiptHandler == null) {
             throw new NullPointerException(" messageReceiptHandler==null");
         }
-        synchronized (messageReceiptHandler) {
-            if (!messageReceiptHandlers.contains(messageReceiptHandler)) {
-                messageReceiptHandlers.add(messageReceiptHandler);
-            }
-        }
+        messageReceiptHandlers.register(messageReceiptHandler);
     }
 
     public void unregisterMessageReceiptHandler(MessageReceiptHandler messageReceiptHandler) {
         if (messageReceiptHandler == null) {
             throw new NullPointerException(" messageReceiptHandler==null");
         }
-        synchronized (messageReceiptHandler) {
-            if (messageReceiptHandlers.contains(messageReceiptHandler)) {
-                messageReceiptHandlers.remove(messageReceiptHandler);
-            }
-        }
+        messageReceiptHandlers.unregister(messageReceiptHandler);
     }
 
     private void notifyMessageReceiptHandlerHandleMessageFail(byte[] msg) {
-        synchronized (messageReceiptHandlers) {
-            Object[] objects = messageReceiptHandlers.toArray();
-            if (objects != null) {
-                final int len = objects.length;
-                for (int i = 0; i < len; i++) {
-                    MessageReceiptHandler messageReceiptHandler = (MessageReceiptHandler) objects[i];
-                    if (messageReceiptHandler != null) {
-                        messageReceiptHandler.onSendMessageFail(msg);
-                    }
-                }
-            }
+        final Object[] objects = messageReceiptHandlers.snapshot();
+        final int len = objects.length;
+        for (int i = 0; i < len; i++) {
+            ((MessageReceiptHandler) objects[i]).onSendMessageFail(msg);
         }
     }
 
     public WriteWorker(String name, SocketChannelClient socketChannelClient) {
-        super(name);
+        this(name, socketChannelClient, Config.MAX_BATCH_MESSAGES, Config.MAX_BATCH_BYTES);
+    }
+
+    /**
+     * @param maxBatchMessages most messages written by one gathering write
+     * @param maxBatchBytes    a batch is closed once it holds this many bytes
+     */
+    public WriteWorker(String name, SocketChannelClient socketChannelClient, int maxBatchMessages, int maxBatchBytes) {
+        if (maxBatchMessages <= 0) {
+            throw new IllegalArgumentException("maxBatchMessages must be large than 0");
+        }
+        if (maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("maxBatchBytes must be large than 0");
+        }
         this.mSocketChannelClient = socketChannelClient;
-        start();
-        Looper looper = getLooper();
-        mLooper = looper;
-        mSender = new Sender(looper);
+        this.mPipeline = socketChannelClient.pipeline();
+        this.mMetrics = socketChannelClient.metrics();
+        this.mMaxBatchMessages = maxBatchMessages;
+        this.mMaxBatchBytes = maxBatchBytes;
+        this.mBatch = new OutboundMessage[maxBatchMessages];
+        this.mPooled = new PooledByteBuffer[maxBatchMessages];
+        this.mSeqs = new int[maxBatchMessages];
+        this.mQueuedAt = new long[maxBatchMessages];
+        // header, payload and trailer of a zero-copy message are separate buffers
+        this.mFrames = new ByteBuffer[maxBatchMessages * 3];
     }
 
-    public synchronized long getLastActiveSendTime() {
+    public long getLastActiveSendTime() {
         return mLastActiveSendTime;
     }
 
+    /**
+     * @return messages waiting for the next connection
+     */
+    int getPendingMessageCount() {
+        return mPendingMessage.size();
+    }
+
     public boolean sendMsg(String msg) {
         return sendMsg(msg.getBytes());
     }
@@ -143,10 +230,7 @@ public class WriteWorker extends HandlerThread {
         if (length <= 0) {
             throw new IllegalArgumentException("length must be large than 0");
         }
-        if (offset > length) {
-            throw new IllegalArgumentException("offset must be less than equals length");
-        }
-        if (offset + length > msg.length) {
+        if (length > msg.length - offset) {
             throw new IllegalArgumentException("offset add length must be less than msg.length");
         }
     }
@@ -155,76 +239,392 @@ public class WriteWorker extends HandlerThread {
         if (byteBuffer == null) {
             throw new NullPointerException("byteBuffer==null");
         }
+        if (!byteBuffer.hasRemaining()) {
+            throw new IllegalArgumentException("byteBuffer has no remaining bytes");
+        }
     }
 
     public boolean sendMsg(byte[] msg, int offset, int length) {
+        return sendMsg(msg, offset, length, null);
+    }
+
+    /**
+     * sends {@code length} bytes of {@code msg} from {@code offset} without copying them,
+     * the slice must stay untouched until {@code listener} is called
+     */
+    public boolean sendMsg(byte[] msg, int offset, int length, SendListener listener) {
         checkMsg(msg);
         checkBound(msg, offset, length);
-        byte[] subMsg = new byte[length];
-        System.arraycopy(msg, offset, subMsg, 0, length);
-        return sendMsg(msg);
+        return enqueue(OutboundMessage.wrap(msg, offset, length, listener));
     }
 
     public boolean sendMsg(ByteBuffer byteBuffer) {
-        checkByteBuffer(byteBuffer);
-        return sendMsg(byteBuffer.array());
+        return sendMsg(byteBuffer, null);
     }
 
+    /**
+     * sends the remaining bytes of a heap or direct buffer without copying them, its position
+     * and limit are left alone. the bytes must stay untouched until {@code listener} is called.
+     */
+    public boolean sendMsg(ByteBuffer byteBuffer, SendListener listener) {
+        checkByteBuffer(byteBuffer);
+        return enqueue(OutboundMessage.wrap(byteBuffer, listener));
+    }
 
+    /**
+     * @return false when the message was rejected because the outbound buffer is full,
+     * see {@link SocketChannelClient#isWritable()}, or while disconnected because the pending
+     * queue is full
+     */
     public boolean sendMsg(byte[] msg) {
         checkMsg(msg);
+        return enqueue(OutboundMessage.wrap(msg, null));
+    }
+
+    /**
+     * sends a control frame past the pipeline, it is dropped while disconnected
+     *
+     * @param flags what {@link com.longway.core.codec.FrameFlags} tells the frame apart by
+     */
+    boolean sendControl(byte[] msg, int flags) {
         if (!mSocketChannelClient.isConnected()) {
-            boolean add = addPendingMessage(msg);
-            return add;
-        } else {
-            Message message = Message.obtain(mSender);
-            message.what = MESSAGE_TYPE_BYTE;
-            message.obj = msg;
-            Bundle bundle = new Bundle();
-            bundle.putByteArray(RAW_MSG, msg);
-            message.setData(bundle);
-            message.sendToTarget();
+            return false;
         }
+        return enqueue(OutboundMessage.control(msg, flags));
+    }
+
+    private boolean enqueue(OutboundMessage message) {
+        if (message.isControl()) {
+            return offerOutbound(message);
+        }
+        for (; ; ) {
+            mProducers.incrementAndGet();
+            try {
+                if (!mOffline) {
+                    return offerOutbound(message);
+                }
+            } finally {
+                if (mProducers.decrementAndGet() == 0 && mDrainPending) {
+                    drainOutbound();
+                }
+            }
+            final PendingQueue pendingQueue = mPendingMessage;
+            synchronized (pendingQueue) {
+                if (mDrainPending) {
+                    // behind the unwritten messages, the drain moves them all in order
+                    return offerOutbound(message);
+                }
+                // the replay may have ended meanwhile
+                if (mOffline) {
+                    // behind the pending messages until they are replayed
+                    if (!pendingQueue.offer(message)) {
+                        return false;
+                    }
+                    if (mSocketChannelClient.isConnected()) {
+                        scheduleFlush();
+                    }
+                    return true;
+                }
+            }
+        }
+    }
+
+    private boolean offerOutbound(OutboundMessage message) {
+        if (!mSocketChannelClient.getOutboundBuffer().reserve(message.length())) {
+            return false;
+        }
+        message.stamp(System.nanoTime());
+        mOutbound.offer(message);
+        scheduleFlush();
         return true;
     }
 
+    /**
+     * new messages are written directly once the pending ones were, called by the I/O thread
+     *
+     * @return false when another message became pending meanwhile
+     */
+    private boolean goOnline(PendingQueue pendingQueue) {
+        synchronized (pendingQueue) {
+            if (!pendingQueue.isEmpty()) {
+                return false;
+            }
+            mOffline = false;
+            mDrainPending = false;
+            return true;
+        }
+    }
+
+    /**
+     * asks the I/O thread for one flush, everything queued before it runs goes out together.
+     * waking a blocked selector costs more than unparking a thread, a lone message waits
+     * longer for it, but a burst pays for one wakeup instead of one per message.
+     */
+    void scheduleFlush() {
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mSocketChannelClient.wakeup();
+        }
+    }
+
+    boolean isFlushScheduled() {
+        return mFlushScheduled.get();
+    }
+
+    /**
+     * runs a scheduled flush, called once per turn of the I/O loop
+     */
+    void flushIfScheduled() {
+        if (!mRunning || !mFlushScheduled.compareAndSet(true, false)) {
+            return;
+        }
+        // a backed up channel resumes through OP_WRITE, otherwise keep going next turn
+        if (flush() && hasMoreToFlush()) {
+            scheduleFlush();
+        }
+    }
+
+    private boolean hasMoreToFlush() {
+        final ReliableWindow reliableWindow = mReliableWindow;
+        if (reliableWindow != null) {
+            if (reliableWindow.hasRetransmit()) {
+                return true;
+            }
+            if (!reliableWindow.hasRoom()) {
+                // resumes through the ack that makes room
+                return false;
+            }
+        }
+        return !mOutbound.isEmpty() || !mPendingMessage.isEmpty();
+    }
+
+    /**
+     * called by the I/O thread once its loop ended, whatever was not written yet is kept
+     * for the next connection
+     */
+    void onDisconnected() {
+        mFlushScheduled.set(false);
+        synchronized (mPendingMessage) {
+            mOffline = true;
+            mDrainPending = true;
+        }
+        // producers still queueing leave the drain to the last of them
+        if (mProducers.get() == 0) {
+            drainOutbound();
+        }
+    }
+
+    /**
+     * moves the unwritten messages to the pending queue once no producer is queueing, those
+     * that see the offline mode meanwhile wait for the lock, so the moved messages stay ahead
+     * of theirs. the I/O thread polls the outbound queue again only once it went online, so
+     * the queue keeps a single consumer at a time.
+     */
+    private void drainOutbound() {
+        final OutboundBuffer outboundBuffer = mSocketChannelClient.getOutboundBuffer();
+        final PendingQueue pendingQueue = mPendingMessage;
+        synchronized (pendingQueue) {
+            if (!mDrainPending || mProducers.get() != 0) {
+                return;
+            }
+            mDrainPending = false;
+            OutboundMessage message;
+            while ((message = mOutbound.poll()) != null) {
+                outboundBuffer.release(message.length());
+                if (message.isControl()) {
+                    continue;
+                }
+                if (!pendingQueue.offer(message)) {
+                    notifyMessageReceiptHandlerHandleMessageFail(message.toByteArray());
+                    message.complete(false);
+                }
+            }
+        }
+    }
 
     public void pause() {
-        if (mLooper != null) {
-            mLooper.quit();
-        }
-    }
-
-    private final class Sender extends Handler {
-        public Sender(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            super.handleMessage(msg);
-            Log.d(TAG, msg.toString());
-            final SocketChannelClient socketChannelClient = mSocketChannelClient;
-            if (socketChannelClient.isConnected()) {
-                try {
-                    switch (msg.what) {
-                        case MESSAGE_TYPE_STRING:
-                            break;
-                        case MESSAGE_TYPE_BYTE:
-                            socketChannelClient.writeMessageToServer((notifyInterceptor((byte[]) msg.obj)));
-                            mLastActiveSendTime = System.currentTimeMillis();
-                            break;
-                        default:
-                            break;
+        mRunning = false;
+    }
+
+    /**
+     * @return false when the channel is backed up and nothing more can be written
+     */
+    private boolean flush() {
+        final SocketChannelClient socketChannelClient = mSocketChannelClient;
+        final OutboundBuffer outboundBuffer = socketChannelClient.getOutboundBuffer();
+        if (!socketChannelClient.isConnected()) {
+            onDisconnected();
+            return true;
+        }
+        if (outboundBuffer.hasUnflushed()) {
+            return false;
+        }
+        final FrameCodec frameCodec = socketChannelClient.getFrameCodec();
+        final int headerLength = frameCodec.headerLength();
+        final int trailerLength = frameCodec.trailerLength();
+        final OutboundMessage[] batch = mBatch;
+        final PooledByteBuffer[] pooled = mPooled;
+        final ByteBuffer[] frames = mFrames;
+        final int[] seqs = mSeqs;
+        final long[] queuedAt = mQueuedAt;
+        final ReliableWindow reliableWindow = mReliableWindow;
+        final Pipeline pipeline = mPipeline;
+        final PipelineContext context = mPipelineContext;
+        int count = 0;
+        int frameCount = 0;
+        int bytes = 0;
+        int reserved = 0;
+        final PendingQueue pendingQueue = mPendingMessage;
+        // the journal records of the previous batch have been written
+        pendingQueue.recycle();
+        boolean replaying = !pendingQueue.isEmpty();
+        byte[] open = reliableWindow != null ? reliableWindow.takeOpen() : null;
+        OutboundMessage message;
+        while (count < mMaxBatchMessages && bytes < mMaxBatchBytes) {
+            context.setCompressed(false);
+            int seq = 0;
+            long queued = 0;
+            ByteBuffer payload;
+            if (open != null) {
+                // the stream is opened before anything of it is written
+                message = OutboundMessage.control(open, FrameFlags.RELIABLE);
+                payload = message.payload();
+                open = null;
+            } else if (reliableWindow != null && reliableWindow.hasRetransmit()) {
+                seq = reliableWindow.retransmitSeq();
+                message = reliableWindow.nextRetransmit();
+                payload = pipeline.outbound(context, message.payload());
+                if (payload == null) {
+                    // still acked by the server, now without content
+                    payload = EMPTY;
+                }
+            } else if (reliableWindow != null && !reliableWindow.hasRoom()) {
+                // the rest waits for acks, together with the control frames behind it
+                break;
+            } else {
+                message = replaying ? pendingQueue.poll() : null;
+                if (message == null && mOffline && !goOnline(pendingQueue)) {
+                    replaying = true;
+                    continue;
+                }
+                if (message == null) {
+                    // the pending messages are older than anything queued meanwhile
+                    replaying = false;
+                    message = mOutbound.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    reserved += message.length();
+                    queued = message.queuedAt();
+                }
+                payload = message.payload();
+                if (!message.isControl()) {
+                    payload = pipeline.outbound(context, payload);
+                    if (payload == null) {
+                        // dropped by a stage
+                        message.complete(false);
+                        continue;
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Bundle bundle = msg.peekData();
-                    if (bundle != null) {
-                        notifyMessageReceiptHandlerHandleMessageFail(bundle.getByteArray(RAW_MSG));
+                    if (reliableWindow != null) {
+                        message = message.retain();
+                        seq = reliableWindow.add(message);
                     }
                 }
             }
+            batch[count] = message;
+            seqs[count] = seq;
+            queuedAt[count] = queued;
+            final int dataHeaderLength = seq != 0 ? ReliableFrame.DATA_HEADER_LENGTH : 0;
+            int flags = seq != 0 ? FrameFlags.RELIABLE : message.flags();
+            if (context.isCompressed()) {
+                flags |= FrameFlags.COMPRESSED;
+            }
+            final int payloadLength = payload.remaining();
+            if (payload.isDirect() && payloadLength >= ZERO_COPY_THRESHOLD) {
+                // only header and trailer are encoded, the payload is written from where it is
+                PooledByteBuffer frame = mPool.acquire(headerLength + dataHeaderLength + trailerLength);
+                ByteBuffer byteBuffer = frame.buffer();
+                frameCodec.writeHeader(byteBuffer, dataHeaderLength + payloadLength, flags);
+                if (seq != 0) {
+                    ReliableFrame.writeDataHeader(byteBuffer, seq);
+                }
+                final int headerEnd = byteBuffer.position();
+                frameCodec.writeTrailer(byteBuffer);
+                if (headerEnd > 0) {
+                    ByteBuffer header = byteBuffer.duplicate();
+                    header.limit(headerEnd).position(0);
+                    frames[frameCount++] = header;
+                }
+                frames[frameCount++] = payload;
+                if (trailerLength > 0) {
+                    ByteBuffer trailer = byteBuffer.duplicate();
+                    trailer.limit(byteBuffer.position()).position(headerEnd);
+                    frames[frameCount++] = trailer;
+                }
+                pooled[count] = frame;
+            } else {
+                // heap bytes are copied once by any channel write, so encode them straight
+                // into pooled direct memory instead
+                PooledByteBuffer frame = mPool.acquire(headerLength + dataHeaderLength + payloadLength + trailerLength);
+                ByteBuffer byteBuffer = frame.buffer();
+                frameCodec.writeHeader(byteBuffer, dataHeaderLength + payloadLength, flags);
+                if (seq != 0) {
+                    ReliableFrame.writeDataHeader(byteBuffer, seq);
+                }
+                byteBuffer.put(payload);
+                frameCodec.writeTrailer(byteBuffer);
+                byteBuffer.flip();
+                pooled[count] = frame;
+                frames[frameCount++] = byteBuffer;
+            }
+            bytes += headerLength + dataHeaderLength + payloadLength + trailerLength;
+            count++;
+        }
+        if (count == 0) {
+            outboundBuffer.release(reserved);
+            context.release();
+            return true;
+        }
+        boolean backedUp = false;
+        boolean success = false;
+        try {
+            // an unwritten tail is copied aside, every caller buffer is free once this returns
+            backedUp = socketChannelClient.writeMessageToServer(frames, 0, frameCount);
+            mLastActiveSendTime = System.currentTimeMillis();
+            success = true;
+            pendingQueue.commit();
+            final ClientMetrics metrics = mMetrics;
+            metrics.onWritten(count, bytes);
+            final long now = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (queuedAt[i] != 0) {
+                    metrics.recordWriteLatency(now - queuedAt[i]);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            for (int i = 0; i < count; i++) {
+                // a reliable message is written again on the next connection, pings and the
+                // open frame are the library's own and never reach the application
+                if (seqs[i] == 0 && !batch[i].isControl()) {
+                    notifyMessageReceiptHandlerHandleMessageFail(batch[i].toByteArray());
+                }
+            }
+        } finally {
+            outboundBuffer.release(reserved);
+            for (int i = 0; i < count; i++) {
+                pooled[i].release();
+            }
+            context.release();
+            for (int i = 0; i < count; i++) {
+                // a reliable message completes once it was acked
+                if (seqs[i] == 0) {
+                    batch[i].complete(success);
+                }
+            }
+            Arrays.fill(batch, 0, count, null);
+            Arrays.fill(pooled, 0, count, null);
+            Arrays.fill(frames, 0, frameCount, null);
         }
+        return !backedUp;
     }
 }
@@ -0,0 +1,32 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * payload of a compressed message, sent with {@link FrameFlags#COMPRESSED}:
+ * <pre>
+ * dictionary id (1) | original length (4) | raw deflate data
+ * </pre>
+ * every frame is deflated on its own, so frames can be dropped or reordered by the layers
+ * around them.
+ */
+public final class CompressedFrame {
+    public static final int HEADER_LENGTH = 5;
+    public static final int MAX_DICTIONARIES = 255;
+    private static final int LENGTH_OFFSET = 1;
+
+    private CompressedFrame() {
+    }
+
+    public static int dictionaryId(ByteBuffer payload) {
+        return payload.get(payload.position()) & 0xFF;
+    }
+
+    public static int originalLength(ByteBuffer payload) {
+        return payload.getInt(payload.position() + LENGTH_OFFSET);
+    }
+
+    static void writeHeader(byte[] dst, int dictionaryId, int originalLength) {
+        ByteBuffer.wrap(dst).put((byte) dictionaryId).putInt(originalLength);
+    }
+}
@@ -0,0 +1,89 @@
+package com.longway.core.codec;
+
+import java.util.zip.Deflater;
+
+/**
+ * settings of the payload compression, shared by every connection that uses them. a payload
+ * from the threshold on is deflated into a frame flagged as compressed, smaller ones and those
+ * that do not shrink are sent as they are, so tiny messages cost no CPU.
+ * <p>
+ * preset dictionaries hold what most payloads have in common, field names of repetitive JSON
+ * for instance, so even a short payload compresses well. dictionary i has the id i + 1 and
+ * the last one is used to compress. both sides must know every dictionary still in use by the
+ * other one, new dictionaries are only ever appended.
+ */
+public final class Compression {
+    public static final int DEFAULT_THRESHOLD = 256;
+    private final int mThreshold;
+    private final int mLevel;
+    private final int mMaxLength;
+    private final byte[][] mDictionaries;
+
+    /**
+     * @param threshold smallest payload compressed, in bytes
+     */
+    public Compression(int threshold, byte[]... dictionaries) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION, LengthFieldFrameCodec.DEFAULT_MAX_FRAME_LENGTH, dictionaries);
+    }
+
+    /**
+     * @param level     0 to 9 of {@link Deflater}, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxLength largest payload accepted after decompression
+     */
+    public Compression(int threshold, int level, int maxLength, byte[]... dictionaries) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be large than 0");
+        }
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("unknown level " + level);
+        }
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be large than 0");
+        }
+        if (dictionaries.length > CompressedFrame.MAX_DICTIONARIES) {
+            throw new IllegalArgumentException("at most " + CompressedFrame.MAX_DICTIONARIES + " dictionaries");
+        }
+        for (byte[] dictionary : dictionaries) {
+            if (dictionary == null || dictionary.length == 0) {
+                throw new IllegalArgumentException("empty dictionary");
+            }
+        }
+        this.mThreshold = threshold;
+        this.mLevel = level;
+        this.mMaxLength = maxLength;
+        this.mDictionaries = dictionaries.clone();
+    }
+
+    /**
+     * @return the state of one connection, used by a single thread
+     */
+    public Compressor newCompressor() {
+        return new Compressor(this);
+    }
+
+    int getThreshold() {
+        return mThreshold;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * @return the dictionary used to compress, 0 without one
+     */
+    int getDictionaryId() {
+        return mDictionaries.length;
+    }
+
+    /**
+     * @return null for an unknown id
+     */
+    byte[] getDictionary(int id) {
+        return id > 0 && id <= mDictionaries.length ? mDictionaries[id - 1] : null;
+    }
+}
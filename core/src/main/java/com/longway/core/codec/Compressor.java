@@ -0,0 +1,166 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * compresses and decompresses the payloads of one connection, see {@link CompressedFrame}.
+ * the {@link Deflater} and {@link Inflater} are created on first use and reset for every
+ * payload, their native memory is only allocated once per connection. not thread safe.
+ */
+public final class Compressor {
+    private final Compression mCompression;
+    private Deflater mDeflater;
+    private Inflater mInflater;
+    private byte[] mInput = new byte[0];
+    private byte[] mCompressed = new byte[0];
+    private byte[] mDecompressed = new byte[0];
+    /**
+     * what the calls return, wrapped once per array
+     */
+    private ByteBuffer mCompressedView = ByteBuffer.wrap(mCompressed);
+    private ByteBuffer mDecompressedView = ByteBuffer.wrap(mDecompressed);
+
+    Compressor(Compression compression) {
+        this.mCompression = compression;
+    }
+
+    /**
+     * @param payload between position and limit, neither of them is changed
+     * @return a compressed frame valid until the next call, or null when {@code payload} is
+     * below the threshold or would not shrink
+     */
+    public ByteBuffer compress(ByteBuffer payload) {
+        final int length = payload.remaining();
+        if (length < mCompression.getThreshold()) {
+            return null;
+        }
+        final byte[] input;
+        final int offset;
+        if (payload.hasArray()) {
+            input = payload.array();
+            offset = payload.arrayOffset() + payload.position();
+        } else {
+            if (mInput.length < length) {
+                mInput = new byte[length];
+            }
+            payload.duplicate().get(mInput, 0, length);
+            input = mInput;
+            offset = 0;
+        }
+        Deflater deflater = mDeflater;
+        if (deflater == null) {
+            deflater = mDeflater = new Deflater(mCompression.getLevel(), true);
+        } else {
+            deflater.reset();
+        }
+        final int dictionaryId = mCompression.getDictionaryId();
+        if (dictionaryId != 0) {
+            deflater.setDictionary(mCompression.getDictionary(dictionaryId));
+        }
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        // only worth it when the whole frame is smaller than the payload
+        if (mCompressed.length < length) {
+            mCompressed = new byte[length];
+            mCompressedView = ByteBuffer.wrap(mCompressed);
+        }
+        final byte[] compressed = mCompressed;
+        int size = CompressedFrame.HEADER_LENGTH;
+        while (!deflater.finished() && size < length) {
+            size += deflater.deflate(compressed, size, length - size);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        CompressedFrame.writeHeader(compressed, dictionaryId, length);
+        mCompressedView.limit(size).position(0);
+        return mCompressedView;
+    }
+
+    /**
+     * @param frame a {@link CompressedFrame}, consumed
+     * @return the original payload, valid until the next call
+     * @throws FrameException when the frame is corrupt, uses an unknown dictionary or
+     *                        exceeds the largest length allowed
+     */
+    public ByteBuffer decompress(ByteBuffer frame) throws FrameException {
+        if (frame.remaining() <= CompressedFrame.HEADER_LENGTH) {
+            throw new FrameException("compressed frame of " + frame.remaining() + " bytes is truncated");
+        }
+        final int length = CompressedFrame.originalLength(frame);
+        if (length <= 0 || length > mCompression.getMaxLength()) {
+            throw new FrameException("compressed frame of " + length + " bytes");
+        }
+        final int dictionaryId = CompressedFrame.dictionaryId(frame);
+        final byte[] dictionary = mCompression.getDictionary(dictionaryId);
+        if (dictionaryId != 0 && dictionary == null) {
+            throw new FrameException("unknown dictionary " + dictionaryId);
+        }
+        frame.position(frame.position() + CompressedFrame.HEADER_LENGTH);
+        final int compressedLength = frame.remaining();
+        final byte[] input;
+        final int offset;
+        if (frame.hasArray()) {
+            input = frame.array();
+            offset = frame.arrayOffset() + frame.position();
+        } else {
+            if (mInput.length < compressedLength) {
+                mInput = new byte[compressedLength];
+            }
+            frame.duplicate().get(mInput, 0, compressedLength);
+            input = mInput;
+            offset = 0;
+        }
+        frame.position(frame.limit());
+        Inflater inflater = mInflater;
+        if (inflater == null) {
+            inflater = mInflater = new Inflater(true);
+        } else {
+            inflater.reset();
+        }
+        if (dictionary != null) {
+            // raw streams take the dictionary up front
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(input, offset, compressedLength);
+        if (mDecompressed.length < length) {
+            mDecompressed = new byte[length];
+            mDecompressedView = ByteBuffer.wrap(mDecompressed);
+        }
+        final byte[] decompressed = mDecompressed;
+        int size = 0;
+        try {
+            while (!inflater.finished() && size < length) {
+                final int n = inflater.inflate(decompressed, size, length - size);
+                if (n == 0) {
+                    break;
+                }
+                size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new FrameException("corrupt compressed frame: " + e.getMessage());
+        }
+        if (size != length || !inflater.finished()) {
+            throw new FrameException("compressed frame does not match its length " + length);
+        }
+        mDecompressedView.limit(length).position(0);
+        return mDecompressedView;
+    }
+
+    /**
+     * frees the native memory, the compressor must not be used afterwards
+     */
+    public void end() {
+        if (mDeflater != null) {
+            mDeflater.end();
+            mDeflater = null;
+        }
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+}
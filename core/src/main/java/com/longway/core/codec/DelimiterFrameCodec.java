@@ -0,0 +1,60 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * every frame is terminated by a delimiter, the payload must not contain it. there is no room
+ * for {@link FrameFlags}, so heartbeats, reliable delivery and compression are not available.
+ */
+public class DelimiterFrameCodec implements FrameCodec {
+    private static final byte[] LINE_DELIMITER = {'\n'};
+    private final byte[] mDelimiter;
+    private final int mMaxFrameLength;
+
+    public DelimiterFrameCodec() {
+        this(LINE_DELIMITER, LengthFieldFrameCodec.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public DelimiterFrameCodec(byte[] delimiter, int maxFrameLength) {
+        if (delimiter == null || delimiter.length == 0) {
+            throw new NullPointerException("delimiter==null");
+        }
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be large than 0");
+        }
+        this.mDelimiter = delimiter.clone();
+        this.mMaxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public FrameDecoder newDecoder() {
+        return new DelimiterFrameDecoder(mDelimiter, mMaxFrameLength);
+    }
+
+    @Override
+    public int headerLength() {
+        return 0;
+    }
+
+    @Override
+    public int trailerLength() {
+        return mDelimiter.length;
+    }
+
+    @Override
+    public boolean supportsFlags() {
+        return false;
+    }
+
+    @Override
+    public void writeHeader(ByteBuffer dst, int payloadLength, int flags) {
+        if (flags != FrameFlags.NONE) {
+            throw new IllegalArgumentException("flags are not supported by delimited frames");
+        }
+    }
+
+    @Override
+    public void writeTrailer(ByteBuffer dst) {
+        dst.put(mDelimiter);
+    }
+}
@@ -0,0 +1,56 @@
+package com.longway.core.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class DelimiterFrameDecoder extends FrameDecoder {
+    private final byte[] mDelimiter;
+    private final int mMaxFrameLength;
+    /**
+     * bytes of the current frame already searched, so a partial frame is not scanned twice
+     */
+    private int mScanned;
+
+    public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength) {
+        super(maxFrameLength + delimiter.length);
+        this.mDelimiter = delimiter;
+        this.mMaxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException {
+        final byte[] delimiter = mDelimiter;
+        final int start = in.position();
+        final int last = in.limit() - delimiter.length;
+        for (int i = start + mScanned; i <= last; i++) {
+            if (matches(in, i, delimiter)) {
+                if (i - start > mMaxFrameLength) {
+                    throw new FrameException("frame length exceeds " + mMaxFrameLength);
+                }
+                mScanned = 0;
+                fireFrame(in, start, i, i + delimiter.length, FrameFlags.NONE, handler);
+                return true;
+            }
+        }
+        mScanned = Math.max(0, last + 1 - start);
+        if (mScanned > mMaxFrameLength) {
+            throw new FrameException("frame length exceeds " + mMaxFrameLength);
+        }
+        return false;
+    }
+
+    private static boolean matches(ByteBuffer in, int index, byte[] delimiter) {
+        for (int i = 0; i < delimiter.length; i++) {
+            if (in.get(index + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mScanned = 0;
+    }
+}
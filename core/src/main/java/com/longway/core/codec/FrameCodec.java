@@ -0,0 +1,31 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * wire format of a frame. implementations must be stateless, the per connection
+ * state lives in the {@link FrameDecoder} created by {@link #newDecoder()}.
+ */
+public interface FrameCodec {
+    /**
+     * @return a new decoder, one per connection
+     */
+    FrameDecoder newDecoder();
+
+    int headerLength();
+
+    int trailerLength();
+
+    /**
+     * @return true when the header carries {@link FrameFlags}, the control frames of the
+     * library can only be sent with a codec that does
+     */
+    boolean supportsFlags();
+
+    /**
+     * @param flags bits of {@link FrameFlags}, must be 0 unless {@link #supportsFlags()}
+     */
+    void writeHeader(ByteBuffer dst, int payloadLength, int flags);
+
+    void writeTrailer(ByteBuffer dst);
+}
@@ -0,0 +1,146 @@
+package com.longway.core.codec;
+
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * splits a byte stream into frames. bytes of an incomplete frame are kept in an
+ * accumulation buffer across reads, the buffer only grows when a frame does not fit.
+ * the buffer comes from {@link ByteBufferPool} and goes back as soon as no partial frame
+ * is left, so idle connections hold no memory.
+ */
+public abstract class FrameDecoder {
+    private static final int INITIAL_CAPACITY = 4096;
+    private final int mMaxCapacity;
+    private final ByteBufferPool mPool = ByteBufferPool.getDefault();
+    private PooledByteBuffer mPooled;
+    private ByteBuffer mCumulation;
+
+    /**
+     * @param maxCapacity largest frame including header and trailer
+     */
+    protected FrameDecoder(int maxCapacity) {
+        if (maxCapacity <= 0) {
+            throw new IllegalArgumentException("maxCapacity must be large than 0");
+        }
+        this.mMaxCapacity = maxCapacity;
+    }
+
+    /**
+     * reads everything available on the channel and dispatches every complete frame.
+     *
+     * @return bytes read, or -1 when the channel reached end of stream
+     */
+    public int readFrom(ReadableByteChannel channel, FrameHandler handler) throws IOException {
+        int total = 0;
+        int len;
+        while (true) {
+            ensureWritable();
+            len = channel.read(mCumulation);
+            if (len <= 0) {
+                break;
+            }
+            total += len;
+            drain(handler);
+        }
+        releaseIfEmpty();
+        return len < 0 ? -1 : total;
+    }
+
+    /**
+     * feeds bytes which have already been read, the position of {@code in} is advanced
+     * to its limit.
+     */
+    public void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        while (in.hasRemaining()) {
+            ensureWritable();
+            ByteBuffer cumulation = mCumulation;
+            int len = Math.min(in.remaining(), cumulation.remaining());
+            int limit = in.limit();
+            in.limit(in.position() + len);
+            cumulation.put(in);
+            in.limit(limit);
+            drain(handler);
+        }
+        releaseIfEmpty();
+    }
+
+    /**
+     * drops the bytes of an incomplete frame and returns the buffer to the pool, called
+     * when the connection is replaced or closed.
+     */
+    public void reset() {
+        if (mPooled != null) {
+            mPooled.release();
+            mPooled = null;
+            mCumulation = null;
+        }
+    }
+
+    private void releaseIfEmpty() {
+        if (mCumulation != null && mCumulation.position() == 0) {
+            reset();
+        }
+    }
+
+    private void drain(FrameHandler handler) throws IOException {
+        ByteBuffer cumulation = mCumulation;
+        cumulation.flip();
+        while (cumulation.hasRemaining() && decodeFrame(cumulation, handler)) {
+            // next frame
+        }
+        if (cumulation.hasRemaining()) {
+            cumulation.compact();
+        } else {
+            cumulation.clear();
+        }
+    }
+
+    private void ensureWritable() throws FrameException {
+        ByteBuffer cumulation = mCumulation;
+        if (cumulation == null) {
+            mPooled = mPool.acquire(Math.min(INITIAL_CAPACITY, mMaxCapacity));
+            mCumulation = mPooled.buffer();
+            return;
+        }
+        if (cumulation.hasRemaining()) {
+            return;
+        }
+        final int capacity = cumulation.capacity();
+        if (capacity >= mMaxCapacity) {
+            throw new FrameException("frame length exceeds " + mMaxCapacity);
+        }
+        PooledByteBuffer grown = mPool.acquire((int) Math.min((long) capacity << 1, mMaxCapacity));
+        cumulation.flip();
+        grown.buffer().put(cumulation);
+        mPooled.release();
+        mPooled = grown;
+        mCumulation = grown.buffer();
+    }
+
+    /**
+     * hands {@code in[start, end)} and its flags to the handler and moves the position to
+     * {@code next}.
+     */
+    protected final void fireFrame(ByteBuffer in, int start, int end, int next, int flags, FrameHandler handler) {
+        final int limit = in.limit();
+        in.limit(end);
+        in.position(start);
+        try {
+            handler.onFrame(in, flags);
+        } finally {
+            in.limit(limit);
+            in.position(next);
+        }
+    }
+
+    /**
+     * @param in bytes in read mode starting at a frame boundary
+     * @return true when one frame was consumed, false when more bytes are needed
+     */
+    protected abstract boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException;
+}
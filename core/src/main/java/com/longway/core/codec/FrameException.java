@@ -0,0 +1,15 @@
+package com.longway.core.codec;
+
+import java.io.IOException;
+
+/**
+ * thrown when the inbound byte stream can not be split into frames any more,
+ * the connection should be closed.
+ */
+public class FrameException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public FrameException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,29 @@
+package com.longway.core.codec;
+
+/**
+ * bits of the flags a {@link FrameCodec} writes into the header of a frame. they tell the
+ * control frames of the library apart from application messages, the payload is never
+ * looked at for that. a message is sent without flags.
+ */
+public final class FrameFlags {
+    public static final int NONE = 0;
+    /**
+     * the payload is a {@link HeartbeatFrame}
+     */
+    public static final int HEARTBEAT = 1;
+    /**
+     * the payload is a {@link ReliableFrame}
+     */
+    public static final int RELIABLE = 2;
+    /**
+     * the message is a {@link CompressedFrame}, a reliable one behind its data header
+     */
+    public static final int COMPRESSED = 4;
+    /**
+     * every bit a decoder accepts, a frame with any other is rejected
+     */
+    static final int ALL = HEARTBEAT | RELIABLE | COMPRESSED;
+
+    private FrameFlags() {
+    }
+}
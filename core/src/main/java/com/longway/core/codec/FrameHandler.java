@@ -0,0 +1,12 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+public interface FrameHandler {
+    /**
+     * @param frame payload of one complete frame between position and limit, only valid
+     *              during the call, copy it out if it must be kept
+     * @param flags bits of {@link FrameFlags} the frame was sent with, 0 for a message
+     */
+    void onFrame(ByteBuffer frame, int flags);
+}
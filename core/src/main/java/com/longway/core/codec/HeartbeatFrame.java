@@ -0,0 +1,61 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * payload of the heartbeat control frames, sent with {@link FrameFlags#HEARTBEAT}:
+ * <pre>
+ * type (1) | sequence (4) | timestamp (8)
+ * </pre>
+ * a peer answers a ping with a pong carrying the same sequence and timestamp, so the pinging
+ * side gets the round trip from its own clock. heartbeat frames never reach message handlers.
+ */
+public final class HeartbeatFrame {
+    public static final int LENGTH = 13;
+    public static final byte PING = 1;
+    public static final byte PONG = 2;
+    private static final int SEQUENCE_OFFSET = 1;
+    private static final int TIMESTAMP_OFFSET = 5;
+
+    private HeartbeatFrame() {
+    }
+
+    /**
+     * @param payload of a frame flagged as heartbeat, between position and limit, neither of
+     *                them is changed
+     * @return the type of a well formed heartbeat, 0 otherwise
+     */
+    public static byte type(ByteBuffer payload) {
+        if (payload.remaining() != LENGTH) {
+            return 0;
+        }
+        final byte type = payload.get(payload.position());
+        return type == PING || type == PONG ? type : 0;
+    }
+
+    public static int sequence(ByteBuffer payload) {
+        return payload.getInt(payload.position() + SEQUENCE_OFFSET);
+    }
+
+    public static long timestamp(ByteBuffer payload) {
+        return payload.getLong(payload.position() + TIMESTAMP_OFFSET);
+    }
+
+    public static byte[] ping(int sequence, long timestamp) {
+        byte[] ping = new byte[LENGTH];
+        write(ByteBuffer.wrap(ping), PING, sequence, timestamp);
+        return ping;
+    }
+
+    /**
+     * writes the answer to {@code ping} into {@code dst}, the position of {@code ping} is
+     * not changed
+     */
+    public static void writePong(ByteBuffer dst, ByteBuffer ping) {
+        write(dst, PONG, sequence(ping), timestamp(ping));
+    }
+
+    private static void write(ByteBuffer dst, byte type, int sequence, long timestamp) {
+        dst.put(type).putInt(sequence).putLong(timestamp);
+    }
+}
@@ -0,0 +1,75 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * every frame is prefixed with its payload length as a big-endian unsigned short
+ * or int, followed by one byte of {@link FrameFlags}.
+ */
+public class LengthFieldFrameCodec implements FrameCodec {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+    private final int mLengthFieldLength;
+    private final int mMaxFrameLength;
+
+    public LengthFieldFrameCodec() {
+        this(4, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * @param lengthFieldLength 2 or 4 bytes
+     * @param maxFrameLength    largest payload accepted by the decoder
+     */
+    public LengthFieldFrameCodec(int lengthFieldLength, int maxFrameLength) {
+        if (lengthFieldLength != 2 && lengthFieldLength != 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 2 or 4");
+        }
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be large than 0");
+        }
+        if (lengthFieldLength == 2 && maxFrameLength > 0xFFFF) {
+            maxFrameLength = 0xFFFF;
+        }
+        this.mLengthFieldLength = lengthFieldLength;
+        this.mMaxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public FrameDecoder newDecoder() {
+        return new LengthFieldFrameDecoder(mLengthFieldLength, mMaxFrameLength);
+    }
+
+    @Override
+    public int headerLength() {
+        return mLengthFieldLength + 1;
+    }
+
+    @Override
+    public int trailerLength() {
+        return 0;
+    }
+
+    @Override
+    public boolean supportsFlags() {
+        return true;
+    }
+
+    @Override
+    public void writeHeader(ByteBuffer dst, int payloadLength, int flags) {
+        if (payloadLength > mMaxFrameLength) {
+            throw new IllegalArgumentException("payloadLength must be less than equals " + mMaxFrameLength);
+        }
+        if ((flags & ~FrameFlags.ALL) != 0) {
+            throw new IllegalArgumentException("unknown flags:" + flags);
+        }
+        if (mLengthFieldLength == 2) {
+            dst.putShort((short) payloadLength);
+        } else {
+            dst.putInt(payloadLength);
+        }
+        dst.put((byte) flags);
+    }
+
+    @Override
+    public void writeTrailer(ByteBuffer dst) {
+    }
+}
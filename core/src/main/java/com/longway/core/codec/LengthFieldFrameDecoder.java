@@ -0,0 +1,39 @@
+package com.longway.core.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class LengthFieldFrameDecoder extends FrameDecoder {
+    private final int mLengthFieldLength;
+    private final int mMaxFrameLength;
+
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength) {
+        super(lengthFieldLength + 1 + maxFrameLength);
+        this.mLengthFieldLength = lengthFieldLength;
+        this.mMaxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException {
+        final int lengthFieldLength = mLengthFieldLength;
+        final int headerLength = lengthFieldLength + 1;
+        if (in.remaining() < headerLength) {
+            return false;
+        }
+        final int start = in.position();
+        final int length = lengthFieldLength == 2 ? in.getShort(start) & 0xFFFF : in.getInt(start);
+        if (length < 0 || length > mMaxFrameLength) {
+            throw new FrameException("illegal frame length:" + length);
+        }
+        final int flags = in.get(start + lengthFieldLength) & 0xFF;
+        if ((flags & ~FrameFlags.ALL) != 0) {
+            throw new FrameException("illegal frame flags:" + flags);
+        }
+        if (in.remaining() < headerLength + length) {
+            return false;
+        }
+        final int end = start + headerLength + length;
+        fireFrame(in, start + headerLength, end, end, flags, handler);
+        return true;
+    }
+}
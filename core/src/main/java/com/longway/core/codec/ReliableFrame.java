@@ -0,0 +1,76 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * payloads of the optional reliable delivery from client to server, sent with
+ * {@link FrameFlags#RELIABLE}:
+ * <pre>
+ * data:  1 | sequence (4) | message
+ * ack:   2 | sequence (4)
+ * open:  3 | stream id (8)
+ * </pre>
+ * sequences belong to a stream, which outlives its connections: a client opens its stream on
+ * every connection and retransmits what was not acked, the server delivers each sequence once
+ * and in order. an ack covers every sequence up to its own.
+ */
+public final class ReliableFrame {
+    public static final int DATA_HEADER_LENGTH = 5;
+    public static final int ACK_LENGTH = 5;
+    public static final int OPEN_LENGTH = 9;
+    public static final byte DATA = 1;
+    public static final byte ACK = 2;
+    public static final byte OPEN = 3;
+    private static final int FIELD_OFFSET = 1;
+
+    private ReliableFrame() {
+    }
+
+    /**
+     * @param payload of a frame flagged as reliable, between position and limit, neither of
+     *                them is changed
+     * @return the type of a well formed reliable frame, 0 otherwise
+     */
+    public static byte type(ByteBuffer payload) {
+        final int remaining = payload.remaining();
+        if (remaining < DATA_HEADER_LENGTH) {
+            return 0;
+        }
+        final byte type = payload.get(payload.position());
+        switch (type) {
+            case DATA:
+                return type;
+            case ACK:
+                return remaining == ACK_LENGTH ? type : 0;
+            case OPEN:
+                return remaining == OPEN_LENGTH ? type : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the sequence of a data or ack frame
+     */
+    public static int sequence(ByteBuffer payload) {
+        return payload.getInt(payload.position() + FIELD_OFFSET);
+    }
+
+    public static long streamId(ByteBuffer payload) {
+        return payload.getLong(payload.position() + FIELD_OFFSET);
+    }
+
+    public static void writeDataHeader(ByteBuffer dst, int sequence) {
+        dst.put(DATA).putInt(sequence);
+    }
+
+    public static void writeAck(ByteBuffer dst, int sequence) {
+        dst.put(ACK).putInt(sequence);
+    }
+
+    public static byte[] open(long streamId) {
+        byte[] open = new byte[OPEN_LENGTH];
+        ByteBuffer.wrap(open).put(OPEN).putLong(streamId);
+        return open;
+    }
+}
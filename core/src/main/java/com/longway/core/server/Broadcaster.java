@@ -0,0 +1,26 @@
+package com.longway.core.server;
+
+import com.longway.core.buffer.PooledByteBuffer;
+
+/**
+ * fans an encoded frame out to every session. each {@link WorkerLoop} gets one reference
+ * of the shared buffer and queues it to its own sessions, so the cost per recipient is a
+ * reference count and no copy or allocation.
+ */
+public class Broadcaster {
+    private volatile WorkerLoop[] mWorkers = new WorkerLoop[0];
+
+    void setWorkers(WorkerLoop[] workers) {
+        this.mWorkers = workers;
+    }
+
+    /**
+     * the caller keeps its own reference of {@code frame} and releases it as usual
+     */
+    public void broadcast(PooledByteBuffer frame) {
+        WorkerLoop[] workers = mWorkers;
+        for (WorkerLoop worker : workers) {
+            worker.enqueueBroadcast(frame.retain());
+        }
+    }
+}
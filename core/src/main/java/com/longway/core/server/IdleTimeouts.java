@@ -0,0 +1,65 @@
+package com.longway.core.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reader, writer and all idle timeouts of the sessions, immutable so a {@link WorkerLoop}
+ * picks a change up by comparing references. a timeout of 0 disables that check.
+ */
+final class IdleTimeouts {
+    private static final long NONE = Long.MAX_VALUE;
+    private final long mReaderIdle;
+    private final long mWriterIdle;
+    private final long mAllIdle;
+
+    /**
+     * @param readerIdle milliseconds without a read
+     * @param writerIdle milliseconds without a write
+     * @param allIdle    milliseconds without a read or a write
+     */
+    IdleTimeouts(long readerIdle, long writerIdle, long allIdle) {
+        if (readerIdle < 0 || writerIdle < 0 || allIdle < 0) {
+            throw new IllegalArgumentException("idle timeouts must be large than equals 0");
+        }
+        this.mReaderIdle = TimeUnit.MILLISECONDS.toNanos(readerIdle);
+        this.mWriterIdle = TimeUnit.MILLISECONDS.toNanos(writerIdle);
+        this.mAllIdle = TimeUnit.MILLISECONDS.toNanos(allIdle);
+    }
+
+    boolean isEnabled() {
+        return mReaderIdle > 0 || mWriterIdle > 0 || mAllIdle > 0;
+    }
+
+    /**
+     * @return the earliest {@link System#nanoTime()} at which {@code session} turns idle
+     */
+    long nextDeadline(Session session) {
+        long deadline = NONE;
+        if (mReaderIdle > 0) {
+            deadline = Math.min(deadline, session.mLastReadTime + mReaderIdle);
+        }
+        if (mWriterIdle > 0) {
+            deadline = Math.min(deadline, session.mLastWriteTime + mWriterIdle);
+        }
+        if (mAllIdle > 0) {
+            deadline = Math.min(deadline, Math.max(session.mLastReadTime, session.mLastWriteTime) + mAllIdle);
+        }
+        return deadline;
+    }
+
+    /**
+     * @return what the session is idle for at {@code now}, null while it is not
+     */
+    String idleState(Session session, long now) {
+        if (mReaderIdle > 0 && now - session.mLastReadTime >= mReaderIdle) {
+            return "reader idle";
+        }
+        if (mWriterIdle > 0 && now - session.mLastWriteTime >= mWriterIdle) {
+            return "writer idle";
+        }
+        if (mAllIdle > 0 && now - Math.max(session.mLastReadTime, session.mLastWriteTime) >= mAllIdle) {
+            return "all idle";
+        }
+        return null;
+    }
+}
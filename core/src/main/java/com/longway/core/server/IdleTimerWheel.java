@@ -0,0 +1,116 @@
+package com.longway.core.server;
+
+/**
+ * hashed timer wheel of the idle checks of one {@link WorkerLoop}, only used by its thread.
+ * sessions are linked into their bucket directly, so scheduling and removal are O(1) without
+ * allocating, and each tick only walks one bucket. a deadline further away than one turn of
+ * the wheel stays in its bucket until the tick it is due at comes round.
+ */
+class IdleTimerWheel {
+    interface Handler {
+        /**
+         * the session is no longer in the wheel and may be scheduled again
+         */
+        void onExpired(Session session, long now);
+    }
+
+    private static final long NOT_SCHEDULED = -1;
+    private final Session[] mBuckets;
+    private final int mMask;
+    private final long mTickNanos;
+    private final long mStartTime;
+    /**
+     * last tick whose bucket has been walked
+     */
+    private long mTick;
+    private int mSize;
+
+    /**
+     * @param tickNanos  resolution of the deadlines
+     * @param bucketSize rounded up to a power of two
+     */
+    IdleTimerWheel(long tickNanos, int bucketSize, long now) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be large than 0");
+        }
+        int size = Integer.highestOneBit(Math.max(1, bucketSize - 1)) << 1;
+        this.mBuckets = new Session[size];
+        this.mMask = size - 1;
+        this.mTickNanos = tickNanos;
+        this.mStartTime = now;
+    }
+
+    long tickNanos() {
+        return mTickNanos;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * (re)schedules {@code session} to expire at {@code deadline}, rounded up to the next tick
+     */
+    void schedule(Session session, long deadline) {
+        remove(session);
+        long tick = (deadline - mStartTime + mTickNanos - 1) / mTickNanos;
+        // a due deadline fires on the next tick, the current bucket has been walked already
+        tick = Math.max(tick, mTick + 1);
+        Session head = mBuckets[(int) tick & mMask];
+        session.mWheelTick = tick;
+        session.mWheelPrev = null;
+        session.mWheelNext = head;
+        if (head != null) {
+            head.mWheelPrev = session;
+        }
+        mBuckets[(int) tick & mMask] = session;
+        mSize++;
+    }
+
+    void remove(Session session) {
+        if (session.mWheelTick == NOT_SCHEDULED) {
+            return;
+        }
+        Session prev = session.mWheelPrev;
+        Session next = session.mWheelNext;
+        if (prev != null) {
+            prev.mWheelNext = next;
+        } else {
+            mBuckets[(int) session.mWheelTick & mMask] = next;
+        }
+        if (next != null) {
+            next.mWheelPrev = prev;
+        }
+        session.mWheelPrev = null;
+        session.mWheelNext = null;
+        session.mWheelTick = NOT_SCHEDULED;
+        mSize--;
+    }
+
+    /**
+     * walks the buckets of every tick passed since the last call, at most one turn of the
+     * wheel however long the loop has been away
+     */
+    void expire(long now, Handler handler) {
+        final long target = (now - mStartTime) / mTickNanos;
+        final long from = mTick;
+        if (target <= from) {
+            return;
+        }
+        // moved first, whatever the handler schedules lands after this walk
+        mTick = target;
+        final long steps = Math.min(target - from, mBuckets.length);
+        for (long i = 1; i <= steps; i++) {
+            Session session = mBuckets[(int) (from + i) & mMask];
+            while (session != null) {
+                // the handler may put the session back, even into this bucket
+                Session next = session.mWheelNext;
+                if (session.mWheelTick <= target) {
+                    remove(session);
+                    handler.onExpired(session, now);
+                }
+                session = next;
+            }
+        }
+    }
+}
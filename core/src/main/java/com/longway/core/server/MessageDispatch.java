@@ -0,0 +1,40 @@
+package com.longway.core.server;
+
+import com.longway.core.util.SerialExecutor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * the handler of the messages of the clients and where it runs, immutable so a session picks
+ * a change up by comparing references.
+ */
+final class MessageDispatch {
+    private final SessionMessageHandler mHandler;
+    private final Executor mExecutor;
+
+    /**
+     * @param executor null runs the handler on the loop thread
+     */
+    MessageDispatch(SessionMessageHandler handler, Executor executor) {
+        if (handler == null) {
+            throw new NullPointerException("handler==null.");
+        }
+        this.mHandler = handler;
+        this.mExecutor = executor;
+    }
+
+    SessionMessageHandler handler() {
+        return mHandler;
+    }
+
+    boolean isInline() {
+        return mExecutor == null;
+    }
+
+    /**
+     * @return a new queue of one session on the shared executor
+     */
+    SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(mExecutor);
+    }
+}
@@ -1,47 +1,291 @@
 package com.longway.core.server;
 
-import android.util.Log;
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.codec.Compressor;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameException;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.FrameHandler;
+import com.longway.core.codec.HeartbeatFrame;
+import com.longway.core.codec.ReliableFrame;
+import com.longway.core.util.Logger;
+import com.longway.core.util.SerialExecutor;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-public class ReadWorker {
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * one per {@link WorkerLoop}, only used by its thread. every broadcast frame is encoded
+ * once into a pooled direct buffer. heartbeat pings are answered to their session only,
+ * reliable frames are delivered once and in order and left to the loop to ack. with
+ * compression compressed frames are inflated on the way in, and a broadcast is compressed once
+ * for all of its receivers. with a {@link SessionMessageHandler} messages go to it instead of
+ * being broadcast, through a serial queue per session on its executor.
+ */
+public class ReadWorker implements FrameHandler {
     private static final String TAG = ReadWorker.class.getSimpleName();
-    private static final int BUFFER_SIZE = 128;
-    private ByteBuffer mBuf = ByteBuffer.allocate(BUFFER_SIZE);
-    private ByteArrayOutputStream mOS = new ByteArrayOutputStream(BUFFER_SIZE);
-
-    public void readMessage(SocketChannel socketChannel) {
-        ByteBuffer byteBuffer = this.mBuf;
-        ByteArrayOutputStream byteArrayOutputStream = this.mOS;
-        int len;
+    private final FrameCodec mFrameCodec;
+    private final ByteBufferPool mPool = ByteBufferPool.getDefault();
+    private final Broadcaster mBroadcaster;
+    private final WorkerLoop mWorkerLoop;
+    /**
+     * the session being read
+     */
+    private Session mSession;
+    /**
+     * shared by the sessions of the loop, every frame is compressed on its own
+     */
+    private Compressor mCompressor;
+    /**
+     * null broadcasts every message
+     */
+    private volatile MessageDispatch mDispatch;
+    private ServerMetrics mMetrics;
+    /**
+     * frames of the read in progress
+     */
+    private int mFrames;
+
+    public ReadWorker(FrameCodec frameCodec, Broadcaster broadcaster) {
+        this(frameCodec, broadcaster, null);
+    }
+
+    /**
+     * @param workerLoop sends the pongs, without it pings are dropped
+     */
+    ReadWorker(FrameCodec frameCodec, Broadcaster broadcaster, WorkerLoop workerLoop) {
+        if (frameCodec == null) {
+            throw new NullPointerException("frameCodec==null.");
+        }
+        if (broadcaster == null) {
+            throw new NullPointerException("broadcaster==null.");
+        }
+        this.mFrameCodec = frameCodec;
+        this.mBroadcaster = broadcaster;
+        this.mWorkerLoop = workerLoop;
+    }
+
+    /**
+     * called by the loop thread, the previous compressor is freed
+     *
+     * @param compressor null sends and forwards payloads as they are
+     */
+    void setCompressor(Compressor compressor) {
+        final Compressor previous = mCompressor;
+        this.mCompressor = compressor;
+        if (previous != null) {
+            previous.end();
+        }
+    }
+
+    /**
+     * must be set before the first read, null counts nothing
+     */
+    void setMetrics(ServerMetrics metrics) {
+        this.mMetrics = metrics;
+    }
+
+    /**
+     * @param dispatch null broadcasts every message again
+     */
+    void setDispatch(MessageDispatch dispatch) {
+        this.mDispatch = dispatch;
+    }
+
+    /**
+     * frees what the compressor holds, called by the loop thread once it stopped
+     */
+    void release() {
+        final Compressor compressor = mCompressor;
+        if (compressor != null) {
+            compressor.end();
+        }
+    }
+
+    /**
+     * @return false when the peer closed the connection
+     */
+    public boolean readMessage(Session session) throws IOException {
+        mSession = session;
+        mFrames = 0;
+        int read = 0;
         try {
-            while ((len = socketChannel.read(mBuf)) > 0) {
-                byteBuffer.flip();
-                byteArrayOutputStream.write(byteBuffer.array(), 0, len);
+            read = session.getDecoder().readFrom(session.getChannel(), this);
+            return read >= 0;
+        } finally {
+            // the bytes of a read that ended with the close are not known
+            final int bytes = Math.max(read, 0);
+            session.mBytesIn += bytes;
+            session.mMessagesIn += mFrames;
+            final ServerMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onRead(bytes, mFrames);
+            }
+            mSession = null;
+        }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame, int flags) {
+        mFrames++;
+        if ((flags & FrameFlags.HEARTBEAT) != 0) {
+            if (HeartbeatFrame.type(frame) == HeartbeatFrame.PING) {
+                pong(frame);
+            }
+            return;
+        }
+        if ((flags & FrameFlags.RELIABLE) != 0) {
+            switch (ReliableFrame.type(frame)) {
+                case ReliableFrame.OPEN:
+                    open(ReliableFrame.streamId(frame));
+                    return;
+                case ReliableFrame.DATA:
+                    if (!deliver(ReliableFrame.sequence(frame))) {
+                        return;
+                    }
+                    frame.position(frame.position() + ReliableFrame.DATA_HEADER_LENGTH);
+                    if (!frame.hasRemaining()) {
+                        // a message the client dropped after it was sequenced, only acked
+                        return;
+                    }
+                    break;
+                default:
+                    // the server does not send reliably, nothing to ack
+                    return;
+            }
+        }
+        final Compressor compressor = mCompressor;
+        if ((flags & FrameFlags.COMPRESSED) != 0) {
+            if (compressor == null) {
+                Logger.e(TAG, "drop compressed frame, compression is off");
+                return;
+            }
+            try {
+                frame = compressor.decompress(frame);
+            } catch (FrameException e) {
+                Logger.e(TAG, "drop frame:" + e.getMessage());
+                return;
+            }
+        }
+        final MessageDispatch dispatch = mDispatch;
+        if (dispatch != null) {
+            dispatch(dispatch, frame);
+            return;
+        }
+        int broadcastFlags = FrameFlags.NONE;
+        if (compressor != null) {
+            ByteBuffer compressed = compressor.compress(frame);
+            if (compressed != null) {
+                frame = compressed;
+                broadcastFlags = FrameFlags.COMPRESSED;
             }
-            byteArrayOutputStream.flush();
-            String msg = byteArrayOutputStream.toString();
-            Log.d(TAG, msg);
-            broadCastMessage(byteArrayOutputStream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+        final FrameCodec frameCodec = mFrameCodec;
+        final int length = frameCodec.headerLength() + frame.remaining() + frameCodec.trailerLength();
+        PooledByteBuffer pooled = mPool.acquire(length);
+        try {
+            ByteBuffer byteBuffer = pooled.buffer();
+            frameCodec.writeHeader(byteBuffer, frame.remaining(), broadcastFlags);
+            byteBuffer.put(frame);
+            frameCodec.writeTrailer(byteBuffer);
+            byteBuffer.flip();
+            mBroadcaster.broadcast(pooled);
         } finally {
-            byteBuffer.clear();
-            byteArrayOutputStream.reset();
+            pooled.release();
         }
     }
 
-    private void broadCastMessage(byte[] msg) {
-        ArrayList<SocketChannel> sessions = SessionManager.getInstance().getAllSessions();
-        for (SocketChannel session : sessions) {
+    private void dispatch(MessageDispatch dispatch, ByteBuffer frame) {
+        final Session session = mSession;
+        if (session == null) {
+            return;
+        }
+        byte[] message = new byte[frame.remaining()];
+        frame.get(message);
+        if (dispatch.isInline()) {
             try {
-                session.write(ByteBuffer.wrap(msg));
-            } catch (IOException e) {
-                e.printStackTrace();
+                dispatch.handler().onReceiveMessage(session, message);
+            } catch (RuntimeException e) {
+                Logger.w(TAG, "handler failed", e);
             }
+            return;
+        }
+        if (session.mDispatch != dispatch) {
+            // messages queued on the previous executor may still run next to the new ones
+            session.mDispatch = dispatch;
+            session.mDispatcher = dispatch.newSerialExecutor();
+        }
+        try {
+            session.mDispatcher.execute(new Dispatch(dispatch.handler(), session, message));
+        } catch (RejectedExecutionException e) {
+            Logger.w(TAG, "handler executor rejected message", e);
+        }
+    }
+
+    private static final class Dispatch implements Runnable {
+        private final SessionMessageHandler mHandler;
+        private final Session mSession;
+        private final byte[] mMessage;
+
+        Dispatch(SessionMessageHandler handler, Session session, byte[] message) {
+            this.mHandler = handler;
+            this.mSession = session;
+            this.mMessage = message;
+        }
+
+        @Override
+        public void run() {
+            mHandler.onReceiveMessage(mSession, mMessage);
+        }
+    }
+
+    private void open(long streamId) {
+        if (mWorkerLoop == null || mSession == null) {
+            return;
+        }
+        final ReliableStreams.Stream stream = mWorkerLoop.getReliableStreams().open(streamId);
+        final boolean started;
+        synchronized (stream) {
+            stream.mOwner = mSession;
+            started = stream.mStarted;
+        }
+        mSession.mStream = stream;
+        if (started) {
+            // tells the client at once what it does not need to retransmit
+            mWorkerLoop.ack(mSession);
+        }
+    }
+
+    /**
+     * @return true when {@code sequence} is the next one of the stream, a duplicate of a
+     * retransmission is acked again but not delivered
+     */
+    private boolean deliver(int sequence) {
+        final Session session = mSession;
+        if (mWorkerLoop == null || session == null || session.mStream == null) {
+            return false;
+        }
+        final int result = session.mStream.accept(session, sequence);
+        if (result != ReliableStreams.Stream.DROP) {
+            mWorkerLoop.onDelivered(session);
+        }
+        return result == ReliableStreams.Stream.DELIVER;
+    }
+
+    private void pong(ByteBuffer ping) {
+        if (mWorkerLoop == null || mSession == null) {
+            return;
         }
+        final FrameCodec frameCodec = mFrameCodec;
+        PooledByteBuffer pooled = mPool.acquire(
+                frameCodec.headerLength() + HeartbeatFrame.LENGTH + frameCodec.trailerLength());
+        ByteBuffer byteBuffer = pooled.buffer();
+        frameCodec.writeHeader(byteBuffer, HeartbeatFrame.LENGTH, FrameFlags.HEARTBEAT);
+        HeartbeatFrame.writePong(byteBuffer, ping);
+        frameCodec.writeTrailer(byteBuffer);
+        byteBuffer.flip();
+        mWorkerLoop.send(mSession, pooled);
     }
 }
@@ -0,0 +1,78 @@
+package com.longway.core.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the reliable streams clients opened, keyed by stream id, so a stream continues where it
+ * left off when its client reconnects to any worker. only touched when a stream is opened,
+ * the frames themselves go to the {@link Stream} attached to the session. the least recently
+ * opened streams are forgotten beyond {@link #MAX_STREAMS}.
+ */
+public class ReliableStreams {
+    public static final int MAX_STREAMS = 64 * 1024;
+    private final LinkedHashMap<Long, Stream> mStreams = new LinkedHashMap<Long, Stream>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Stream> eldest) {
+            return size() > MAX_STREAMS;
+        }
+    };
+
+    synchronized Stream open(long id) {
+        Stream stream = mStreams.get(id);
+        if (stream == null) {
+            stream = new Stream();
+            mStreams.put(id, stream);
+        }
+        return stream;
+    }
+
+    /**
+     * delivery state of one stream, handed from the session of one connection to the next.
+     * guarded by itself: the session of a dropped connection may still be read by another
+     * worker when the client opened the stream again.
+     */
+    static final class Stream {
+        static final int DROP = 0;
+        static final int DELIVER = 1;
+        static final int DUPLICATE = 2;
+        /**
+         * last sequence delivered
+         */
+        int mDelivered;
+        /**
+         * false for a stream unknown to this server, after a restart or once it was forgotten.
+         * its first frame, the oldest the client has not seen acked, sets where it continues.
+         */
+        boolean mStarted;
+        /**
+         * the session that opened the stream last, frames of any other are dropped
+         */
+        Session mOwner;
+
+        /**
+         * @return {@link #DELIVER} when {@code sequence} is the next one, {@link #DUPLICATE}
+         * for a retransmission delivered before, which is acked again, and {@link #DROP} for
+         * a gap or a frame of a connection the client already replaced
+         */
+        synchronized int accept(Session session, int sequence) {
+            if (mOwner != session) {
+                return DROP;
+            }
+            if (!mStarted) {
+                mDelivered = sequence - 1;
+                mStarted = true;
+            }
+            final int expected = mDelivered + 1;
+            if (sequence - expected > 0) {
+                // the client retransmits from the last ack on its next connection
+                return DROP;
+            }
+            if (sequence != expected) {
+                return DUPLICATE;
+            }
+            mDelivered = sequence;
+            return DELIVER;
+        }
+    }
+}
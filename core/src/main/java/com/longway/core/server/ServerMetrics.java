@@ -0,0 +1,187 @@
+package com.longway.core.server;
+
+import com.longway.core.util.Histogram;
+import com.longway.core.util.StripedCounter;
+
+/**
+ * what the {@link WorkerLoop}s of one {@link SocketChannelServer} have done since it started.
+ * the loops add to striped counters at most a few times per turn and record latencies into a
+ * histogram of their own, so they never contend with each other. {@link #snapshot()} sums and
+ * merges on the calling thread. the numbers of one session are read from {@link Session}.
+ */
+public final class ServerMetrics {
+    private final StripedCounter mBytesIn = new StripedCounter();
+    private final StripedCounter mBytesOut = new StripedCounter();
+    private final StripedCounter mMessagesIn = new StripedCounter();
+    private final StripedCounter mMessagesOut = new StripedCounter();
+    private final StripedCounter mWakeups = new StripedCounter();
+    private final StripedCounter mAccepted = new StripedCounter();
+    private final StripedCounter mSessions = new StripedCounter();
+    private final StripedCounter mQueuedBytes = new StripedCounter();
+    /**
+     * one per loop, nanoseconds from the turn a frame was queued until its session drained
+     */
+    private final Histogram[] mWriteLatency;
+    /**
+     * guarded by this, the rates of a snapshot cover the time since the previous one
+     */
+    private long mLastSnapshotTime = System.nanoTime();
+    private long mLastWakeups;
+
+    ServerMetrics(int workerCount) {
+        mWriteLatency = new Histogram[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWriteLatency[i] = new Histogram();
+        }
+    }
+
+    void onRead(int bytes, int frames) {
+        mBytesIn.add(bytes);
+        mMessagesIn.add(frames);
+    }
+
+    void onWritten(long bytes, long frames) {
+        mBytesOut.add(bytes);
+        mMessagesOut.add(frames);
+    }
+
+    void onWakeup() {
+        mWakeups.increment();
+    }
+
+    void onSessionOpened() {
+        mAccepted.increment();
+        mSessions.increment();
+    }
+
+    void onSessionClosed() {
+        mSessions.add(-1);
+    }
+
+    /**
+     * @param delta bytes queued to sessions, negative once written or dropped
+     */
+    void onQueued(long delta) {
+        mQueuedBytes.add(delta);
+    }
+
+    /**
+     * only recorded by the loop of {@code worker}
+     */
+    void recordWriteLatency(int worker, long nanos) {
+        mWriteLatency[worker].record(nanos);
+    }
+
+    public synchronized Snapshot snapshot() {
+        final long now = System.nanoTime();
+        final long wakeups = mWakeups.sum();
+        final long elapsed = now - mLastSnapshotTime;
+        final double wakeupsPerSecond = elapsed > 0 ? (wakeups - mLastWakeups) * 1e9 / elapsed : 0;
+        mLastSnapshotTime = now;
+        mLastWakeups = wakeups;
+        final Histogram writeLatency = new Histogram();
+        for (Histogram histogram : mWriteLatency) {
+            writeLatency.add(histogram);
+        }
+        return new Snapshot(mBytesIn.sum(), mBytesOut.sum(), mMessagesIn.sum(), mMessagesOut.sum(),
+                wakeups, wakeupsPerSecond, mAccepted.sum(), mSessions.sum(), mQueuedBytes.sum(), writeLatency);
+    }
+
+    /**
+     * the counters at one point in time, summed over all loops
+     */
+    public static final class Snapshot {
+        private final long mBytesIn;
+        private final long mBytesOut;
+        private final long mMessagesIn;
+        private final long mMessagesOut;
+        private final long mWakeups;
+        private final double mWakeupsPerSecond;
+        private final long mAccepted;
+        private final long mSessions;
+        private final long mQueuedBytes;
+        private final Histogram mWriteLatency;
+
+        Snapshot(long bytesIn, long bytesOut, long messagesIn, long messagesOut, long wakeups,
+                 double wakeupsPerSecond, long accepted, long sessions, long queuedBytes, Histogram writeLatency) {
+            this.mBytesIn = bytesIn;
+            this.mBytesOut = bytesOut;
+            this.mMessagesIn = messagesIn;
+            this.mMessagesOut = messagesOut;
+            this.mWakeups = wakeups;
+            this.mWakeupsPerSecond = wakeupsPerSecond;
+            this.mAccepted = accepted;
+            this.mSessions = sessions;
+            this.mQueuedBytes = queuedBytes;
+            this.mWriteLatency = writeLatency;
+        }
+
+        /**
+         * bytes read from all sessions, frame headers included
+         */
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        /**
+         * bytes written to all sessions, a broadcast counts once per receiver
+         */
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * frames decoded, heartbeats and reliable frames included
+         */
+        public long getMessagesIn() {
+            return mMessagesIn;
+        }
+
+        /**
+         * frames written, a broadcast counts once per receiver
+         */
+        public long getMessagesOut() {
+            return mMessagesOut;
+        }
+
+        /**
+         * selector wakeups of all loops
+         */
+        public long getWakeups() {
+            return mWakeups;
+        }
+
+        /**
+         * selector wakeups per second since the previous snapshot
+         */
+        public double getWakeupsPerSecond() {
+            return mWakeupsPerSecond;
+        }
+
+        /**
+         * sessions registered with a loop since the server started
+         */
+        public long getAccepted() {
+            return mAccepted;
+        }
+
+        public long getSessions() {
+            return mSessions;
+        }
+
+        /**
+         * bytes queued to sessions and not written yet, see {@link Session#getPendingBytes()}
+         */
+        public long getQueuedBytes() {
+            return mQueuedBytes;
+        }
+
+        /**
+         * nanoseconds from the loop turn a frame was queued until its session had written
+         * everything queued, a copy owned by this snapshot
+         */
+        public Histogram getWriteLatency() {
+            return mWriteLatency;
+        }
+    }
+}
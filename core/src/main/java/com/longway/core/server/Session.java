@@ -0,0 +1,274 @@
+package com.longway.core.server;
+
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.codec.FrameDecoder;
+import com.longway.core.util.SerialExecutor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * per connection state, attached to the {@link SelectionKey} of the channel so partial
+ * reads of different sessions never share a buffer. everything but the channel is only
+ * touched by the owning {@link WorkerLoop}.
+ */
+public class Session {
+    /**
+     * a session with more bytes waiting than this is too slow and gets closed
+     */
+    public static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    static final long NO_ID = -1;
+    private static final int INITIAL_QUEUE_SIZE = 8;
+    private final SocketChannel mChannel;
+    private final FrameDecoder mDecoder;
+    private volatile long mId = NO_ID;
+    private volatile String mUserId;
+    private final Set<String> mGroups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private SelectionKey mKey;
+    /**
+     * shared frames waiting to be written, a ring whose size is a power of two
+     */
+    private PooledByteBuffer[] mQueue = new PooledByteBuffer[INITIAL_QUEUE_SIZE];
+    private int mHead;
+    private int mSize;
+    /**
+     * bytes of the head frame already written
+     */
+    private int mHeadOffset;
+    /**
+     * only written by the loop thread, volatile so that other threads read whole values
+     */
+    private volatile long mPendingBytes;
+    int mSlot = -1;
+    /**
+     * set once {@link SessionManager#removeSession(Session)} took the session out
+     */
+    volatile boolean mRemoved;
+    /**
+     * {@link System#nanoTime()} of the last read and the last write, for idle detection
+     */
+    long mLastReadTime;
+    long mLastWriteTime;
+    /**
+     * links of the bucket of {@link IdleTimerWheel}, tick -1 while not scheduled
+     */
+    Session mWheelPrev;
+    Session mWheelNext;
+    long mWheelTick = -1;
+    /**
+     * the reliable stream opened on this connection, null without one
+     */
+    ReliableStreams.Stream mStream;
+    /**
+     * queue of the messages of this session on the executor of {@link #mDispatch}, created
+     * with the first message and touched by the loop thread only
+     */
+    SerialExecutor mDispatcher;
+    MessageDispatch mDispatch;
+    /**
+     * frames delivered since the last ack and {@link System#nanoTime()} of the first of them
+     */
+    int mUnacked;
+    long mUnackedSince;
+    /**
+     * counted by the loop thread, read by others without a lock like the pending bytes
+     */
+    volatile long mBytesIn;
+    volatile long mBytesOut;
+    volatile long mMessagesIn;
+    volatile long mMessagesOut;
+    /**
+     * {@link System#nanoTime()} of the loop turn the queue last stopped being empty
+     */
+    long mQueuedSince;
+    boolean mDirty;
+    boolean mWriteArmed;
+    /**
+     * a single frame overflowed the queue, closed at the end of the loop turn
+     */
+    boolean mTooSlow;
+    boolean mClosed;
+
+    public Session(SocketChannel channel, FrameDecoder decoder) {
+        this.mChannel = channel;
+        this.mDecoder = decoder;
+    }
+
+    public SocketChannel getChannel() {
+        return mChannel;
+    }
+
+    public FrameDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    /**
+     * @return the id assigned by {@link SessionManager#addSession(Session)}
+     */
+    public long getId() {
+        return mId;
+    }
+
+    void setId(long id) {
+        this.mId = id;
+    }
+
+    public String getUserId() {
+        return mUserId;
+    }
+
+    void setUserId(String userId) {
+        this.mUserId = userId;
+    }
+
+    Set<String> getGroups() {
+        return mGroups;
+    }
+
+    SelectionKey getKey() {
+        return mKey;
+    }
+
+    void setKey(SelectionKey key) {
+        this.mKey = key;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last read
+     */
+    public long getLastReadTime() {
+        return mLastReadTime;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last write
+     */
+    public long getLastWriteTime() {
+        return mLastWriteTime;
+    }
+
+    public long getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    /**
+     * @return bytes read, frame headers included
+     */
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    /**
+     * @return bytes written, frame headers included
+     */
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    /**
+     * @return frames decoded, heartbeats included
+     */
+    public long getMessagesIn() {
+        return mMessagesIn;
+    }
+
+    /**
+     * @return frames written completely
+     */
+    public long getMessagesOut() {
+        return mMessagesOut;
+    }
+
+    /**
+     * takes over one reference of {@code frame}
+     *
+     * @return false when the session is over {@link #MAX_PENDING_BYTES}, the reference has
+     * been released
+     */
+    boolean enqueue(PooledByteBuffer frame) {
+        final int length = frame.buffer().limit();
+        if (mPendingBytes + length > MAX_PENDING_BYTES) {
+            frame.release();
+            return false;
+        }
+        if (mSize == mQueue.length) {
+            PooledByteBuffer[] grown = new PooledByteBuffer[mQueue.length << 1];
+            for (int i = 0; i < mSize; i++) {
+                grown[i] = mQueue[(mHead + i) & (mQueue.length - 1)];
+            }
+            mQueue = grown;
+            mHead = 0;
+        }
+        mQueue[(mHead + mSize) & (mQueue.length - 1)] = frame;
+        mSize++;
+        mPendingBytes += length;
+        return true;
+    }
+
+    /**
+     * writes queued frames through the views of {@code viewSlot} until the queue is empty
+     * or the socket is full.
+     *
+     * @param scratch reused by the caller for the gathering write
+     * @param now     becomes the last write time once anything has been written
+     * @return true when everything has been written
+     */
+    boolean flush(int viewSlot, ByteBuffer[] scratch, long now) throws IOException {
+        while (mSize > 0) {
+            final int mask = mQueue.length - 1;
+            final int n = Math.min(mSize, scratch.length);
+            for (int i = 0; i < n; i++) {
+                PooledByteBuffer frame = mQueue[(mHead + i) & mask];
+                ByteBuffer view = frame.view(viewSlot);
+                view.clear();
+                view.limit(frame.buffer().limit());
+                view.position(i == 0 ? mHeadOffset : 0);
+                scratch[i] = view;
+            }
+            try {
+                final long written = mChannel.write(scratch, 0, n);
+                if (written > 0) {
+                    mPendingBytes -= written;
+                    mBytesOut += written;
+                    mLastWriteTime = now;
+                }
+                int done = 0;
+                while (done < n && !scratch[done].hasRemaining()) {
+                    mQueue[mHead].release();
+                    mQueue[mHead] = null;
+                    mHead = (mHead + 1) & mask;
+                    mSize--;
+                    done++;
+                }
+                mMessagesOut += done;
+                if (done < n) {
+                    mHeadOffset = scratch[done].position();
+                    return false;
+                }
+                mHeadOffset = 0;
+            } finally {
+                for (int i = 0; i < n; i++) {
+                    scratch[i] = null;
+                }
+            }
+        }
+        return true;
+    }
+
+    void clearQueue() {
+        final int mask = mQueue.length - 1;
+        while (mSize > 0) {
+            mQueue[mHead].release();
+            mQueue[mHead] = null;
+            mHead = (mHead + 1) & mask;
+            mSize--;
+        }
+        mHeadOffset = 0;
+        mPendingBytes = 0;
+    }
+}
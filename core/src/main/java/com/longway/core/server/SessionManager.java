@@ -2,16 +2,31 @@ package com.longway.core.server;
 
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * registry of all sessions keyed by {@link Session#getId()}. the id encodes the stripe and
+ * slot of the session, so add, lookup and removal are O(1) without hashing or boxing, and
+ * a disconnect storm only contends on 1/{@link #STRIPES} of the registry.
+ * sessions can additionally be found by user id and by group.
+ */
 public class SessionManager {
+    private static final int STRIPE_SHIFT = 4;
+    private static final int STRIPES = 1 << STRIPE_SHIFT;
     private static volatile SessionManager sInstance;
-    private ConcurrentHashMap<String, SocketChannel> mSession = new ConcurrentHashMap<>();
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private final AtomicInteger mSize = new AtomicInteger();
+    private final ConcurrentHashMap<String, Set<Session>> mUsers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Session>> mGroups = new ConcurrentHashMap<>();
 
     private SessionManager() {
-
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Stripe();
+        }
     }
 
     public static SessionManager getInstance() {
@@ -25,31 +40,212 @@ public class SessionManager {
         return sInstance;
     }
 
-    public void addSession(String id, SocketChannel socketChannel) {
-        mSession.put(id, socketChannel);
+    /**
+     * assigns the session its id
+     */
+    public void addSession(Session session) {
+        final int sequence = mSequence.getAndIncrement();
+        final int stripe = sequence & (STRIPES - 1);
+        final int slot = mStripes[stripe].add(session);
+        session.setId((sequence & 0xFFFFFFFFL) << 32 | (long) slot << STRIPE_SHIFT | stripe);
+        mSize.incrementAndGet();
     }
 
-    public void removeSession(String id) {
-        mSession.remove(id);
+    public Session getSession(long id) {
+        Session session = mStripes[(int) id & (STRIPES - 1)].get(slot(id));
+        return session != null && session.getId() == id ? session : null;
     }
 
-    public void removeSession(SocketChannel socketChannel) {
-        Set<Map.Entry<String, SocketChannel>> entrySet = mSession.entrySet();
-        for (Map.Entry<String, SocketChannel> entry : entrySet) {
-            SocketChannel value = entry.getValue();
-            if (value == socketChannel) {
-                mSession.remove(entry.getKey());
-                break;
+    public void removeSession(Session session) {
+        final long id = session.getId();
+        if (id == Session.NO_ID) {
+            return;
+        }
+        if (mStripes[(int) id & (STRIPES - 1)].remove(slot(id), session)) {
+            mSize.decrementAndGet();
+            // marked before the index is read, a concurrent bind or join undoes itself
+            session.mRemoved = true;
+            String userId = session.getUserId();
+            if (userId != null) {
+                removeFromIndex(mUsers, userId, session);
+            }
+            for (String group : session.getGroups()) {
+                removeFromIndex(mGroups, group, session);
             }
         }
     }
 
-    public ArrayList<SocketChannel> getAllSessions() {
-        ArrayList<SocketChannel> socketChannels = new ArrayList<>();
-        Enumeration<SocketChannel> enumeration = mSession.elements();
-        while (enumeration.hasMoreElements()) {
-            socketChannels.add(enumeration.nextElement());
+    public int size() {
+        return mSize.get();
+    }
+
+    /**
+     * visits every session stripe by stripe without copying the registry
+     */
+    public void forEach(SessionVisitor visitor) {
+        for (Stripe stripe : mStripes) {
+            stripe.forEach(visitor);
         }
+    }
+
+    /**
+     * @deprecated copies every session, use {@link #forEach(SessionVisitor)}
+     */
+    @Deprecated
+    public ArrayList<SocketChannel> getAllSessions() {
+        final ArrayList<SocketChannel> socketChannels = new ArrayList<>(size());
+        forEach(new SessionVisitor() {
+            @Override
+            public void visit(Session session) {
+                socketChannels.add(session.getChannel());
+            }
+        });
         return socketChannels;
     }
+
+    public void bindUser(Session session, String userId) {
+        if (userId == null) {
+            throw new NullPointerException("userId==null");
+        }
+        String previous = session.getUserId();
+        if (userId.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            removeFromIndex(mUsers, previous, session);
+        }
+        session.setUserId(userId);
+        addToIndex(mUsers, userId, session);
+        if (session.mRemoved) {
+            removeFromIndex(mUsers, userId, session);
+        }
+    }
+
+    /**
+     * @return the sessions of the user, a live view which must not be modified
+     */
+    public Set<Session> getUserSessions(String userId) {
+        Set<Session> sessions = mUsers.get(userId);
+        return sessions != null ? sessions : Collections.<Session>emptySet();
+    }
+
+    public void joinGroup(Session session, String group) {
+        if (group == null) {
+            throw new NullPointerException("group==null");
+        }
+        if (session.getGroups().add(group)) {
+            addToIndex(mGroups, group, session);
+            if (session.mRemoved) {
+                removeFromIndex(mGroups, group, session);
+            }
+        }
+    }
+
+    public void leaveGroup(Session session, String group) {
+        if (session.getGroups().remove(group)) {
+            removeFromIndex(mGroups, group, session);
+        }
+    }
+
+    /**
+     * @return the members of the group, a live view which must not be modified
+     */
+    public Set<Session> getGroupSessions(String group) {
+        Set<Session> sessions = mGroups.get(group);
+        return sessions != null ? sessions : Collections.<Session>emptySet();
+    }
+
+    private static int slot(long id) {
+        return (int) id >>> STRIPE_SHIFT;
+    }
+
+    /**
+     * a member set is only unmapped while its lock is held, so an add made under the lock
+     * to a set that is still mapped can not be lost
+     */
+    private static void addToIndex(ConcurrentHashMap<String, Set<Session>> index, String key, Session session) {
+        while (true) {
+            Set<Session> sessions = index.get(key);
+            if (sessions == null) {
+                Set<Session> created = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+                sessions = index.putIfAbsent(key, created);
+                if (sessions == null) {
+                    sessions = created;
+                }
+            }
+            synchronized (sessions) {
+                if (index.get(key) == sessions) {
+                    sessions.add(session);
+                    return;
+                }
+            }
+            // emptied and unmapped in between, start over with a new set
+        }
+    }
+
+    private static void removeFromIndex(ConcurrentHashMap<String, Set<Session>> index, String key, Session session) {
+        Set<Session> sessions = index.get(key);
+        if (sessions != null) {
+            synchronized (sessions) {
+                if (sessions.remove(session) && sessions.isEmpty()) {
+                    index.remove(key, sessions);
+                }
+            }
+        }
+    }
+
+    /**
+     * slot table of one stripe, freed slots are reused before the table grows
+     */
+    private static final class Stripe {
+        private Session[] mSlots = new Session[64];
+        private int[] mFree = new int[64];
+        private int mFreeCount;
+        private int mUsed;
+
+        synchronized int add(Session session) {
+            int slot;
+            if (mFreeCount > 0) {
+                slot = mFree[--mFreeCount];
+            } else {
+                if (mUsed == mSlots.length) {
+                    Session[] grown = new Session[mSlots.length << 1];
+                    System.arraycopy(mSlots, 0, grown, 0, mUsed);
+                    mSlots = grown;
+                }
+                slot = mUsed++;
+            }
+            mSlots[slot] = session;
+            return slot;
+        }
+
+        synchronized Session get(int slot) {
+            return slot < mUsed ? mSlots[slot] : null;
+        }
+
+        synchronized boolean remove(int slot, Session session) {
+            if (slot >= mUsed || mSlots[slot] != session) {
+                return false;
+            }
+            mSlots[slot] = null;
+            if (mFreeCount == mFree.length) {
+                int[] grown = new int[mFree.length << 1];
+                System.arraycopy(mFree, 0, grown, 0, mFreeCount);
+                mFree = grown;
+            }
+            mFree[mFreeCount++] = slot;
+            return true;
+        }
+
+        synchronized void forEach(SessionVisitor visitor) {
+            final Session[] slots = mSlots;
+            final int used = mUsed;
+            for (int i = 0; i < used; i++) {
+                Session session = slots[i];
+                if (session != null) {
+                    visitor.visit(session);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,9 @@
+package com.longway.core.server;
+
+public interface SessionMessageHandler {
+    /**
+     * called with the messages of one session one at a time and in the order they arrived,
+     * the messages of different sessions may be handled in parallel
+     */
+    void onReceiveMessage(Session session, byte[] message);
+}
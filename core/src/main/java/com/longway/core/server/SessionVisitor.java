@@ -0,0 +1,8 @@
+package com.longway.core.server;
+
+public interface SessionVisitor {
+    /**
+     * called while a stripe of {@link SessionManager} is locked, keep it short
+     */
+    void visit(Session session);
+}
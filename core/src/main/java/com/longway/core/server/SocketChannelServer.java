@@ -1,10 +1,16 @@
 package com.longway.core.server;
 
-import android.util.Log;
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.codec.Compression;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.LengthFieldFrameCodec;
+import com.longway.core.util.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -12,29 +18,59 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * the thread of this server only accepts, accepted channels are handed round robin to
+ * {@link WorkerLoop}s which do all reads and writes.
+ */
 public class SocketChannelServer implements Runnable {
     private static final String TAG = SocketChannelServer.class.getSimpleName();
+    public static final int DEFAULT_WORKER_COUNT = Runtime.getRuntime().availableProcessors();
     private int mPort;
     private ServerSocketChannel mServerSocketChannel;
     private AtomicBoolean mRunning = new AtomicBoolean(true);
-    private ByteBuffer mByteBuffer = ByteBuffer.allocate(128);
-    private ByteArrayOutputStream mOS = new ByteArrayOutputStream(128);
+    private final FrameCodec mFrameCodec;
+    private final int mWorkerCount;
+    private final Broadcaster mBroadcaster = new Broadcaster();
+    /**
+     * shared by the workers, a client may reconnect to any of them
+     */
+    private final ReliableStreams mReliableStreams = new ReliableStreams();
+    private IdleTimeouts mIdleTimeouts;
+    private Compression mCompression;
+    private MessageDispatch mDispatch;
+    private final ServerMetrics mMetrics;
+    private WorkerLoop[] mWorkers;
+    private int mNextWorker;
     private Thread mThread;
-    private ReadWorker mReadWorker;
 
-    private void enforceReadWorker() {
-        synchronized (ReadWorker.class) {
-            if (mReadWorker == null) {
-                mReadWorker = new ReadWorker();
-            }
-        }
+    public SocketChannelServer(int port) {
+        this(port, new LengthFieldFrameCodec());
     }
 
-    public SocketChannelServer(int port) {
+    public SocketChannelServer(int port, FrameCodec frameCodec) {
+        this(port, frameCodec, DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * @param frameCodec  must match the codec of the clients
+     * @param workerCount number of worker selector threads
+     */
+    public SocketChannelServer(int port, FrameCodec frameCodec, int workerCount) {
+        if (frameCodec == null) {
+            throw new NullPointerException("frameCodec==null");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be large than 0");
+        }
         this.mPort = port;
+        this.mFrameCodec = frameCodec;
+        this.mWorkerCount = workerCount;
+        this.mMetrics = new ServerMetrics(workerCount);
         mThread = new Thread(this);
+        mThread.setName(TAG);
         mThread.start();
     }
 
@@ -42,22 +78,124 @@ public class SocketChannelServer implements Runnable {
         return new SocketChannelServer(port);
     }
 
+    public static SocketChannelServer start(int port, FrameCodec frameCodec) {
+        return new SocketChannelServer(port, frameCodec);
+    }
+
+    public static SocketChannelServer start(int port, FrameCodec frameCodec, int workerCount) {
+        return new SocketChannelServer(port, frameCodec, workerCount);
+    }
+
+    /**
+     * closes and evicts sessions gone quiet, which also clears half-open connections out of
+     * {@link SessionManager}. a reader idle timeout a few times the keep-alive interval of the
+     * clients finds dead peers. applies to the sessions already open as well.
+     *
+     * @param readerIdle milliseconds without a read, 0 disables the check
+     * @param writerIdle milliseconds without a write, 0 disables the check
+     * @param allIdle    milliseconds without a read or a write, 0 disables the check
+     */
+    public synchronized SocketChannelServer setIdleTimeout(long readerIdle, long writerIdle, long allIdle) {
+        IdleTimeouts idleTimeouts = new IdleTimeouts(readerIdle, writerIdle, allIdle);
+        mIdleTimeouts = idleTimeouts;
+        WorkerLoop[] workers = mWorkers;
+        if (workers != null) {
+            for (WorkerLoop worker : workers) {
+                worker.setIdleTimeouts(idleTimeouts);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * inflates the compressed frames of the clients and compresses each broadcast once, the
+     * clients must know the same dictionaries. applies to the sessions already open as well.
+     *
+     * @param compression null forwards everything as it is
+     */
+    public synchronized SocketChannelServer setCompression(Compression compression) {
+        if (compression != null && !mFrameCodec.supportsFlags()) {
+            throw new IllegalStateException("compression needs a frame codec with flags");
+        }
+        mCompression = compression;
+        WorkerLoop[] workers = mWorkers;
+        if (workers != null) {
+            for (WorkerLoop worker : workers) {
+                worker.setCompression(compression);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * hands the messages of the clients to {@code handler} instead of broadcasting them, so
+     * a slow handler does not hold up the I/O of the loops. the messages of one session are
+     * handled one at a time and in order, those of different sessions in parallel. applies to
+     * the sessions already open as well.
+     *
+     * @param handler  null broadcasts every message again
+     * @param executor runs the handler, null runs it on the loop thread which is only fit for
+     *                 handlers that never block
+     */
+    public synchronized SocketChannelServer setMessageHandler(SessionMessageHandler handler, Executor executor) {
+        MessageDispatch dispatch = handler != null ? new MessageDispatch(handler, executor) : null;
+        mDispatch = dispatch;
+        WorkerLoop[] workers = mWorkers;
+        if (workers != null) {
+            for (WorkerLoop worker : workers) {
+                worker.setDispatch(dispatch);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * throughput, queue depth and write latency of all workers, {@link ServerMetrics#snapshot()}
+     * may be called at any time from any thread
+     */
+    public ServerMetrics metrics() {
+        return mMetrics;
+    }
+
     public void pause() {
         if (mRunning.compareAndSet(true, false)) {
             mThread.interrupt();
         }
     }
 
+    /**
+     * encodes {@code msg} once and queues it to every session
+     */
+    public void broadcast(byte[] msg) {
+        if (msg == null) {
+            throw new NullPointerException("msg==null");
+        }
+        final FrameCodec frameCodec = mFrameCodec;
+        PooledByteBuffer pooled = ByteBufferPool.getDefault().acquire(
+                frameCodec.headerLength() + msg.length + frameCodec.trailerLength());
+        try {
+            ByteBuffer byteBuffer = pooled.buffer();
+            frameCodec.writeHeader(byteBuffer, msg.length, FrameFlags.NONE);
+            byteBuffer.put(msg);
+            frameCodec.writeTrailer(byteBuffer);
+            byteBuffer.flip();
+            mBroadcaster.broadcast(pooled);
+        } finally {
+            pooled.release();
+        }
+    }
+
     @Override
     public void run() {
         try {
+            startWorkers();
             ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
             serverSocketChannel.configureBlocking(false);
             serverSocketChannel.socket().bind(new InetSocketAddress(mPort));
             mServerSocketChannel = serverSocketChannel;
             Selector selector = Selector.open();
             SelectionKey selectionKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-            Log.d(TAG, selectionKey.toString());
+            Logger.d(TAG, selectionKey.toString());
             while (mRunning.get()) {
                 int n = selector.select();
                 if (n == 0) {
@@ -67,70 +205,70 @@ public class SocketChannelServer implements Runnable {
                 Iterator<SelectionKey> iterator = keys.iterator();
                 while (iterator.hasNext()) {
                     SelectionKey key = iterator.next();
-                    if (key.isAcceptable()) {
-                        Log.d(TAG, "key is acceptable");
-                        ServerSocketChannel ssc = (ServerSocketChannel) key.channel();
-                        SocketChannel socketChannel = ssc.accept();
-                        if (socketChannel == null) {
-                            continue;
-                        }
-                        SessionManager.getInstance().addSession(socketChannel.toString(), socketChannel);
-                        socketChannel.configureBlocking(false);
-                        socketChannel.register(selector, SelectionKey.OP_READ);
-                    } else if (key.isConnectable()) {
-                        Log.d(TAG, "key isConnectable");
-                    } else if (key.isReadable()) {
-                        Log.d(TAG, "key isReadable");
-                        SocketChannel socketChannel = (SocketChannel) key.channel();
-                        if (!socketChannel.isConnected()) {
-                            SessionManager.getInstance().removeSession(socketChannel.toString());
-                            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
-                            continue;
-                        }
-                        //handleRead(socketChannel);
-                        enforceReadWorker();
-                        mReadWorker.readMessage(socketChannel);
-                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                    } else if (key.isWritable()) {
-                        Log.d(TAG, "key isWritable");
-                        //SocketChannel socketChannel = (SocketChannel) key.channel();
-                        //socketChannel.write(ByteBuffer.wrap("hello client".getBytes()));
-                        Log.d(TAG, "write");
-                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-                    } else if (key.isValid()) {
-                        Log.d(TAG, "key isValid");
-                    }
                     iterator.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    }
                 }
             }
+            selector.close();
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            stopWorkers();
             try {
-                mServerSocketChannel.close();
+                if (mServerSocketChannel != null) {
+                    mServerSocketChannel.close();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    private void handleRead(SocketChannel socketChannel) {
-        ByteBuffer byteBuffer = this.mByteBuffer;
-        byteBuffer.clear();
-        ByteArrayOutputStream os = mOS;
-        os.reset();
-        int len;
-        try {
-            while ((len = socketChannel.read(byteBuffer)) > 0) {
-                byteBuffer.flip();
-                os.write(byteBuffer.array(), 0, len);
+    private void accept(ServerSocketChannel serverSocketChannel) throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            try {
+                Socket socket = socketChannel.socket();
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socketChannel.configureBlocking(false);
+            } catch (IOException e) {
+                // the peer is already gone, keep accepting the others
+                Logger.w(TAG, "configure accepted channel failed:" + e);
+                socketChannel.close();
+                continue;
+            }
+            Session session = new Session(socketChannel, mFrameCodec.newDecoder());
+            SessionManager.getInstance().addSession(session);
+            WorkerLoop worker = mWorkers[mNextWorker];
+            mNextWorker = (mNextWorker + 1) % mWorkers.length;
+            worker.register(session);
+        }
+    }
+
+    private synchronized void startWorkers() throws IOException {
+        WorkerLoop[] workers = new WorkerLoop[mWorkerCount];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new WorkerLoop(i, mFrameCodec, mBroadcaster);
+            workers[i].setIdleTimeouts(mIdleTimeouts);
+            workers[i].setReliableStreams(mReliableStreams);
+            workers[i].setMetrics(mMetrics);
+            workers[i].setCompression(mCompression);
+            workers[i].setDispatch(mDispatch);
+            workers[i].start(WorkerLoop.class.getSimpleName() + "-" + i);
+        }
+        mWorkers = workers;
+        mBroadcaster.setWorkers(workers);
+    }
+
+    private void stopWorkers() {
+        WorkerLoop[] workers = mWorkers;
+        if (workers != null) {
+            for (WorkerLoop worker : workers) {
+                worker.pause();
             }
-            os.flush();
-            String content = os.toString();
-            Log.d(TAG, content);
-            //socketChannel.write(ByteBuffer.wrap(os.toByteArray()));
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 }
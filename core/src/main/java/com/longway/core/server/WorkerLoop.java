@@ -0,0 +1,570 @@
+package com.longway.core.server;
+
+import com.longway.core.buffer.ByteBufferPool;
+import com.longway.core.buffer.PooledByteBuffer;
+import com.longway.core.codec.Compression;
+import com.longway.core.codec.FrameCodec;
+import com.longway.core.codec.FrameFlags;
+import com.longway.core.codec.ReliableFrame;
+import com.longway.core.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * one worker selector thread, owns the sessions handed over by the acceptor and does all
+ * of their reads and writes, so sessions of one loop never need locking among themselves.
+ * broadcast frames are queued to every session and flushed once per loop turn, a session
+ * whose socket is full waits for OP_WRITE without holding up the others.
+ * <p>
+ * idle sessions are found through an {@link IdleTimerWheel}: reads and writes only stamp the
+ * session, its single wheel entry fires at the earliest deadline and either closes the session
+ * or moves it to the next one, so the cost does not grow with the number of sessions.
+ * <p>
+ * reliable frames are acked cumulatively and coalesced: a session is acked once
+ * {@link #ACK_EVERY} frames were delivered or the oldest of them waited {@link #ACK_DELAY_MILLIS},
+ * whichever comes first, so at high rates one small ack covers many frames.
+ */
+public class WorkerLoop implements Runnable {
+    private static final String TAG = WorkerLoop.class.getSimpleName();
+    private static final int MAX_GATHERING_WRITE = 64;
+    private static final long IDLE_TICK_MILLIS = 100;
+    private static final int ACK_EVERY = 16;
+    private static final long ACK_DELAY_MILLIS = 10;
+    /**
+     * 512 ticks of 100ms, longer timeouts wait in their bucket for another turn
+     */
+    private static final int IDLE_WHEEL_SIZE = 512;
+    private final int mIndex;
+    private final Selector mSelector;
+    private final FrameCodec mFrameCodec;
+    private final ReadWorker mReadWorker;
+    private final ConcurrentLinkedQueue<Session> mAccepted = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<PooledByteBuffer> mBroadcasts = new ConcurrentLinkedQueue<>();
+    private Session[] mSessions = new Session[16];
+    private int mSessionCount;
+    private final ArrayList<Session> mDirty = new ArrayList<>();
+    /**
+     * sessions that overflowed their queue in {@link #send(Session, PooledByteBuffer)}
+     */
+    private final ArrayList<Session> mTooSlow = new ArrayList<>();
+    /**
+     * sessions with delivered frames not acked yet
+     */
+    private final ArrayList<Session> mUnacked = new ArrayList<>();
+    private ReliableStreams mReliableStreams = new ReliableStreams();
+    private final ByteBuffer[] mScratch = new ByteBuffer[MAX_GATHERING_WRITE];
+    private final IdleTimerWheel mIdleWheel;
+    private volatile IdleTimeouts mIdleTimeouts;
+    // loop thread only, null while idle detection is off
+    private IdleTimeouts mAppliedIdleTimeouts;
+    private volatile Compression mCompression;
+    // loop thread only
+    private Compression mAppliedCompression;
+    /**
+     * {@link System#nanoTime()} of the current loop turn
+     */
+    private long mNow;
+    private ServerMetrics mMetrics;
+    /**
+     * changes of the current turn, added to {@link #mMetrics} once at its end
+     */
+    private long mQueuedDelta;
+    private long mWrittenBytes;
+    private long mWrittenFrames;
+    private AtomicBoolean mRunning = new AtomicBoolean(true);
+    private Thread mThread;
+
+    private final IdleTimerWheel.Handler mIdleHandler = new IdleTimerWheel.Handler() {
+        @Override
+        public void onExpired(Session session, long now) {
+            checkIdle(session, now);
+        }
+    };
+
+    /**
+     * @param index distinct per loop, selects the buffer views this loop writes through
+     */
+    public WorkerLoop(int index, FrameCodec frameCodec, Broadcaster broadcaster) throws IOException {
+        this.mIndex = index;
+        this.mFrameCodec = frameCodec;
+        this.mReadWorker = new ReadWorker(frameCodec, broadcaster, this);
+        this.mSelector = Selector.open();
+        this.mNow = System.nanoTime();
+        this.mMetrics = new ServerMetrics(index + 1);
+        this.mIdleWheel = new IdleTimerWheel(TimeUnit.MILLISECONDS.toNanos(IDLE_TICK_MILLIS), IDLE_WHEEL_SIZE, mNow);
+    }
+
+    public void start(String name) {
+        mThread = new Thread(this);
+        mThread.setName(name);
+        mThread.start();
+    }
+
+    public void pause() {
+        if (mRunning.compareAndSet(true, false)) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * takes effect on the next loop turn, for the sessions already open too
+     *
+     * @param idleTimeouts null turns idle detection off
+     */
+    void setIdleTimeouts(IdleTimeouts idleTimeouts) {
+        mIdleTimeouts = idleTimeouts;
+        mSelector.wakeup();
+    }
+
+    /**
+     * takes effect on the next loop turn
+     *
+     * @param compression null disables compression
+     */
+    void setCompression(Compression compression) {
+        mCompression = compression;
+        mSelector.wakeup();
+    }
+
+    /**
+     * takes effect with the next message of every session
+     *
+     * @param dispatch null broadcasts the messages
+     */
+    void setDispatch(MessageDispatch dispatch) {
+        mReadWorker.setDispatch(dispatch);
+    }
+
+    /**
+     * shared by all loops of a server, must be set before {@link #start(String)}
+     */
+    void setMetrics(ServerMetrics metrics) {
+        this.mMetrics = metrics;
+        mReadWorker.setMetrics(metrics);
+    }
+
+    /**
+     * shared by all loops of a server, must be set before {@link #start(String)}
+     */
+    void setReliableStreams(ReliableStreams reliableStreams) {
+        this.mReliableStreams = reliableStreams;
+    }
+
+    ReliableStreams getReliableStreams() {
+        return mReliableStreams;
+    }
+
+    /**
+     * a reliable frame of {@code session} was delivered or was a duplicate, it is acked with
+     * the next ones
+     */
+    void onDelivered(Session session) {
+        if (session.mUnacked++ == 0) {
+            session.mUnackedSince = mNow;
+            mUnacked.add(session);
+        }
+    }
+
+    /**
+     * acks everything delivered to {@code session} right away
+     */
+    void ack(Session session) {
+        final ReliableStreams.Stream stream = session.mStream;
+        if (session.mClosed || stream == null) {
+            return;
+        }
+        final int delivered;
+        synchronized (stream) {
+            delivered = stream.mDelivered;
+        }
+        final FrameCodec frameCodec = mFrameCodec;
+        PooledByteBuffer pooled = ByteBufferPool.getDefault().acquire(
+                frameCodec.headerLength() + ReliableFrame.ACK_LENGTH + frameCodec.trailerLength());
+        ByteBuffer byteBuffer = pooled.buffer();
+        frameCodec.writeHeader(byteBuffer, ReliableFrame.ACK_LENGTH, FrameFlags.RELIABLE);
+        ReliableFrame.writeAck(byteBuffer, delivered);
+        frameCodec.writeTrailer(byteBuffer);
+        byteBuffer.flip();
+        send(session, pooled);
+    }
+
+    /**
+     * called by the acceptor thread, the channel is registered on the next loop turn
+     */
+    public void register(Session session) {
+        mAccepted.offer(session);
+        mSelector.wakeup();
+    }
+
+    /**
+     * takes over one reference of {@code frame}, it is queued to every session of this loop
+     */
+    void enqueueBroadcast(PooledByteBuffer frame) {
+        mBroadcasts.offer(frame);
+        if (Thread.currentThread() != mThread) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * queues {@code frame} to one session, only called on the loop thread while the session
+     * may be in the middle of a read. takes over one reference of {@code frame}, it is flushed
+     * at the end of the loop turn. a session too slow for it is closed at the end of the loop
+     * turn too, closing it here would release the decoder buffer under the read.
+     */
+    void send(Session session, PooledByteBuffer frame) {
+        if (session.mClosed) {
+            frame.release();
+            return;
+        }
+        if (enqueue(session, frame)) {
+            markDirty(session);
+        } else if (!session.mTooSlow) {
+            Logger.w(TAG, "session too slow, closing " + session.getChannel());
+            session.mTooSlow = true;
+            mTooSlow.add(session);
+        }
+    }
+
+    /**
+     * {@link Session#enqueue(PooledByteBuffer)} and its accounting
+     */
+    private boolean enqueue(Session session, PooledByteBuffer frame) {
+        final long pending = session.getPendingBytes();
+        if (!session.enqueue(frame)) {
+            return false;
+        }
+        if (pending == 0) {
+            session.mQueuedSince = mNow;
+        }
+        mQueuedDelta += session.getPendingBytes() - pending;
+        return true;
+    }
+
+    /**
+     * {@link Session#flush(int, ByteBuffer[], long)} and its accounting
+     *
+     * @param now {@link System#nanoTime()} for the write latency
+     */
+    private boolean flush(Session session, long now) throws IOException {
+        final long pending = session.getPendingBytes();
+        final long frames = session.mMessagesOut;
+        try {
+            final boolean drained = session.flush(mIndex, mScratch, mNow);
+            if (drained && session.mMessagesOut != frames) {
+                mMetrics.recordWriteLatency(mIndex, now - session.mQueuedSince);
+            }
+            return drained;
+        } finally {
+            final long written = pending - session.getPendingBytes();
+            mQueuedDelta -= written;
+            mWrittenBytes += written;
+            mWrittenFrames += session.mMessagesOut - frames;
+        }
+    }
+
+    /**
+     * adds what the turn counted to the shared metrics, a few striped adds per turn
+     */
+    private void publishMetrics() {
+        final ServerMetrics metrics = mMetrics;
+        if (mQueuedDelta != 0) {
+            metrics.onQueued(mQueuedDelta);
+            mQueuedDelta = 0;
+        }
+        if (mWrittenBytes != 0 || mWrittenFrames != 0) {
+            metrics.onWritten(mWrittenBytes, mWrittenFrames);
+            mWrittenBytes = 0;
+            mWrittenFrames = 0;
+        }
+    }
+
+    @Override
+    public void run() {
+        final Selector selector = mSelector;
+        try {
+            while (mRunning.get()) {
+                // the wheel ticks only while it holds sessions
+                final long timeout = !mUnacked.isEmpty() ? ACK_DELAY_MILLIS
+                        : mIdleWheel.size() > 0 ? IDLE_TICK_MILLIS : 0;
+                int n = timeout > 0 ? selector.select(timeout) : selector.select();
+                mNow = System.nanoTime();
+                mMetrics.onWakeup();
+                applyIdleTimeouts();
+                applyCompression();
+                registerAccepted();
+                if (n > 0) {
+                    Set<SelectionKey> keys = selector.selectedKeys();
+                    Iterator<SelectionKey> iterator = keys.iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        handleKey(key);
+                    }
+                }
+                fanOutBroadcasts();
+                flushAcks();
+                closeTooSlow();
+                flushDirty();
+                mIdleWheel.expire(mNow, mIdleHandler);
+                publishMetrics();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+            publishMetrics();
+            mReadWorker.release();
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        Session session = (Session) key.attachment();
+        if (!key.isValid() || session.mClosed) {
+            return;
+        }
+        if (key.isReadable()) {
+            readMessage(key, session);
+        }
+        if (!session.mClosed && key.isValid() && key.isWritable()) {
+            try {
+                if (flush(session, System.nanoTime())) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    session.mWriteArmed = false;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeSession(session);
+            }
+        }
+    }
+
+    private void registerAccepted() {
+        Session session;
+        while ((session = mAccepted.poll()) != null) {
+            try {
+                session.setKey(session.getChannel().register(mSelector, SelectionKey.OP_READ, session));
+                session.mLastReadTime = mNow;
+                session.mLastWriteTime = mNow;
+                addSession(session);
+                mMetrics.onSessionOpened();
+                scheduleIdleCheck(session);
+            } catch (ClosedChannelException e) {
+                Logger.w(TAG, "channel closed before registration", e);
+                SessionManager.getInstance().removeSession(session);
+            }
+        }
+    }
+
+    private void fanOutBroadcasts() {
+        PooledByteBuffer frame;
+        while ((frame = mBroadcasts.poll()) != null) {
+            try {
+                // backwards, a slow session is closed and swapped out while iterating
+                for (int i = mSessionCount - 1; i >= 0; i--) {
+                    Session session = mSessions[i];
+                    if (!enqueue(session, frame.retain())) {
+                        Logger.w(TAG, "session too slow, closing " + session.getChannel());
+                        closeSession(session);
+                        continue;
+                    }
+                    markDirty(session);
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private void flushAcks() {
+        final ArrayList<Session> unacked = mUnacked;
+        final long delay = TimeUnit.MILLISECONDS.toNanos(ACK_DELAY_MILLIS);
+        // backwards, acked sessions are swapped out while iterating
+        for (int i = unacked.size() - 1; i >= 0; i--) {
+            Session session = unacked.get(i);
+            if (!session.mClosed && session.mUnacked > 0
+                    && session.mUnacked < ACK_EVERY && mNow - session.mUnackedSince < delay) {
+                continue;
+            }
+            if (!session.mClosed && session.mUnacked > 0) {
+                ack(session);
+            }
+            session.mUnacked = 0;
+            final int last = unacked.size() - 1;
+            unacked.set(i, unacked.get(last));
+            unacked.remove(last);
+        }
+    }
+
+    private void closeTooSlow() {
+        final ArrayList<Session> tooSlow = mTooSlow;
+        for (int i = 0, size = tooSlow.size(); i < size; i++) {
+            closeSession(tooSlow.get(i));
+        }
+        tooSlow.clear();
+    }
+
+    private void markDirty(Session session) {
+        if (!session.mDirty && !session.mWriteArmed) {
+            session.mDirty = true;
+            mDirty.add(session);
+        }
+    }
+
+    private void flushDirty() {
+        final ArrayList<Session> dirty = mDirty;
+        final int size = dirty.size();
+        final long now = size > 0 ? System.nanoTime() : 0;
+        for (int i = 0; i < size; i++) {
+            Session session = dirty.get(i);
+            session.mDirty = false;
+            if (session.mClosed) {
+                continue;
+            }
+            try {
+                if (!flush(session, now)) {
+                    SelectionKey key = session.getKey();
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    session.mWriteArmed = true;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeSession(session);
+            }
+        }
+        dirty.clear();
+    }
+
+    private void readMessage(SelectionKey key, Session session) {
+        session.mLastReadTime = mNow;
+        boolean open;
+        try {
+            open = mReadWorker.readMessage(session);
+        } catch (IOException e) {
+            e.printStackTrace();
+            open = false;
+        }
+        if (!open) {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * the compressor is replaced on the loop thread, its only user, so the previous one can
+     * be freed at once
+     */
+    private void applyCompression() {
+        final Compression compression = mCompression;
+        if (compression == mAppliedCompression) {
+            return;
+        }
+        mAppliedCompression = compression;
+        mReadWorker.setCompressor(compression != null ? compression.newCompressor() : null);
+    }
+
+    private void applyIdleTimeouts() {
+        IdleTimeouts idleTimeouts = mIdleTimeouts;
+        if (idleTimeouts != null && !idleTimeouts.isEnabled()) {
+            idleTimeouts = null;
+        }
+        if (idleTimeouts == mAppliedIdleTimeouts) {
+            return;
+        }
+        mAppliedIdleTimeouts = idleTimeouts;
+        for (int i = 0; i < mSessionCount; i++) {
+            mIdleWheel.remove(mSessions[i]);
+            scheduleIdleCheck(mSessions[i]);
+        }
+    }
+
+    private void scheduleIdleCheck(Session session) {
+        IdleTimeouts idleTimeouts = mAppliedIdleTimeouts;
+        if (idleTimeouts != null) {
+            mIdleWheel.schedule(session, idleTimeouts.nextDeadline(session));
+        }
+    }
+
+    private void checkIdle(Session session, long now) {
+        IdleTimeouts idleTimeouts = mAppliedIdleTimeouts;
+        if (session.mClosed || idleTimeouts == null) {
+            return;
+        }
+        String idleState = idleTimeouts.idleState(session, now);
+        if (idleState != null) {
+            Logger.w(TAG, idleState + ", closing " + session.getChannel());
+            closeSession(session);
+        } else {
+            // active since it was scheduled, wait for the new deadline
+            mIdleWheel.schedule(session, idleTimeouts.nextDeadline(session));
+        }
+    }
+
+    private void addSession(Session session) {
+        if (mSessionCount == mSessions.length) {
+            Session[] grown = new Session[mSessions.length << 1];
+            System.arraycopy(mSessions, 0, grown, 0, mSessionCount);
+            mSessions = grown;
+        }
+        session.mSlot = mSessionCount;
+        mSessions[mSessionCount++] = session;
+    }
+
+    private void removeSession(Session session) {
+        final int slot = session.mSlot;
+        if (slot < 0) {
+            return;
+        }
+        Session last = mSessions[--mSessionCount];
+        mSessions[slot] = last;
+        last.mSlot = slot;
+        mSessions[mSessionCount] = null;
+        session.mSlot = -1;
+    }
+
+    private void closeSession(Session session) {
+        if (session.mClosed) {
+            return;
+        }
+        session.mClosed = true;
+        removeSession(session);
+        mIdleWheel.remove(session);
+        session.getKey().cancel();
+        session.getDecoder().reset();
+        mQueuedDelta -= session.getPendingBytes();
+        session.clearQueue();
+        mMetrics.onSessionClosed();
+        SocketChannel socketChannel = session.getChannel();
+        SessionManager.getInstance().removeSession(session);
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeAll() {
+        for (int i = mSessionCount - 1; i >= 0; i--) {
+            closeSession(mSessions[i]);
+        }
+        PooledByteBuffer frame;
+        while ((frame = mBroadcasts.poll()) != null) {
+            frame.release();
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.longway.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free log-linear histogram in the style of HdrHistogram. values below 128 are counted
+ * exactly, larger values fall into one of 64 linear sub-buckets per power of two, so every
+ * recorded value is resolved to within 1/64 of itself. recording is a single atomic increment
+ * and may happen on any thread while another thread reads percentiles.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_HALF_BITS;
+    private static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS;
+    private static final int LENGTH = SUB_BUCKET_COUNT + BUCKET_COUNT * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(LENGTH);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(indexOf(value));
+        mTotalCount.incrementAndGet();
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getTotalCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            long n = mCounts.get(i);
+            if (n != 0) {
+                count += n;
+                total += (double) n * highestEquivalentValue(i);
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent to the one at {@code percentile}, 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        // counts are read one by one, a concurrent record may be missing from the walk
+        long count = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            count += mCounts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final double clamped = Math.min(Math.max(percentile, 0), 100);
+        final long target = Math.max(1, (long) Math.ceil(clamped / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * adds every count of {@code other} to this histogram
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < LENGTH; i++) {
+            long n = other.mCounts.get(i);
+            if (n != 0) {
+                mCounts.addAndGet(i, n);
+                mTotalCount.addAndGet(n);
+            }
+        }
+        long max;
+        final long otherMax = other.mMax.get();
+        while (otherMax > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * not atomic with respect to concurrent {@link #record(long)} calls
+     */
+    public void reset() {
+        for (int i = 0; i < LENGTH; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mMax.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shift so the value lands in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF
+                + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        final long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
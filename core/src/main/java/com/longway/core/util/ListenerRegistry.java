@@ -0,0 +1,81 @@
+package com.longway.core.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * listeners published as an immutable array. registering and unregistering swap in a copy
+ * with a compare-and-set and never block, a notification reads the array once and loops over
+ * it without a lock, so a slow listener holds up nobody but the thread notifying it. a
+ * listener unregistered during a notification may still receive that one.
+ */
+public final class ListenerRegistry<T> {
+    private static final Object[] EMPTY = new Object[0];
+    private final AtomicReference<Object[]> mListeners = new AtomicReference<>(EMPTY);
+
+    /**
+     * @return false when {@code listener} was registered already
+     */
+    public boolean register(T listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener==null.");
+        }
+        for (; ; ) {
+            final Object[] listeners = mListeners.get();
+            if (indexOf(listeners, listener) >= 0) {
+                return false;
+            }
+            Object[] registered = Arrays.copyOf(listeners, listeners.length + 1);
+            registered[listeners.length] = listener;
+            if (mListeners.compareAndSet(listeners, registered)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return false when {@code listener} was not registered
+     */
+    public boolean unregister(T listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener==null.");
+        }
+        for (; ; ) {
+            final Object[] listeners = mListeners.get();
+            final int index = indexOf(listeners, listener);
+            if (index < 0) {
+                return false;
+            }
+            Object[] unregistered = EMPTY;
+            if (listeners.length > 1) {
+                unregistered = new Object[listeners.length - 1];
+                System.arraycopy(listeners, 0, unregistered, 0, index);
+                System.arraycopy(listeners, index + 1, unregistered, index, listeners.length - index - 1);
+            }
+            if (mListeners.compareAndSet(listeners, unregistered)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the listeners in the order they registered, shared and never changed, so it
+     * must not be changed by the caller either
+     */
+    public Object[] snapshot() {
+        return mListeners.get();
+    }
+
+    public boolean isEmpty() {
+        return mListeners.get().length == 0;
+    }
+
+    private static int indexOf(Object[] listeners, Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.longway.core.util;
+
+import android.util.Log;
+
+/**
+ * forwards to {@link Log} on a device and to stderr on a plain JVM, so the socket core can
+ * be benchmarked and load tested without a device. {@link Log} is only touched on Android.
+ */
+public final class Logger {
+    public static final int DEBUG = 3;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    private static final boolean ANDROID = "Dalvik".equals(System.getProperty("java.vm.name"));
+    private static volatile int sJvmLevel = WARN;
+
+    private Logger() {
+    }
+
+    /**
+     * lowest level printed on a plain JVM, devices use the level of {@link Log}
+     */
+    public static void setJvmLevel(int level) {
+        sJvmLevel = level;
+    }
+
+    public static void d(String tag, String msg) {
+        if (ANDROID) {
+            Log.d(tag, msg);
+        } else {
+            print(DEBUG, tag, msg, null);
+        }
+    }
+
+    public static void w(String tag, String msg) {
+        if (ANDROID) {
+            Log.w(tag, msg);
+        } else {
+            print(WARN, tag, msg, null);
+        }
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        if (ANDROID) {
+            Log.w(tag, msg, tr);
+        } else {
+            print(WARN, tag, msg, tr);
+        }
+    }
+
+    public static void e(String tag, String msg) {
+        if (ANDROID) {
+            Log.e(tag, msg);
+        } else {
+            print(ERROR, tag, msg, null);
+        }
+    }
+
+    private static void print(int level, String tag, String msg, Throwable tr) {
+        if (level < sJvmLevel) {
+            return;
+        }
+        System.err.println(tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.longway.core.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * unbounded multi-producer single-consumer queue after Dmitry Vyukov's intrusive design.
+ * {@link #offer(Object)} is one atomic swap and never retries, so producers do not contend
+ * with each other beyond that swap. {@link #poll()} and {@link #isEmpty()} must only be
+ * called by the single consumer thread.
+ */
+public final class MpscLinkedQueue<E> {
+    private final AtomicReference<Node<E>> mTail;
+    // consumer only
+    private Node<E> mHead;
+
+    public MpscLinkedQueue() {
+        Node<E> stub = new Node<>(null);
+        mHead = stub;
+        mTail = new AtomicReference<>(stub);
+    }
+
+    public void offer(E e) {
+        if (e == null) {
+            throw new NullPointerException("e==null");
+        }
+        Node<E> node = new Node<>(e);
+        Node<E> previous = mTail.getAndSet(node);
+        // between the swap and this store the consumer sees the queue as empty
+        previous.lazySetNext(node);
+    }
+
+    /**
+     * @return the oldest element, or null when empty or a producer is half way through offer
+     */
+    public E poll() {
+        Node<E> next = mHead.mNext;
+        if (next == null) {
+            return null;
+        }
+        E value = next.mValue;
+        next.mValue = null;
+        mHead = next;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return mHead.mNext == null && mHead == mTail.get();
+    }
+
+    private static final class Node<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "mNext");
+
+        E mValue;
+        volatile Node<E> mNext;
+
+        Node(E value) {
+            mValue = value;
+        }
+
+        void lazySetNext(Node<E> next) {
+            NEXT.lazySet(this, next);
+        }
+    }
+}
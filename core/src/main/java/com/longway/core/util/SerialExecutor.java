@@ -0,0 +1,80 @@
+package com.longway.core.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * runs tasks on a shared {@link Executor} one at a time and in the order they were submitted,
+ * so the messages of one connection stay in order while those of different connections are
+ * handled in parallel. submitting is a queue offer and at most one task handed to the executor
+ * per idle period. a drain gives its thread back after {@link #MAX_BATCH} tasks so one busy
+ * connection does not starve the others.
+ */
+public final class SerialExecutor implements Executor {
+    private static final String TAG = SerialExecutor.class.getSimpleName();
+    private static final int MAX_BATCH = 64;
+    private final Executor mExecutor;
+    private final MpscLinkedQueue<Runnable> mTasks = new MpscLinkedQueue<>();
+    /**
+     * true while a drain is submitted or running, only that drain polls the queue
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public SerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor==null.");
+        }
+        this.mExecutor = executor;
+    }
+
+    /**
+     * @throws RejectedExecutionException when the executor rejects the drain, {@code task}
+     *                                    stays queued for the next submission
+     */
+    @Override
+    public void execute(Runnable task) {
+        mTasks.offer(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            try {
+                mExecutor.execute(mDrain);
+            } catch (RejectedExecutionException e) {
+                mScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                Runnable task = mTasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // one failing task must not stall the ones behind it
+                    Logger.w(TAG, "task failed", e);
+                }
+            }
+        } finally {
+            mScheduled.set(false);
+            // a task offered after the last poll found the drain still scheduled
+            if (!mTasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.longway.core.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counter updated by many threads at once. every thread adds to one of several cells, each on
+ * a cache line of its own, picked by its thread id, so writers on different cores rarely touch
+ * the same line. reading sums the cells and may miss an add that is in progress.
+ */
+public final class StripedCounter {
+    /**
+     * longs per 64 byte cache line
+     */
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private final AtomicLongArray mCells = new AtomicLongArray((STRIPES + 1) * PADDING);
+
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        // thread ids are handed out in sequence, their low bits spread threads over the cells
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        // the first line is left empty, it is shared with the header of the array
+        mCells.getAndAdd((stripe + 1) * PADDING, delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 1; i <= STRIPES; i++) {
+            sum += mCells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * not atomic with respect to concurrent {@link #add(long)} calls
+     */
+    public void reset() {
+        for (int i = 1; i <= STRIPES; i++) {
+            mCells.set(i * PADDING, 0);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.longway.core.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToTheSizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(12);
+        assertEquals(256, pool.acquire(0).buffer().capacity());
+        assertEquals(256, pool.acquire(256).buffer().capacity());
+        assertEquals(512, pool.acquire(257).buffer().capacity());
+        PooledByteBuffer largest = pool.acquire(4096);
+        assertEquals(4096, largest.buffer().capacity());
+        assertTrue(largest.buffer().isDirect());
+    }
+
+    @Test
+    public void largerThanTheBiggestClassIsNotPooled() {
+        ByteBufferPool pool = new ByteBufferPool(12);
+        PooledByteBuffer pooled = pool.acquire(4097);
+        assertEquals(4097, pooled.buffer().capacity());
+        assertFalse(pooled.buffer().isDirect());
+        assertTrue(pooled.release());
+        assertNotSame(pooled, pool.acquire(4097));
+    }
+
+    @Test
+    public void lastReleaseRecyclesTheBuffer() {
+        ByteBufferPool pool = new ByteBufferPool(12);
+        PooledByteBuffer pooled = pool.acquire(1000);
+        assertEquals(1, pooled.refCnt());
+        assertSame(pooled, pooled.retain());
+        assertEquals(2, pooled.refCnt());
+        assertFalse(pooled.release());
+        // still referenced, a new acquire must not get it
+        assertNotSame(pooled, pool.acquire(1000));
+        pooled.buffer().putInt(42);
+        assertTrue(pooled.release());
+        assertEquals(0, pooled.refCnt());
+
+        PooledByteBuffer again = pool.acquire(1000);
+        assertSame(pooled, again);
+        assertEquals(1, again.refCnt());
+        assertEquals(0, again.buffer().position());
+        assertEquals(again.buffer().capacity(), again.buffer().limit());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseAfterTheLastReferenceFails() {
+        PooledByteBuffer pooled = new ByteBufferPool(12).acquire(16);
+        pooled.release();
+        pooled.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void retainAfterTheLastReferenceFails() {
+        PooledByteBuffer pooled = new ByteBufferPool(12).acquire(16);
+        pooled.release();
+        pooled.retain();
+    }
+
+    @Test
+    public void viewsAreReadOnlyAndIndependent() {
+        PooledByteBuffer pooled = new ByteBufferPool(12).acquire(16);
+        pooled.buffer().putInt(7).flip();
+        ByteBuffer first = pooled.view(0);
+        ByteBuffer second = pooled.view(3);
+        assertSame(first, pooled.view(0));
+        assertNotSame(first, second);
+        assertTrue(first.isReadOnly());
+        first.position(2);
+        assertEquals(0, second.position());
+        assertEquals(7, second.getInt(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacityFails() {
+        new ByteBufferPool(12).acquire(-1);
+    }
+}
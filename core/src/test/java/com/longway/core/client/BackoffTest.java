@@ -0,0 +1,100 @@
+package com.longway.core.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+    private static final long BASE = 100;
+    private static final long MAX = 10000;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void fullJitterStaysBelowTheGrowingCeiling() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Backoff backoff = new Backoff(Backoff.FULL_JITTER, BASE, MAX, 60000);
+            for (int attempt = 0; attempt < 40; attempt++) {
+                final long delay = backoff.nextDelay();
+                final long ceiling = Math.min(MAX, BASE << Math.min(attempt, 30));
+                assertTrue(attempt + ": " + delay, delay >= 0 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void fullJitterSpreadsOverTheWholeRange() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            Backoff backoff = new Backoff(Backoff.FULL_JITTER, BASE, MAX, 60000);
+            for (int attempt = 0; attempt < 20; attempt++) {
+                backoff.nextDelay();
+            }
+            final long delay = backoff.nextDelay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(String.valueOf(min), min < MAX / 4);
+        assertTrue(String.valueOf(max), max > MAX * 3 / 4);
+    }
+
+    @Test
+    public void decorrelatedJitterStaysWithinThreeTimesThePreviousDelay() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Backoff backoff = new Backoff(Backoff.DECORRELATED_JITTER, BASE, MAX, 60000);
+            long previous = BASE;
+            for (int attempt = 0; attempt < 40; attempt++) {
+                final long delay = backoff.nextDelay();
+                assertTrue(attempt + ": " + delay, delay >= BASE);
+                assertTrue(attempt + ": " + delay, delay <= Math.min(MAX, previous * 3));
+                previous = delay;
+            }
+        }
+    }
+
+    @Test
+    public void shortConnectionKeepsBackingOff() {
+        long max = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            Backoff backoff = new Backoff(Backoff.FULL_JITTER, 1, MAX, 60000);
+            for (int attempt = 0; attempt < 20; attempt++) {
+                backoff.nextDelay();
+            }
+            backoff.onConnected();
+            // started over this would be at most the base of 1
+            max = Math.max(max, backoff.nextDelay());
+        }
+        assertTrue(String.valueOf(max), max > 1);
+    }
+
+    @Test
+    public void connectionLastingTheResetTimeStartsOver() {
+        Backoff backoff = new Backoff(Backoff.FULL_JITTER, BASE, MAX, 0);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            backoff.nextDelay();
+        }
+        backoff.onConnected();
+        assertTrue(backoff.nextDelay() <= BASE);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        Backoff backoff = new Backoff(Backoff.DECORRELATED_JITTER, BASE, MAX, 60000);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        final long delay = backoff.nextDelay();
+        assertTrue(String.valueOf(delay), delay >= BASE && delay <= BASE * 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownJitterFails() {
+        new Backoff(2, BASE, MAX, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxBelowBaseFails() {
+        new Backoff(Backoff.FULL_JITTER, BASE, BASE - 1, 0);
+    }
+}
@@ -0,0 +1,176 @@
+package com.longway.core.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectorTest {
+    private static final long TIMEOUT = 500;
+    private static final long ATTEMPT_DELAY = 100;
+
+    private Selector mSelector;
+    private ServerSocketChannel mListener;
+    private int mPort;
+    private final List<SocketChannel> mChannels = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mSelector = Selector.open();
+        mListener = ServerSocketChannel.open();
+        // nothing listens on 127.0.0.2 at this port, connecting there is refused
+        mListener.bind(new InetSocketAddress(address("127.0.0.1"), 0), 1);
+        mPort = mListener.socket().getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : mChannels) {
+            channel.close();
+        }
+        for (SelectionKey key : mSelector.keys()) {
+            key.channel().close();
+        }
+        mSelector.close();
+        mListener.close();
+    }
+
+    @Test
+    public void familiesAlternateStartingWithTheFirst() throws IOException {
+        InetAddress v4a = address("10.0.0.1");
+        InetAddress v4b = address("10.0.0.2");
+        InetAddress v4c = address("10.0.0.3");
+        InetAddress v6a = address("2001:db8::1");
+        InetAddress v6b = address("2001:db8::2");
+
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c),
+                Connector.sortAddresses(new InetAddress[]{v6a, v6b, v4a, v4b, v4c}));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c),
+                Connector.sortAddresses(new InetAddress[]{v4a, v4b, v4c, v6a, v6b}));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b),
+                Connector.sortAddresses(new InetAddress[]{v4a, v6a, v6b, v4b}));
+    }
+
+    @Test
+    public void oneFamilyKeepsTheResolverOrder() throws IOException {
+        InetAddress a = address("10.0.0.2");
+        InetAddress b = address("10.0.0.1");
+        assertEquals(Arrays.asList(a, b), Connector.sortAddresses(new InetAddress[]{a, b}));
+        assertEquals(Collections.<InetAddress>emptyList(), Connector.sortAddresses(new InetAddress[0]));
+    }
+
+    @Test
+    public void refusedAddressFailsOverToTheListener() throws IOException {
+        final Object attachment = new Object();
+        Connector connector = new Connector(mSelector, attachment, TIMEOUT, ATTEMPT_DELAY);
+        SelectionKey winner = race(connector, address("127.0.0.2"), address("127.0.0.1"));
+
+        SocketChannel channel = (SocketChannel) winner.channel();
+        assertTrue(channel.isConnected());
+        assertEquals(new InetSocketAddress(address("127.0.0.1"), mPort), channel.getRemoteAddress());
+        assertSame(attachment, winner.attachment());
+        assertEquals(SelectionKey.OP_READ, winner.interestOps());
+        mSelector.selectNow();
+        assertEquals(Collections.singleton(winner), mSelector.keys());
+    }
+
+    @Test
+    public void refusedEverywhereThrowsTheFailure() throws IOException {
+        mListener.close();
+        Connector connector = new Connector(mSelector, null, TIMEOUT, ATTEMPT_DELAY);
+        final long start = System.nanoTime();
+        try {
+            race(connector, address("127.0.0.2"), address("127.0.0.1"));
+            fail("connected to a closed port");
+        } catch (IOException e) {
+            // refusals do not wait for the deadline
+            assertFalse(e instanceof SocketTimeoutException);
+            assertTrue(elapsedMillis(start) < TIMEOUT);
+        }
+        mSelector.selectNow();
+        assertTrue(mSelector.keys().isEmpty());
+    }
+
+    @Test
+    public void stalledListenerTimesOutAtTheDeadline() throws IOException {
+        fillBacklog();
+        Connector connector = new Connector(mSelector, null, TIMEOUT, ATTEMPT_DELAY);
+        final long start = System.nanoTime();
+        try {
+            race(connector, address("127.0.0.2"), address("127.0.0.1"));
+            fail("connected to a full backlog");
+        } catch (SocketTimeoutException e) {
+            // the refused attempt does not end the race while the other is pending
+            final long elapsed = elapsedMillis(start);
+            assertTrue(String.valueOf(elapsed), elapsed >= TIMEOUT && elapsed < TIMEOUT + 1000);
+        }
+        mSelector.selectNow();
+        assertTrue(mSelector.keys().isEmpty());
+    }
+
+    /**
+     * drives the race the way {@link Connector#connect(String, int)} does, with fixed addresses
+     */
+    private SelectionKey race(Connector connector, InetAddress... addresses) throws IOException {
+        SelectionKey winner = connector.start("test", mPort, addresses);
+        while (winner == null) {
+            long wait = connector.nextTimer() - System.nanoTime();
+            mSelector.select(Math.max(1, wait / 1000000L));
+            for (SelectionKey key : mSelector.selectedKeys()) {
+                if (winner == null) {
+                    winner = connector.onConnectable(key);
+                }
+            }
+            mSelector.selectedKeys().clear();
+            if (winner == null) {
+                winner = connector.onTimer();
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * connects until the accept queue is full and the listener drops further handshakes
+     */
+    private void fillBacklog() throws IOException {
+        for (int i = 0; i < 64; i++) {
+            SocketChannel channel = SocketChannel.open();
+            mChannels.add(channel);
+            channel.configureBlocking(false);
+            if (channel.connect(mListener.getLocalAddress())) {
+                continue;
+            }
+            try {
+                Thread.sleep(ATTEMPT_DELAY);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            if (!channel.finishConnect()) {
+                return;
+            }
+        }
+        fail("the backlog never filled up");
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static InetAddress address(String literal) throws IOException {
+        return InetAddress.getByName(literal);
+    }
+}
@@ -0,0 +1,207 @@
+package com.longway.core.client;
+
+import com.longway.core.codec.HeartbeatFrame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveThreadTest {
+    private static final long TOLERANCE_MICROS = TimeUnit.MILLISECONDS.toMicros(50);
+
+    private FakeClient mClient;
+    private KeepAliveThread mKeepAlive;
+
+    @Before
+    public void setUp() {
+        mClient = new FakeClient();
+        mKeepAlive = new KeepAliveThread(mClient);
+    }
+
+    @Test
+    public void pongOfTheLastPingEndsTheWait() {
+        mKeepAlive.setHeartbeat(1000, 60000, 3);
+        assertEquals(60000, mKeepAlive.keepAlive());
+        assertEquals(1, mClient.mPings.size());
+
+        // an older sequence does not answer the ping in flight
+        mKeepAlive.onPong(sequence(0) - 1, timestamp(0));
+        assertTrue(mKeepAlive.keepAlive() > 0);
+        assertEquals(1, mClient.mPings.size());
+
+        mKeepAlive.onPong(sequence(0), timestamp(0));
+        assertEquals(60000, mKeepAlive.keepAlive());
+        assertEquals(2, mClient.mPings.size());
+        assertEquals(sequence(0) + 1, sequence(1));
+        assertEquals(0, mClient.mTimeouts);
+    }
+
+    @Test
+    public void missedPongsDeclareTheConnectionDead() throws InterruptedException {
+        mKeepAlive.setHeartbeat(1000, 1, 3);
+        mKeepAlive.keepAlive();
+        for (int i = 1; i < 3; i++) {
+            Thread.sleep(5);
+            // a missed pong is chased by another ping at once
+            assertEquals(1, mKeepAlive.keepAlive());
+            assertEquals(i + 1, mClient.mPings.size());
+            assertEquals(0, mClient.mTimeouts);
+        }
+        Thread.sleep(5);
+        assertEquals(1000, mKeepAlive.keepAlive());
+        assertEquals(3, mClient.mPings.size());
+        assertEquals(1, mClient.mTimeouts);
+        assertEquals(3, mClient.mMissedPongs);
+
+        // the count starts over for the next connection
+        mKeepAlive.keepAlive();
+        assertEquals(4, mClient.mPings.size());
+        assertEquals(1, mClient.mTimeouts);
+    }
+
+    @Test
+    public void latePongResetsTheMissedCount() throws InterruptedException {
+        mKeepAlive.setHeartbeat(1000, 1, 2);
+        mKeepAlive.keepAlive();
+        Thread.sleep(5);
+        mKeepAlive.keepAlive();
+        assertEquals(2, mClient.mPings.size());
+
+        // the pong of the first ping arrives after the second ping went out
+        mKeepAlive.onPong(sequence(0), timestamp(0));
+        Thread.sleep(5);
+        mKeepAlive.keepAlive();
+        assertEquals(0, mClient.mTimeouts);
+        assertEquals(3, mClient.mPings.size());
+
+        Thread.sleep(5);
+        mKeepAlive.keepAlive();
+        assertEquals(1, mClient.mTimeouts);
+        assertEquals(2, mClient.mMissedPongs);
+    }
+
+    @Test
+    public void noPingWhileDisconnectedOrBusy() {
+        mKeepAlive.setHeartbeat(1000, 60000, 3);
+        mClient.mConnected = false;
+        assertEquals(1000, mKeepAlive.keepAlive());
+        mClient.mConnected = true;
+        mClient.mLastActive = System.currentTimeMillis();
+        final long next = mKeepAlive.keepAlive();
+        assertTrue(String.valueOf(next), next > 0 && next <= 1000);
+        assertTrue(mClient.mPings.isEmpty());
+    }
+
+    @Test
+    public void roundTripIsSmoothed() {
+        assertEquals(0, mKeepAlive.getSmoothedRtt());
+        pong(800);
+        assertMicros(800, mKeepAlive.getRtt());
+        assertMicros(800, mKeepAlive.getSmoothedRtt());
+        assertMicros(400, mKeepAlive.getJitter());
+
+        // RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R
+        pong(1600);
+        assertMicros(1600, mKeepAlive.getRtt());
+        assertMicros(900, mKeepAlive.getSmoothedRtt());
+        assertMicros(500, mKeepAlive.getJitter());
+
+        pong(900);
+        assertMicros(900, mKeepAlive.getRtt());
+        assertMicros(900, mKeepAlive.getSmoothedRtt());
+        assertMicros(375, mKeepAlive.getJitter());
+    }
+
+    @Test
+    public void pongFromTheFutureIsNoSample() {
+        pong(800);
+        mKeepAlive.onPong(0, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertMicros(800, mKeepAlive.getRtt());
+        assertMicros(800, mKeepAlive.getSmoothedRtt());
+    }
+
+    @Test
+    public void resetForgetsTheSamples() {
+        pong(800);
+        mKeepAlive.reset();
+        assertEquals(0, mKeepAlive.getRtt());
+        assertEquals(0, mKeepAlive.getSmoothedRtt());
+        assertEquals(0, mKeepAlive.getJitter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heartbeatRejectsZeroMisses() {
+        mKeepAlive.setHeartbeat(1000, 1000, 0);
+    }
+
+    private void pong(long rttMillis) {
+        mKeepAlive.onPong(0, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(rttMillis));
+    }
+
+    private static void assertMicros(long expectedMillis, long actualMicros) {
+        final long expected = TimeUnit.MILLISECONDS.toMicros(expectedMillis);
+        assertTrue(expected + " != " + actualMicros, Math.abs(expected - actualMicros) <= TOLERANCE_MICROS);
+    }
+
+    private int sequence(int ping) {
+        return HeartbeatFrame.sequence(ByteBuffer.wrap(mClient.mPings.get(ping)));
+    }
+
+    private long timestamp(int ping) {
+        return HeartbeatFrame.timestamp(ByteBuffer.wrap(mClient.mPings.get(ping)));
+    }
+
+    /**
+     * a client that is never started, pings are collected instead of written
+     */
+    private static class FakeClient extends SocketChannelClient {
+        final ArrayList<byte[]> mPings = new ArrayList<>();
+        final WriteWorker mWriteWorker;
+        boolean mConnected = true;
+        long mLastActive;
+        int mTimeouts;
+        int mMissedPongs;
+
+        FakeClient() {
+            super("127.0.0.1", 1);
+            mWriteWorker = new WriteWorker("test", this) {
+                @Override
+                boolean sendControl(byte[] msg, int flags) {
+                    mPings.add(msg);
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        @Override
+        public long getLastActiveSendTime() {
+            return mLastActive;
+        }
+
+        @Override
+        public long getLastActiveReceiveTime() {
+            return mLastActive;
+        }
+
+        @Override
+        WriteWorker getWriteWorker() {
+            return mWriteWorker;
+        }
+
+        @Override
+        void onHeartbeatTimeout(int missedPongs) {
+            mTimeouts++;
+            mMissedPongs = missedPongs;
+        }
+    }
+}
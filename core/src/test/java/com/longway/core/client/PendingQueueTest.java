@@ -0,0 +1,104 @@
+package com.longway.core.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class PendingQueueTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CAPACITY = 4096;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void rejectsOverTheLimitWithoutJournal() {
+        PendingQueue queue = new PendingQueue(10, null);
+        assertTrue(queue.offer(message("12345")));
+        assertTrue(queue.offer(message("67890")));
+        assertFalse(queue.offer(message("x")));
+        assertEquals(2, queue.size());
+        assertEquals("12345", string(queue.poll()));
+        assertTrue(queue.offer(message("x")));
+        assertEquals("67890", string(queue.poll()));
+        assertEquals("x", string(queue.poll()));
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void spillsInOrderOnceMemoryIsFull() throws Exception {
+        PendingQueue queue = new PendingQueue(10, new SpillJournal(mFolder.newFile(), CAPACITY));
+        assertTrue(queue.offer(message("12345")));
+        assertTrue(queue.offer(message("67890")));
+        assertTrue(queue.offer(message("spilled")));
+        assertEquals("12345", string(queue.poll()));
+        // memory has room again, but the journal is not empty so this goes behind it
+        assertTrue(queue.offer(message("a")));
+        assertEquals(3, queue.size());
+        assertEquals("67890", string(queue.poll()));
+        assertEquals("spilled", string(queue.poll()));
+        assertEquals("a", string(queue.poll()));
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void journalRecordsKeepTheirListeners() throws Exception {
+        PendingQueue queue = new PendingQueue(0, new SpillJournal(mFolder.newFile(), CAPACITY));
+        SendListener listener = new SendListener() {
+            @Override
+            public void onSendComplete(boolean success) {
+            }
+        };
+        queue.offer(OutboundMessage.wrap("a".getBytes(UTF_8), null));
+        queue.offer(OutboundMessage.wrap("b".getBytes(UTF_8), listener));
+        queue.offer(OutboundMessage.wrap("c".getBytes(UTF_8), null));
+        assertNull(queue.poll().listener());
+        assertSame(listener, queue.poll().listener());
+        assertNull(queue.poll().listener());
+    }
+
+    @Test
+    public void rejectsWhenTheJournalIsFull() throws Exception {
+        PendingQueue queue = new PendingQueue(0, new SpillJournal(mFolder.newFile(), 64));
+        assertTrue(queue.offer(OutboundMessage.wrap(new byte[52], null)));
+        assertFalse(queue.offer(message("x")));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void replaysTheJournalOfAPreviousProcess() throws Exception {
+        File file = mFolder.newFile();
+        PendingQueue queue = new PendingQueue(0, new SpillJournal(file, CAPACITY));
+        queue.offer(message("one"));
+        queue.offer(message("two"));
+        queue.offer(message("three"));
+        assertEquals("one", string(queue.poll()));
+        queue.commit();
+
+        PendingQueue recovered = new PendingQueue(0, new SpillJournal(file, CAPACITY));
+        assertEquals(2, recovered.size());
+        assertFalse(recovered.isEmpty());
+        assertEquals("two", string(recovered.poll()));
+        assertEquals("three", string(recovered.poll()));
+        assertNull(recovered.poll());
+        recovered.commit();
+        recovered.recycle();
+
+        assertTrue(new PendingQueue(0, new SpillJournal(file, CAPACITY)).isEmpty());
+    }
+
+    private static OutboundMessage message(String s) {
+        return OutboundMessage.wrap(s.getBytes(UTF_8), null);
+    }
+
+    private static String string(OutboundMessage message) {
+        return SpillJournalTest.string(message.payload());
+    }
+}
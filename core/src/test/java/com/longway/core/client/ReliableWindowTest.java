@@ -0,0 +1,142 @@
+package com.longway.core.client;
+
+import com.longway.core.codec.ReliableFrame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReliableWindowTest {
+
+    @Test
+    public void opensOncePerConnection() {
+        ReliableWindow window = new ReliableWindow(4);
+        assertNull(window.takeOpen());
+        window.onConnected();
+        byte[] open = window.takeOpen();
+        assertNotNull(open);
+        assertEquals(ReliableFrame.OPEN_LENGTH, open.length);
+        assertEquals(ReliableFrame.OPEN, ReliableFrame.type(ByteBuffer.wrap(open)));
+        assertNull(window.takeOpen());
+        window.onConnected();
+        // the same stream id on every connection
+        assertArrayEquals(open, window.takeOpen());
+    }
+
+    @Test
+    public void ackCompletesEverythingUpToItsSequence() {
+        ReliableWindow window = new ReliableWindow(8);
+        Completions completions = new Completions();
+        assertEquals(1, window.add(completions.message()));
+        assertEquals(2, window.add(completions.message()));
+        assertEquals(3, window.add(completions.message()));
+        window.onAck(2);
+        assertEquals(2, completions.mResults.size());
+        assertTrue(completions.mResults.get(0));
+        // duplicate and stale acks are ignored
+        window.onAck(2);
+        window.onAck(1);
+        assertEquals(2, completions.mResults.size());
+        window.onAck(3);
+        assertEquals(3, completions.mResults.size());
+    }
+
+    @Test
+    public void ackOfAnUnsentSequenceIsIgnored() {
+        ReliableWindow window = new ReliableWindow(8);
+        Completions completions = new Completions();
+        window.add(completions.message());
+        assertFalse(window.onAck(2));
+        assertFalse(window.onAck(100));
+        assertTrue(completions.mResults.isEmpty());
+    }
+
+    @Test
+    public void fullWindowWaitsForAcks() {
+        ReliableWindow window = new ReliableWindow(3);
+        Completions completions = new Completions();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(window.hasRoom());
+            window.add(completions.message());
+        }
+        assertFalse(window.hasRoom());
+        assertTrue(window.onAck(1));
+        assertTrue(window.hasRoom());
+        window.add(completions.message());
+        assertFalse(window.hasRoom());
+        assertTrue(window.onAck(2));
+        assertFalse(window.onAck(3));
+    }
+
+    @Test
+    public void reconnectRetransmitsTheUnackedInOrder() {
+        ReliableWindow window = new ReliableWindow(8);
+        Completions completions = new Completions();
+        List<OutboundMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            OutboundMessage message = completions.message();
+            messages.add(message);
+            window.add(message);
+            // consumed by the write
+            message.payload().position(message.payload().limit());
+        }
+        assertFalse(window.hasRetransmit());
+        window.onAck(1);
+        window.onConnected();
+        for (int seq = 2; seq <= 4; seq++) {
+            assertTrue(window.hasRetransmit());
+            assertEquals(seq, window.retransmitSeq());
+            OutboundMessage message = window.nextRetransmit();
+            assertSame(messages.get(seq - 1), message);
+            assertEquals(1, message.payload().remaining());
+        }
+        assertFalse(window.hasRetransmit());
+    }
+
+    @Test
+    public void ackDuringRetransmitSkipsTheAcked() {
+        ReliableWindow window = new ReliableWindow(8);
+        Completions completions = new Completions();
+        for (int i = 0; i < 4; i++) {
+            window.add(completions.message());
+        }
+        window.onConnected();
+        assertEquals(1, window.retransmitSeq());
+        window.nextRetransmit();
+        window.onAck(3);
+        assertEquals(4, window.retransmitSeq());
+    }
+
+    @Test
+    public void sequencesWrapAroundTheRing() {
+        ReliableWindow window = new ReliableWindow(2);
+        Completions completions = new Completions();
+        for (int seq = 1; seq <= 100; seq++) {
+            assertEquals(seq, window.add(completions.message()));
+            window.onAck(seq);
+        }
+        assertEquals(100, completions.mResults.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyWindowFails() {
+        new ReliableWindow(0);
+    }
+
+    private static final class Completions {
+        final List<Boolean> mResults = new ArrayList<>();
+
+        OutboundMessage message() {
+            return OutboundMessage.wrap(new byte[]{1}, new SendListener() {
+                @Override
+                public void onSendComplete(boolean success) {
+                    mResults.add(success);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.longway.core.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class SpillJournalTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CAPACITY = 4096;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void pollsInAppendOrder() throws Exception {
+        SpillJournal journal = new SpillJournal(mFolder.newFile(), CAPACITY);
+        assertTrue(journal.isEmpty());
+        assertNull(journal.poll());
+        assertTrue(journal.append(wrap("a"), false));
+        assertTrue(journal.append(wrap("bb"), true));
+        assertEquals(2, journal.size());
+        assertEquals("a", string(journal.poll()));
+        assertFalse(journal.isMarked());
+        assertEquals("bb", string(journal.poll()));
+        assertTrue(journal.isMarked());
+        assertNull(journal.poll());
+        assertTrue(journal.isEmpty());
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void appendFailsWhenFull() throws Exception {
+        SpillJournal journal = new SpillJournal(mFolder.newFile(), 64);
+        // 8 bytes of header, 4 bytes per record header
+        assertTrue(journal.append(ByteBuffer.allocate(40), false));
+        assertFalse(journal.append(ByteBuffer.allocate(9), false));
+        assertTrue(journal.append(ByteBuffer.allocate(8), false));
+        assertFalse(journal.append(ByteBuffer.allocate(1), false));
+        assertFalse(journal.append(ByteBuffer.allocate(0), false));
+        assertEquals(2, journal.size());
+    }
+
+    @Test
+    public void recycleStartsOverOnceEverythingWasRead() throws Exception {
+        SpillJournal journal = new SpillJournal(mFolder.newFile(), 64);
+        assertTrue(journal.append(ByteBuffer.allocate(52), false));
+        assertNotNull(journal.poll());
+        // nothing is reused while a record may still be in use
+        assertFalse(journal.append(ByteBuffer.allocate(1), false));
+        journal.recycle();
+        assertTrue(journal.append(ByteBuffer.allocate(52), false));
+    }
+
+    @Test
+    public void recoversTheRecordsNotCommitted() throws Exception {
+        File file = mFolder.newFile();
+        SpillJournal journal = new SpillJournal(file, CAPACITY);
+        journal.append(wrap("one"), false);
+        journal.append(wrap("two"), true);
+        journal.append(wrap("three"), false);
+        journal.poll();
+        journal.commit();
+        // read but not committed, written again after a restart
+        journal.poll();
+
+        SpillJournal recovered = new SpillJournal(file, CAPACITY);
+        assertEquals(2, recovered.size());
+        assertEquals("two", string(recovered.poll()));
+        // the listener of the mark is gone with the previous process
+        assertFalse(recovered.isMarked());
+        assertEquals("three", string(recovered.poll()));
+        assertNull(recovered.poll());
+        assertTrue(recovered.append(wrap("four"), false));
+        assertEquals("four", string(recovered.poll()));
+    }
+
+    @Test
+    public void fileOfAnotherSizeStartsEmpty() throws Exception {
+        File file = mFolder.newFile();
+        new SpillJournal(file, CAPACITY).append(wrap("old"), false);
+        SpillJournal journal = new SpillJournal(file, CAPACITY * 2);
+        assertTrue(journal.isEmpty());
+        assertEquals(CAPACITY * 2, file.length());
+    }
+
+    @Test
+    public void corruptHeaderStartsEmpty() throws Exception {
+        File file = mFolder.newFile();
+        new SpillJournal(file, CAPACITY).append(wrap("old"), false);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.writeInt(0);
+        } finally {
+            randomAccessFile.close();
+        }
+        SpillJournal journal = new SpillJournal(file, CAPACITY);
+        assertTrue(journal.isEmpty());
+        assertNull(journal.poll());
+    }
+
+    @Test
+    public void tornAppendIsNotRecovered() throws Exception {
+        File file = mFolder.newFile();
+        new SpillJournal(file, CAPACITY).append(wrap("kept"), false);
+        // a length running past the end of the file, as left by a torn write
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(8 + 4 + 4);
+            randomAccessFile.writeInt(CAPACITY);
+        } finally {
+            randomAccessFile.close();
+        }
+        SpillJournal journal = new SpillJournal(file, CAPACITY);
+        assertEquals(1, journal.size());
+        assertEquals("kept", string(journal.poll()));
+        assertNull(journal.poll());
+    }
+
+    static ByteBuffer wrap(String s) {
+        return ByteBuffer.wrap(s.getBytes(UTF_8));
+    }
+
+    static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package com.longway.core.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class CompressorTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] DICTIONARY =
+            "{\"type\":\"message\",\"from\":\"\",\"to\":\"\",\"timestamp\":,\"body\":\"\"}".getBytes(UTF_8);
+    private static final byte[] JSON =
+            "{\"type\":\"message\",\"from\":\"alice\",\"to\":\"bob\",\"timestamp\":1485216000,\"body\":\"hi\"}".getBytes(UTF_8);
+
+    @Test
+    public void belowTheThresholdIsNotCompressed() {
+        Compressor compressor = new Compression(100).newCompressor();
+        assertNull(compressor.compress(ByteBuffer.wrap(new byte[99])));
+        assertNotNull(compressor.compress(ByteBuffer.wrap(new byte[100])));
+    }
+
+    @Test
+    public void incompressiblePayloadIsNotCompressed() {
+        byte[] random = new byte[1000];
+        new Random(1).nextBytes(random);
+        assertNull(new Compression(1).newCompressor().compress(ByteBuffer.wrap(random)));
+    }
+
+    @Test
+    public void roundTripsHeapAndDirectPayloads() throws Exception {
+        Compression compression = new Compression(1);
+        Compressor sender = compression.newCompressor();
+        Compressor receiver = compression.newCompressor();
+        byte[] payload = repeat(JSON, 20);
+
+        ByteBuffer heap = ByteBuffer.wrap(payload);
+        ByteBuffer frame = sender.compress(heap);
+        assertEquals(0, heap.position());
+        assertTrue(frame.remaining() < payload.length);
+        assertEquals(0, CompressedFrame.dictionaryId(frame));
+        assertEquals(payload.length, CompressedFrame.originalLength(frame));
+        assertArrayEquals(payload, bytes(receiver.decompress(frame)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload).flip();
+        ByteBuffer directFrame = ByteBuffer.allocateDirect(1024);
+        directFrame.put(sender.compress(direct)).flip();
+        assertArrayEquals(payload, bytes(receiver.decompress(directFrame)));
+        assertFalse(directFrame.hasRemaining());
+    }
+
+    @Test
+    public void dictionaryShrinksShortPayloads() throws Exception {
+        Compressor plain = new Compression(1).newCompressor();
+        Compression withDictionary = new Compression(1, DICTIONARY);
+        ByteBuffer plainFrame = plain.compress(ByteBuffer.wrap(JSON));
+        final int plainLength = plainFrame == null ? JSON.length : plainFrame.remaining();
+        ByteBuffer frame = withDictionary.newCompressor().compress(ByteBuffer.wrap(JSON));
+        assertNotNull(frame);
+        assertTrue(frame.remaining() + " < " + plainLength, frame.remaining() < plainLength);
+        assertEquals(1, CompressedFrame.dictionaryId(frame));
+        assertArrayEquals(JSON, bytes(withDictionary.newCompressor().decompress(frame)));
+    }
+
+    @Test
+    public void olderDictionaryIsStillDecompressed() throws Exception {
+        ByteBuffer frame = new Compression(1, DICTIONARY).newCompressor().compress(ByteBuffer.wrap(JSON));
+        Compression newer = new Compression(1, DICTIONARY, "{\"version\":2}".getBytes(UTF_8));
+        assertArrayEquals(JSON, bytes(newer.newCompressor().decompress(frame)));
+    }
+
+    @Test(expected = FrameException.class)
+    public void unknownDictionaryFails() throws Exception {
+        ByteBuffer frame = new Compression(1, DICTIONARY).newCompressor().compress(ByteBuffer.wrap(JSON));
+        new Compression(1).newCompressor().decompress(frame);
+    }
+
+    @Test(expected = FrameException.class)
+    public void lengthAboveTheMaxFails() throws Exception {
+        byte[] payload = new byte[1000];
+        ByteBuffer frame = new Compression(1).newCompressor().compress(ByteBuffer.wrap(payload));
+        new Compression(1, Deflater.DEFAULT_COMPRESSION, 999).newCompressor().decompress(frame);
+    }
+
+    @Test(expected = FrameException.class)
+    public void moreDataThanTheLengthFails() throws Exception {
+        // a bomb lying about its length must not inflate past it
+        byte[] payload = new byte[100000];
+        ByteBuffer frame = new Compression(1).newCompressor().compress(ByteBuffer.wrap(payload));
+        frame.putInt(frame.position() + 1, 1000);
+        new Compression(1).newCompressor().decompress(frame);
+    }
+
+    @Test(expected = FrameException.class)
+    public void lessDataThanTheLengthFails() throws Exception {
+        ByteBuffer frame = new Compression(1).newCompressor().compress(ByteBuffer.wrap(new byte[1000]));
+        frame.putInt(frame.position() + 1, 2000);
+        new Compression(1).newCompressor().decompress(frame);
+    }
+
+    @Test(expected = FrameException.class)
+    public void truncatedFrameFails() throws Exception {
+        new Compression(1).newCompressor().decompress(ByteBuffer.wrap(new byte[CompressedFrame.HEADER_LENGTH]));
+    }
+
+    @Test(expected = FrameException.class)
+    public void corruptDataFails() throws Exception {
+        ByteBuffer frame = ByteBuffer.allocate(20);
+        frame.put((byte) 0).putInt(100);
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0xFF);
+        }
+        frame.flip();
+        new Compression(1).newCompressor().decompress(frame);
+    }
+
+    @Test
+    public void reusedForManyPayloads() throws Exception {
+        Compression compression = new Compression(1, DICTIONARY);
+        Compressor sender = compression.newCompressor();
+        Compressor receiver = compression.newCompressor();
+        for (int i = 1; i <= 50; i++) {
+            byte[] payload = repeat(JSON, i);
+            ByteBuffer frame = sender.compress(ByteBuffer.wrap(payload));
+            assertArrayEquals(payload, bytes(receiver.decompress(frame)));
+        }
+        sender.end();
+        receiver.end();
+    }
+
+    private static byte[] repeat(byte[] bytes, int times) {
+        ByteBuffer all = ByteBuffer.allocate(bytes.length * times);
+        for (int i = 0; i < times; i++) {
+            all.put(bytes);
+        }
+        return all.array();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
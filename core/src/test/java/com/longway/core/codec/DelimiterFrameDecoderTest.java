@@ -0,0 +1,72 @@
+package com.longway.core.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.longway.core.codec.Frames.bytes;
+import static com.longway.core.codec.Frames.concat;
+import static com.longway.core.codec.Frames.encode;
+import static org.junit.Assert.*;
+
+public class DelimiterFrameDecoderTest {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    @Test
+    public void decodesFramesSplitAcrossReads() throws Exception {
+        DelimiterFrameCodec codec = new DelimiterFrameCodec(CRLF, 1024);
+        FrameDecoder decoder = codec.newDecoder();
+        byte[] stream = concat(encode(codec, bytes(10, 'a'), FrameFlags.NONE),
+                encode(codec, new byte[0], FrameFlags.NONE),
+                encode(codec, bytes(3, 'b'), FrameFlags.NONE));
+        Frames.Collector collector = new Frames.Collector();
+        // one byte at a time, so the delimiter itself is split as well
+        for (byte b : stream) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), collector);
+        }
+        assertEquals(3, collector.mFrames.size());
+        assertArrayEquals(bytes(10, 'a'), collector.mFrames.get(0));
+        assertEquals(0, collector.mFrames.get(1).length);
+        assertArrayEquals(bytes(3, 'b'), collector.mFrames.get(2));
+        assertEquals(FrameFlags.NONE, (int) collector.mFlags.get(0));
+    }
+
+    @Test
+    public void growsUpToTheMaxFrameLength() throws Exception {
+        final int max = 20000;
+        DelimiterFrameCodec codec = new DelimiterFrameCodec(CRLF, max);
+        FrameDecoder decoder = codec.newDecoder();
+        byte[] payload = bytes(max, 'x');
+        byte[] stream = encode(codec, payload, FrameFlags.NONE);
+        Frames.Collector collector = new Frames.Collector();
+        for (int offset = 0; offset < stream.length; offset += 777) {
+            decoder.decode(ByteBuffer.wrap(stream, offset, Math.min(777, stream.length - offset)), collector);
+        }
+        assertEquals(1, collector.mFrames.size());
+        assertArrayEquals(payload, collector.mFrames.get(0));
+    }
+
+    @Test(expected = FrameException.class)
+    public void rejectsFrameAboveTheMax() throws Exception {
+        FrameDecoder decoder = new DelimiterFrameCodec(CRLF, 100).newDecoder();
+        Frames.Collector collector = new Frames.Collector();
+        decoder.decode(ByteBuffer.wrap(bytes(60, 'x')), collector);
+        decoder.decode(ByteBuffer.wrap(bytes(60, 'x')), collector);
+    }
+
+    @Test
+    public void resetDropsThePartialFrame() throws Exception {
+        FrameDecoder decoder = new DelimiterFrameCodec().newDecoder();
+        Frames.Collector collector = new Frames.Collector();
+        decoder.decode(ByteBuffer.wrap(bytes(5, 'x')), collector);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(new byte[]{'y', '\n'}), collector);
+        assertEquals(1, collector.mFrames.size());
+        assertArrayEquals(new byte[]{'y'}, collector.mFrames.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeHeaderRejectsFlags() {
+        new DelimiterFrameCodec().writeHeader(ByteBuffer.allocate(1), 1, FrameFlags.HEARTBEAT);
+    }
+}
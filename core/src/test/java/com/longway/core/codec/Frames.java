@@ -0,0 +1,53 @@
+package com.longway.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * builds encoded frames and collects decoded ones for the decoder tests
+ */
+final class Frames {
+    private Frames() {
+    }
+
+    static byte[] encode(FrameCodec codec, byte[] payload, int flags) {
+        ByteBuffer frame = ByteBuffer.allocate(codec.headerLength() + payload.length + codec.trailerLength());
+        codec.writeHeader(frame, payload.length, flags);
+        frame.put(payload);
+        codec.writeTrailer(frame);
+        return frame.array();
+    }
+
+    static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        ByteBuffer all = ByteBuffer.allocate(length);
+        for (byte[] part : parts) {
+            all.put(part);
+        }
+        return all.array();
+    }
+
+    static class Collector implements FrameHandler {
+        final List<byte[]> mFrames = new ArrayList<>();
+        final List<Integer> mFlags = new ArrayList<>();
+
+        @Override
+        public void onFrame(ByteBuffer frame, int flags) {
+            byte[] copy = new byte[frame.remaining()];
+            frame.get(copy);
+            mFrames.add(copy);
+            mFlags.add(flags);
+        }
+    }
+}
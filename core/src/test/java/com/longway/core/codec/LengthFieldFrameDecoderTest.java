@@ -0,0 +1,102 @@
+package com.longway.core.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.longway.core.codec.Frames.bytes;
+import static com.longway.core.codec.Frames.concat;
+import static com.longway.core.codec.Frames.encode;
+import static org.junit.Assert.*;
+
+public class LengthFieldFrameDecoderTest {
+
+    @Test
+    public void decodesFramesSplitAcrossReads() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+        FrameDecoder decoder = codec.newDecoder();
+        byte[] stream = concat(encode(codec, bytes(10, 1), FrameFlags.NONE),
+                encode(codec, bytes(3, 2), FrameFlags.HEARTBEAT));
+        Frames.Collector collector = new Frames.Collector();
+        // one byte at a time, so the header and the payload are both split
+        for (byte b : stream) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), collector);
+        }
+        assertEquals(2, collector.mFrames.size());
+        assertArrayEquals(bytes(10, 1), collector.mFrames.get(0));
+        assertEquals(FrameFlags.NONE, (int) collector.mFlags.get(0));
+        assertArrayEquals(bytes(3, 2), collector.mFrames.get(1));
+        assertEquals(FrameFlags.HEARTBEAT, (int) collector.mFlags.get(1));
+    }
+
+    @Test
+    public void decodesSeveralFramesOfOneRead() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec(2, 1024);
+        FrameDecoder decoder = codec.newDecoder();
+        byte[] stream = concat(encode(codec, bytes(5, 1), FrameFlags.NONE),
+                encode(codec, new byte[0], FrameFlags.NONE),
+                encode(codec, bytes(7, 3), FrameFlags.RELIABLE | FrameFlags.COMPRESSED));
+        Frames.Collector collector = new Frames.Collector();
+        decoder.decode(ByteBuffer.wrap(stream), collector);
+        assertEquals(3, collector.mFrames.size());
+        assertEquals(0, collector.mFrames.get(1).length);
+        assertArrayEquals(bytes(7, 3), collector.mFrames.get(2));
+        assertEquals(FrameFlags.RELIABLE | FrameFlags.COMPRESSED, (int) collector.mFlags.get(2));
+    }
+
+    @Test
+    public void growsUpToTheMaxFrameLength() throws Exception {
+        final int max = 64 * 1024;
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec(4, max);
+        FrameDecoder decoder = codec.newDecoder();
+        byte[] payload = bytes(max, 7);
+        byte[] stream = encode(codec, payload, FrameFlags.NONE);
+        Frames.Collector collector = new Frames.Collector();
+        for (int offset = 0; offset < stream.length; offset += 1000) {
+            decoder.decode(ByteBuffer.wrap(stream, offset, Math.min(1000, stream.length - offset)), collector);
+        }
+        assertEquals(1, collector.mFrames.size());
+        assertArrayEquals(payload, collector.mFrames.get(0));
+    }
+
+    @Test(expected = FrameException.class)
+    public void rejectsLengthAboveTheMax() throws Exception {
+        FrameDecoder decoder = new LengthFieldFrameCodec(4, 100).newDecoder();
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.putInt(101).put((byte) 0).flip();
+        decoder.decode(header, new Frames.Collector());
+    }
+
+    @Test(expected = FrameException.class)
+    public void rejectsNegativeLength() throws Exception {
+        FrameDecoder decoder = new LengthFieldFrameCodec().newDecoder();
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.putInt(-1).put((byte) 0).flip();
+        decoder.decode(header, new Frames.Collector());
+    }
+
+    @Test(expected = FrameException.class)
+    public void rejectsUnknownFlags() throws Exception {
+        FrameDecoder decoder = new LengthFieldFrameCodec().newDecoder();
+        ByteBuffer header = ByteBuffer.allocate(6);
+        header.putInt(1).put((byte) 0x80).put((byte) 0).flip();
+        decoder.decode(header, new Frames.Collector());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeHeaderRejectsUnknownFlags() {
+        new LengthFieldFrameCodec().writeHeader(ByteBuffer.allocate(5), 1, 0x80);
+    }
+
+    @Test
+    public void shortLengthFieldCapsTheMax() {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec(2, Integer.MAX_VALUE);
+        assertEquals(3, codec.headerLength());
+        codec.writeHeader(ByteBuffer.allocate(3), 0xFFFF, FrameFlags.NONE);
+        try {
+            codec.writeHeader(ByteBuffer.allocate(3), 0x10000, FrameFlags.NONE);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.longway.core.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IdleTimerWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    public void expiresOnTheTickOfTheDeadline() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 8, 0);
+        Session session = newSession();
+        wheel.schedule(session, 35);
+        assertEquals(1, wheel.size());
+        Recorder recorder = new Recorder();
+        wheel.expire(39, recorder);
+        assertTrue(recorder.mExpired.isEmpty());
+        // rounded up to the tick at 40
+        wheel.expire(40, recorder);
+        assertEquals(1, recorder.mExpired.size());
+        assertSame(session, recorder.mExpired.get(0));
+        assertEquals(0, wheel.size());
+        assertEquals(-1, session.mWheelTick);
+    }
+
+    @Test
+    public void removedSessionsDoNotExpire() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 8, 0);
+        Session first = newSession();
+        Session second = newSession();
+        Session third = newSession();
+        wheel.schedule(first, 20);
+        wheel.schedule(second, 20);
+        wheel.schedule(third, 20);
+        wheel.remove(second);
+        // twice is harmless
+        wheel.remove(second);
+        assertEquals(2, wheel.size());
+        Recorder recorder = new Recorder();
+        wheel.expire(20, recorder);
+        assertEquals(2, recorder.mExpired.size());
+        assertTrue(recorder.mExpired.contains(first));
+        assertTrue(recorder.mExpired.contains(third));
+    }
+
+    @Test
+    public void rescheduleMovesTheDeadline() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 8, 0);
+        Session session = newSession();
+        wheel.schedule(session, 20);
+        wheel.schedule(session, 50);
+        assertEquals(1, wheel.size());
+        Recorder recorder = new Recorder();
+        wheel.expire(40, recorder);
+        assertTrue(recorder.mExpired.isEmpty());
+        wheel.expire(50, recorder);
+        assertEquals(1, recorder.mExpired.size());
+    }
+
+    @Test
+    public void deadlineBeyondOneTurnWaitsForItsTick() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 4, 0);
+        Session session = newSession();
+        // tick 10 shares the bucket of tick 2 and 6
+        wheel.schedule(session, 100);
+        Recorder recorder = new Recorder();
+        for (long now = 10; now < 100; now += TICK) {
+            wheel.expire(now, recorder);
+        }
+        assertTrue(recorder.mExpired.isEmpty());
+        wheel.expire(100, recorder);
+        assertEquals(1, recorder.mExpired.size());
+    }
+
+    @Test
+    public void dueDeadlineExpiresOnTheNextTick() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 8, 0);
+        Recorder recorder = new Recorder();
+        wheel.expire(30, recorder);
+        Session session = newSession();
+        wheel.schedule(session, 5);
+        wheel.expire(39, recorder);
+        assertTrue(recorder.mExpired.isEmpty());
+        wheel.expire(40, recorder);
+        assertEquals(1, recorder.mExpired.size());
+    }
+
+    @Test
+    public void longPauseExpiresEverythingOnce() {
+        IdleTimerWheel wheel = new IdleTimerWheel(TICK, 4, 0);
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            Session session = newSession();
+            wheel.schedule(session, i * TICK);
+            sessions.add(session);
+        }
+        Recorder recorder = new Recorder();
+        wheel.expire(1000, recorder);
+        assertEquals(10, recorder.mExpired.size());
+        assertTrue(recorder.mExpired.containsAll(sessions));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void handlerMayScheduleTheSessionAgain() {
+        final IdleTimerWheel wheel = new IdleTimerWheel(TICK, 4, 0);
+        final Session session = newSession();
+        wheel.schedule(session, 10);
+        final List<Long> expired = new ArrayList<>();
+        IdleTimerWheel.Handler handler = new IdleTimerWheel.Handler() {
+            @Override
+            public void onExpired(Session s, long now) {
+                expired.add(now);
+                // one turn later, the bucket being walked right now
+                wheel.schedule(s, now + 4 * TICK);
+            }
+        };
+        wheel.expire(10, handler);
+        assertEquals(1, expired.size());
+        assertEquals(1, wheel.size());
+        wheel.expire(40, handler);
+        assertEquals(1, expired.size());
+        wheel.expire(50, handler);
+        assertEquals(2, expired.size());
+    }
+
+    private static Session newSession() {
+        return new Session(null, null);
+    }
+
+    private static final class Recorder implements IdleTimerWheel.Handler {
+        final List<Session> mExpired = new ArrayList<>();
+
+        @Override
+        public void onExpired(Session session, long now) {
+            mExpired.add(session);
+        }
+    }
+}
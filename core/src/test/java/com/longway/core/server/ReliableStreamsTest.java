@@ -0,0 +1,73 @@
+package com.longway.core.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReliableStreamsTest {
+
+    @Test
+    public void openReturnsTheSameStreamForAnId() {
+        ReliableStreams streams = new ReliableStreams();
+        ReliableStreams.Stream stream = streams.open(7);
+        assertSame(stream, streams.open(7));
+        assertNotSame(stream, streams.open(8));
+    }
+
+    @Test
+    public void deliversInOrderAndAcksDuplicatesAgain() {
+        Session session = new Session(null, null);
+        ReliableStreams.Stream stream = owned(session);
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 1));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 2));
+        assertEquals(ReliableStreams.Stream.DUPLICATE, stream.accept(session, 2));
+        assertEquals(ReliableStreams.Stream.DUPLICATE, stream.accept(session, 1));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 3));
+    }
+
+    @Test
+    public void dropsAGap() {
+        Session session = new Session(null, null);
+        ReliableStreams.Stream stream = owned(session);
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 1));
+        assertEquals(ReliableStreams.Stream.DROP, stream.accept(session, 3));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 2));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 3));
+    }
+
+    @Test
+    public void unknownStreamContinuesAtItsFirstFrame() {
+        Session session = new Session(null, null);
+        ReliableStreams.Stream stream = owned(session);
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 41));
+        assertEquals(ReliableStreams.Stream.DUPLICATE, stream.accept(session, 41));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, 42));
+    }
+
+    @Test
+    public void sequenceWrapsAround() {
+        Session session = new Session(null, null);
+        ReliableStreams.Stream stream = owned(session);
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, Integer.MAX_VALUE));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(session, Integer.MIN_VALUE));
+        assertEquals(ReliableStreams.Stream.DUPLICATE, stream.accept(session, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void dropsFramesOfAReplacedConnection() {
+        Session old = new Session(null, null);
+        ReliableStreams.Stream stream = owned(old);
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(old, 1));
+        Session current = new Session(null, null);
+        stream.mOwner = current;
+        assertEquals(ReliableStreams.Stream.DROP, stream.accept(old, 2));
+        assertEquals(ReliableStreams.Stream.DUPLICATE, stream.accept(current, 1));
+        assertEquals(ReliableStreams.Stream.DELIVER, stream.accept(current, 2));
+    }
+
+    private static ReliableStreams.Stream owned(Session session) {
+        ReliableStreams.Stream stream = new ReliableStreams().open(1);
+        stream.mOwner = session;
+        return stream;
+    }
+}
@@ -0,0 +1,186 @@
+package com.longway.core.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerTest {
+    /**
+     * the manager is a process wide singleton, every test uses keys of its own
+     */
+    private final SessionManager mManager = SessionManager.getInstance();
+
+    @Test
+    public void idFindsTheSession() {
+        List<Session> sessions = new ArrayList<>();
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Session session = newSession();
+            mManager.addSession(session);
+            assertTrue(ids.add(session.getId()));
+            sessions.add(session);
+        }
+        for (Session session : sessions) {
+            assertSame(session, mManager.getSession(session.getId()));
+        }
+        for (Session session : sessions) {
+            mManager.removeSession(session);
+            assertNull(mManager.getSession(session.getId()));
+        }
+    }
+
+    @Test
+    public void freedSlotIsReusedUnderANewId() {
+        Session first = newSession();
+        mManager.addSession(first);
+        final long firstId = first.getId();
+        mManager.removeSession(first);
+        // one of the next adds lands on the stripe of the first, in the slot it freed
+        Session reused = null;
+        List<Session> added = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Session session = newSession();
+            mManager.addSession(session);
+            added.add(session);
+            if ((int) session.getId() == (int) firstId) {
+                reused = session;
+            }
+        }
+        assertNotNull(reused);
+        assertNotEquals(firstId, reused.getId());
+        assertNull(mManager.getSession(firstId));
+        assertSame(reused, mManager.getSession(reused.getId()));
+        for (Session session : added) {
+            mManager.removeSession(session);
+        }
+    }
+
+    @Test
+    public void removeOnlyCountsOnce() {
+        Session session = newSession();
+        final int size = mManager.size();
+        mManager.addSession(session);
+        assertEquals(size + 1, mManager.size());
+        mManager.removeSession(session);
+        mManager.removeSession(session);
+        assertEquals(size, mManager.size());
+        // never added
+        mManager.removeSession(newSession());
+        assertEquals(size, mManager.size());
+    }
+
+    @Test
+    public void indexFollowsBindAndGroups() {
+        Session session = newSession();
+        mManager.addSession(session);
+        mManager.bindUser(session, "index-user-a");
+        mManager.joinGroup(session, "index-group");
+        assertTrue(mManager.getUserSessions("index-user-a").contains(session));
+        assertTrue(mManager.getGroupSessions("index-group").contains(session));
+
+        mManager.bindUser(session, "index-user-b");
+        assertTrue(mManager.getUserSessions("index-user-a").isEmpty());
+        assertTrue(mManager.getUserSessions("index-user-b").contains(session));
+
+        mManager.leaveGroup(session, "index-group");
+        assertTrue(mManager.getGroupSessions("index-group").isEmpty());
+        mManager.joinGroup(session, "index-group");
+
+        mManager.removeSession(session);
+        assertTrue(mManager.getUserSessions("index-user-b").isEmpty());
+        assertTrue(mManager.getGroupSessions("index-group").isEmpty());
+    }
+
+    @Test
+    public void removedSessionIsNotIndexedAgain() {
+        Session session = newSession();
+        mManager.addSession(session);
+        mManager.removeSession(session);
+        mManager.bindUser(session, "removed-user");
+        mManager.joinGroup(session, "removed-group");
+        assertTrue(mManager.getUserSessions("removed-user").isEmpty());
+        assertTrue(mManager.getGroupSessions("removed-group").isEmpty());
+    }
+
+    @Test
+    public void joinRacingARemoveIsNotLeftBehind() throws Exception {
+        final int rounds = 2000;
+        final List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            Session session = newSession();
+            mManager.addSession(session);
+            sessions.add(session);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread joiner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                for (Session session : sessions) {
+                    mManager.joinGroup(session, "race-removed");
+                }
+            }
+        });
+        joiner.start();
+        start.countDown();
+        for (Session session : sessions) {
+            mManager.removeSession(session);
+        }
+        joiner.join();
+        assertTrue(mManager.getGroupSessions("race-removed").isEmpty());
+    }
+
+    @Test
+    public void joinRacingALeaveIsNotLost() throws Exception {
+        final int rounds = 20000;
+        final Session member = newSession();
+        final Session leaver = newSession();
+        mManager.addSession(member);
+        mManager.addSession(leaver);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger lost = new AtomicInteger();
+        Thread churn = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                for (int i = 0; i < rounds; i++) {
+                    // empties the set and unmaps it every round
+                    mManager.joinGroup(leaver, "race-lost");
+                    mManager.leaveGroup(leaver, "race-lost");
+                }
+            }
+        });
+        churn.start();
+        start.countDown();
+        for (int i = 0; i < rounds; i++) {
+            mManager.joinGroup(member, "race-lost");
+            if (!mManager.getGroupSessions("race-lost").contains(member)) {
+                lost.incrementAndGet();
+            }
+            mManager.leaveGroup(member, "race-lost");
+        }
+        churn.join();
+        assertEquals(0, lost.get());
+        mManager.removeSession(member);
+        mManager.removeSession(leaver);
+    }
+
+    private static Session newSession() {
+        return new Session(null, null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.longway.core.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void largeValuesAreWithinTheResolution() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000000; i++) {
+            histogram.record(i * 1000);
+        }
+        final double[] percentiles = {1, 25, 50, 90, 99, 99.9};
+        for (double percentile : percentiles) {
+            final long expected = (long) (percentile * 10000) * 1000;
+            final long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected);
+            assertTrue(percentile + ": " + actual, actual <= expected + expected / 64);
+        }
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+        assertEquals(1000000000L, histogram.getMax());
+    }
+
+    @Test
+    public void extremeValuesAreRecorded() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void percentileIsClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(20);
+        assertEquals(10, histogram.getValueAtPercentile(-1));
+        assertEquals(20, histogram.getValueAtPercentile(150));
+    }
+
+    @Test
+    public void addMergesCountsAndMax() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        for (int i = 0; i < 10; i++) {
+            first.record(1);
+            second.record(100);
+        }
+        first.add(second);
+        assertEquals(20, first.getTotalCount());
+        assertEquals(100, first.getMax());
+        assertEquals(1, first.getValueAtPercentile(50));
+        assertEquals(100, first.getValueAtPercentile(51));
+        assertEquals(10, second.getTotalCount());
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getTotalCount());
+        assertEquals(99999, histogram.getMax());
+    }
+}
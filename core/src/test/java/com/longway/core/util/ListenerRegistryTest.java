@@ -0,0 +1,88 @@
+package com.longway.core.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ListenerRegistryTest {
+
+    @Test
+    public void keepsTheRegistrationOrder() {
+        ListenerRegistry<String> registry = new ListenerRegistry<>();
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.register("a"));
+        assertTrue(registry.register("b"));
+        assertTrue(registry.register("c"));
+        assertFalse(registry.register("b"));
+        assertArrayEquals(new Object[]{"a", "b", "c"}, registry.snapshot());
+        assertTrue(registry.unregister("b"));
+        assertFalse(registry.unregister("b"));
+        assertArrayEquals(new Object[]{"a", "c"}, registry.snapshot());
+        assertTrue(registry.unregister("a"));
+        assertTrue(registry.unregister("c"));
+        assertTrue(registry.isEmpty());
+        assertEquals(0, registry.snapshot().length);
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterRegistrations() {
+        ListenerRegistry<String> registry = new ListenerRegistry<>();
+        registry.register("a");
+        Object[] snapshot = registry.snapshot();
+        registry.register("b");
+        registry.unregister("a");
+        assertArrayEquals(new Object[]{"a"}, snapshot);
+        assertArrayEquals(new Object[]{"b"}, registry.snapshot());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void registerRejectsNull() {
+        new ListenerRegistry<String>().register(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void unregisterRejectsNull() {
+        new ListenerRegistry<String>().unregister(null);
+    }
+
+    @Test
+    public void concurrentRegistrationsAreNotLost() throws Exception {
+        final ListenerRegistry<Integer> registry = new ListenerRegistry<>();
+        final int threads = 4;
+        final int perThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        registry.register(base + i);
+                    }
+                    // every other one goes again
+                    for (int i = 0; i < perThread; i += 2) {
+                        registry.unregister(base + i);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Object[] listeners = registry.snapshot();
+        assertEquals(threads * perThread / 2, listeners.length);
+        for (Object listener : listeners) {
+            assertEquals(1, (Integer) listener % 2);
+        }
+    }
+}
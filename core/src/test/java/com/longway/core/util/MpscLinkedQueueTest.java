@@ -0,0 +1,78 @@
+package com.longway.core.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class MpscLinkedQueueTest {
+
+    @Test
+    public void pollsInOfferOrder() {
+        MpscLinkedQueue<Integer> queue = new MpscLinkedQueue<>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        assertFalse(queue.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        queue.offer(42);
+        assertEquals(Integer.valueOf(42), queue.poll());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void offerRejectsNull() {
+        new MpscLinkedQueue<Object>().offer(null);
+    }
+
+    @Test
+    public void keepsTheOrderOfEveryProducer() throws Exception {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final MpscLinkedQueue<long[]> queue = new MpscLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(new long[]{producer, i});
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+        final long[] next = new long[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            final int producer = (int) element[0];
+            assertEquals(next[producer], element[1]);
+            next[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,146 @@
+package com.longway.core.util;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+
+    @Test
+    public void runsOneAtATimeInSubmissionOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor executor = new SerialExecutor(pool);
+            final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger overlaps = new AtomicInteger();
+            final int count = 10000;
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                final int n = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (running.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        order.add(n);
+                        running.decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.valueOf(i), order.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void busyQueueGivesTheThreadBack() {
+        ManualExecutor pool = new ManualExecutor();
+        final List<String> order = new ArrayList<>();
+        SerialExecutor busy = new SerialExecutor(pool);
+        SerialExecutor other = new SerialExecutor(pool);
+        for (int i = 0; i < 100; i++) {
+            busy.execute(record(order, "busy"));
+        }
+        other.execute(record(order, "other"));
+        // one drain each, no matter how many tasks
+        assertEquals(2, pool.mTasks.size());
+        pool.runAll();
+        assertEquals(101, order.size());
+        assertEquals("other", order.get(64));
+        assertEquals("busy", order.get(65));
+    }
+
+    @Test
+    public void failingTaskDoesNotStallTheOthers() {
+        ManualExecutor pool = new ManualExecutor();
+        final List<String> order = new ArrayList<>();
+        SerialExecutor executor = new SerialExecutor(pool);
+        executor.execute(record(order, "first"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected by the test");
+            }
+        });
+        executor.execute(record(order, "last"));
+        pool.runAll();
+        assertEquals(2, order.size());
+        assertEquals("last", order.get(1));
+    }
+
+    @Test
+    public void rejectedTaskStaysQueued() {
+        ManualExecutor pool = new ManualExecutor();
+        final List<String> order = new ArrayList<>();
+        SerialExecutor executor = new SerialExecutor(pool);
+        pool.mRejecting = true;
+        try {
+            executor.execute(record(order, "rejected"));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        pool.mRejecting = false;
+        executor.execute(record(order, "accepted"));
+        pool.runAll();
+        assertEquals(2, order.size());
+        assertEquals("rejected", order.get(0));
+        assertEquals("accepted", order.get(1));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullExecutorFails() {
+        new SerialExecutor(null);
+    }
+
+    private static Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    /**
+     * runs the submitted tasks on the test thread in submission order
+     */
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        boolean mRejecting;
+
+        @Override
+        public void execute(Runnable command) {
+            if (mRejecting) {
+                throw new RejectedExecutionException();
+            }
+            mTasks.offer(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
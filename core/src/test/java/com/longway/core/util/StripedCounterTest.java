@@ -0,0 +1,43 @@
+package com.longway.core.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StripedCounterTest {
+
+    @Test
+    public void sumsAddsOfOneThread() {
+        StripedCounter counter = new StripedCounter();
+        assertEquals(0, counter.sum());
+        counter.increment();
+        counter.add(41);
+        counter.add(-2);
+        assertEquals(40, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void concurrentAddsAreNotLost() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int perThread = 100000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        counter.increment();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) threads * perThread, counter.sum());
+    }
+}